@@ -0,0 +1,51 @@
+package com.skilld.kubernetes;
+
+import io.fabric8.kubernetes.api.model.JobConditionBuilder;
+import io.fabric8.kubernetes.api.model.JobStatusBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Checking the completion of a job from its watched resource.
+ */
+@State(Scope.Benchmark)
+public class JobBenchmark {
+
+    @Param({"small", "large"})
+    public String size;
+
+    private io.fabric8.kubernetes.api.model.Job running;
+    private io.fabric8.kubernetes.api.model.Job complete;
+
+    @Setup
+    public void setUp() {
+        final int conditions = "large".equals(size) ? 50 : 1;
+        final JobStatusBuilder runningStatus = new JobStatusBuilder().withActive(1);
+        for (int i = 0; i < conditions; i++) {
+            runningStatus.addToConditions(new JobConditionBuilder().withType("Suspended").withStatus("False").build());
+        }
+        running = new io.fabric8.kubernetes.api.model.JobBuilder()
+                .withNewMetadata().withName("benchmark-1").endMetadata()
+                .withStatus(runningStatus.build())
+                .build();
+        complete = new io.fabric8.kubernetes.api.model.JobBuilder(running)
+                .editStatus()
+                    .withActive(0)
+                    .addToConditions(new JobConditionBuilder().withType("Complete").withStatus("True").build())
+                .endStatus()
+                .build();
+    }
+
+    @Benchmark
+    public Boolean isCompleteRunning() {
+        return new Job(running).isComplete(running);
+    }
+
+    @Benchmark
+    public Boolean isCompleteComplete() {
+        return new Job(complete).isComplete(complete);
+    }
+}
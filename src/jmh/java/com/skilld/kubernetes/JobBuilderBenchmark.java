@@ -0,0 +1,114 @@
+package com.skilld.kubernetes;
+
+import io.fabric8.kubernetes.api.model.Job;
+import io.fabric8.kubernetes.api.model.Quantity;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Building a job resource from a configuration, from scratch and from a cached template.
+ */
+@State(Scope.Benchmark)
+public class JobBuilderBenchmark {
+
+    @Param({"small", "large"})
+    public String size;
+
+    private JobConfiguration configuration;
+    private JobConfiguration runConfiguration;
+    private JobTemplate template;
+
+    @Setup
+    public void setUp() {
+        final boolean large = "large".equals(size);
+        final Map<String, String> options = Inputs.options(large ? 500 : 5);
+        final Map<String, String> labels = Inputs.labels(large ? 30 : 2);
+
+        configuration = new JobConfiguration();
+        configuration.setName("benchmark-1");
+        configuration.setNamespace("default");
+        configuration.setImage("busybox:latest");
+        configuration.setRestartPolicy("Never");
+        configuration.setImagePullPolicy("IfNotPresent");
+        configuration.setCompletions(1);
+        configuration.setParallelism(1);
+        if (large) {
+            configuration.setImagePullSecrets("registry");
+            configuration.setNodeSelector("disk=ssd,zone=a");
+            configuration.setActiveDeadlineSeconds(600L);
+            for (int i = 0; i < 5; i++) {
+                configuration.setPersistentVolume("data-" + i, "/data/" + i, options);
+                configuration.setSecret("secret-" + i, "/secrets/" + i, options);
+            }
+            final Map<String, Quantity> requests = new HashMap<>();
+            requests.put("cpu", new Quantity("500m"));
+            requests.put("memory", new Quantity("256Mi"));
+            configuration.setResourceRequests(requests);
+        }
+        configuration.setCommand(Inputs.command(large), options);
+        configuration.setArguments(Inputs.arguments(large), options);
+
+        runConfiguration = new JobConfiguration();
+        runConfiguration.setName(configuration.getName());
+        runConfiguration.setLabels(labels);
+        runConfiguration.setCommand(Inputs.command(large), options);
+        runConfiguration.setArguments(Inputs.arguments(large), options);
+        configuration.setLabels(labels);
+        template = new JobTemplate(configuration);
+    }
+
+    @Benchmark
+    public Job build() {
+        return JobBuilder.build(configuration);
+    }
+
+    @Benchmark
+    public Job instantiateTemplate() {
+        return template.instantiate(runConfiguration);
+    }
+
+    // keeps the input generation out of the benchmarked code
+    static final class Inputs {
+
+        static Map<String, String> options(int count) {
+            final Map<String, String> options = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                options.put("option" + i, "value-" + i);
+            }
+            return options;
+        }
+
+        static Map<String, String> labels(int count) {
+            final Map<String, String> labels = new HashMap<>();
+            for (int i = 0; i < count; i++) {
+                labels.put("example.com/label-" + i, "value-" + i);
+            }
+            return Collections.unmodifiableMap(labels);
+        }
+
+        static String command(boolean large) {
+            return large ? "sh -c 'for i in $(seq 1 ${option1}); do echo \"${option2} $i\"; done'" : "echo ${option1}";
+        }
+
+        static String arguments(boolean large) {
+            if (!large) {
+                return "--name ${option0} --verbose";
+            }
+            final StringBuilder arguments = new StringBuilder();
+            for (int i = 0; i < 200; i++) {
+                arguments.append("--arg").append(i).append(" ${option").append(i).append("} ");
+                if (i % 20 == 0) {
+                    arguments.append("\"quoted ${option").append(i).append("} value\" ");
+                }
+            }
+            return arguments.toString();
+        }
+    }
+}
@@ -0,0 +1,63 @@
+package com.skilld.kubernetes;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Option substitution and tokenizing of the command and the arguments.
+ */
+@State(Scope.Benchmark)
+public class JobConfigurationBenchmark {
+
+    // more distinct inputs than the compiled template cache holds
+    private static final int COLD_INPUTS = 1024;
+
+    @Param({"small", "large"})
+    public String size;
+
+    private Map<String, String> options;
+    private String command;
+    private String arguments;
+    private String[] coldArguments;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        final boolean large = "large".equals(size);
+        options = JobBuilderBenchmark.Inputs.options(large ? 500 : 5);
+        command = JobBuilderBenchmark.Inputs.command(large);
+        arguments = JobBuilderBenchmark.Inputs.arguments(large);
+        coldArguments = new String[COLD_INPUTS];
+        for (int i = 0; i < COLD_INPUTS; i++) {
+            coldArguments[i] = arguments + " --run " + i;
+        }
+    }
+
+    @Benchmark
+    public List<String> setCommand() {
+        final JobConfiguration configuration = new JobConfiguration();
+        configuration.setCommand(command, options);
+        return configuration.getCommand();
+    }
+
+    @Benchmark
+    public List<String> setArguments() {
+        final JobConfiguration configuration = new JobConfiguration();
+        configuration.setArguments(arguments, options);
+        return configuration.getArguments();
+    }
+
+    // arguments that are never found in the compiled template cache
+    @Benchmark
+    public List<String> setArgumentsUncached() {
+        final JobConfiguration configuration = new JobConfiguration();
+        configuration.setArguments(coldArguments[next++ & (COLD_INPUTS - 1)], options);
+        return configuration.getArguments();
+    }
+}
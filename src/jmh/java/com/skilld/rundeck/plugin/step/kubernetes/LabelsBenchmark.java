@@ -0,0 +1,55 @@
+package com.skilld.rundeck.plugin.step.kubernetes;
+
+import com.dtolabs.rundeck.core.execution.workflow.steps.StepException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+
+/**
+ * Validating and parsing the labels of a job.
+ */
+@State(Scope.Benchmark)
+public class LabelsBenchmark {
+
+    // more distinct label strings than the memoized results hold
+    private static final int COLD_INPUTS = 1024;
+
+    @Param({"small", "large"})
+    public String size;
+
+    private String labels;
+    private String[] coldLabels;
+    private int next = 0;
+
+    @Setup
+    public void setUp() {
+        final int count = "large".equals(size) ? 50 : 2;
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                builder.append(KubernetesStep.LABELSEPARATOR);
+            }
+            builder.append("example.com/label-").append(i).append(KubernetesStep.LABELKVSEPARATOR).append("value.").append(i);
+        }
+        labels = builder.toString();
+        coldLabels = new String[COLD_INPUTS];
+        for (int i = 0; i < COLD_INPUTS; i++) {
+            coldLabels[i] = labels + KubernetesStep.LABELSEPARATOR + "job-name" + KubernetesStep.LABELKVSEPARATOR + "benchmark-" + i;
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> validateAndGetLabels() throws StepException {
+        return KubernetesStep.validateAndGetLabels(KubernetesStep.LABELKVSEPARATOR, KubernetesStep.LABELSEPARATOR, labels);
+    }
+
+    // label strings that are never found in the memoized results
+    @Benchmark
+    public Map<String, String> validateAndGetLabelsUncached() throws StepException {
+        return KubernetesStep.validateAndGetLabels(KubernetesStep.LABELKVSEPARATOR, KubernetesStep.LABELSEPARATOR, coldLabels[next++ & (COLD_INPUTS - 1)]);
+    }
+}
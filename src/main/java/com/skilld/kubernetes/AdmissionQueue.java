@@ -0,0 +1,558 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * AdmissionQueue.java
+ *
+ * Created: 10/16/2026 12:03 AM
+ *
+ */
+package com.skilld.kubernetes;
+
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.Job;
+import io.fabric8.kubernetes.api.model.JobSpec;
+import io.fabric8.kubernetes.api.model.Quantity;
+import io.fabric8.kubernetes.api.model.ResourceQuota;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Admits the job creations of each namespace of a cluster one after the other, so that a burst
+ * of executions doesn't trip the API server throttling or the namespace quotas:
+ * - a token bucket limits the rate of the creations
+ * - a creation waits until the ResourceQuotas of the namespace leave room for the pods and the
+ *   resource requests of its job, counting the jobs admitted since the quotas were read
+ * - a creation throttled (429), conflicting (409) or rejected by a quota is retried after a
+ *   random exponential backoff
+ * Creations run on the {@link JobEngine}, nothing waits on a thread. The queue of a namespace is
+ * dropped once it has been idle for the reservation TTL.
+ */
+public class AdmissionQueue {
+	static Logger logger = Logger.getLogger(AdmissionQueue.class);
+
+	public static final double DEFAULT_RATE = 10;
+	public static final int DEFAULT_BURST = 20;
+	static final long QUOTA_REFRESH_INTERVAL = 1000;
+	// how long the usage of an admitted job may take to show in the quotas
+	static final long DEFAULT_RESERVATION_TTL = 10000;
+	static final int MAX_ATTEMPTS = 6;
+	static final long RETRY_DELAY = 500;
+	static final long MAX_RETRY_DELAY = 15000;
+
+	static final String PODS = "pods";
+	static final String REQUESTS_CPU = "requests.cpu";
+	static final String REQUESTS_MEMORY = "requests.memory";
+	static final String JOBS = "count/jobs.batch";
+
+	private static final Pattern QUANTITY = Pattern.compile("^([+-]?[0-9.]+)(?:([eE][+-]?[0-9]+)|([numkKMGTPE]i?))?$");
+
+	private static final AdmissionQueue instance = new AdmissionQueue(DEFAULT_RATE, DEFAULT_BURST, DEFAULT_RESERVATION_TTL);
+
+	private final double rate;
+	private final int burst;
+	private final long reservationTtl;
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "kubernetes-admission-queue");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final Map<LaneKey, Lane> lanes = new HashMap<LaneKey, Lane>();
+
+	/**
+	 * @param _rate The default number of creations per second in each namespace.
+	 * @param _burst The default number of creations admitted at once after an idle period.
+	 * @param _reservationTtl How long an admitted job counts against the quotas on top of their usage, in milliseconds.
+	 */
+	public AdmissionQueue(double _rate, int _burst, long _reservationTtl) {
+		rate = _rate;
+		burst = _burst;
+		reservationTtl = _reservationTtl;
+	}
+
+	public static AdmissionQueue getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Queue the creation of a job, at the default rate and burst.
+	 * @param client The client of the cluster.
+	 * @param namespace The namespace of the job.
+	 * @param job The job, whose pods and resource requests are checked against the quotas.
+	 * @param create Creates the job.
+	 * @return The result of the creation, failing with the last error once the retries are exhausted;
+	 * completing it before the job is admitted cancels the creation.
+	 */
+	public <T> CompletableFuture<T> submit(KubernetesClient client, String namespace, Job job, Callable<T> create) {
+		return submit(client, namespace, rate, burst, job, create);
+	}
+
+	/**
+	 * Queue the creation of a job. The rate and burst of the latest creation apply to its namespace.
+	 * @param client The client of the cluster.
+	 * @param namespace The namespace of the job.
+	 * @param rate The number of creations per second in the namespace.
+	 * @param burst The number of creations admitted at once after an idle period.
+	 * @param job The job, whose pods and resource requests are checked against the quotas.
+	 * @param create Creates the job.
+	 * @return The result of the creation, failing with the last error once the retries are exhausted;
+	 * completing it before the job is admitted cancels the creation.
+	 */
+	public <T> CompletableFuture<T> submit(KubernetesClient client, String namespace, double rate, int burst, Job job, Callable<T> create) {
+		if (rate <= 0 || burst < 1) {
+			throw new IllegalArgumentException("The admission rate must be positive and the burst at least 1");
+		}
+		Submission<T> submission = new Submission<T>(client, demand(job.getSpec()), rate, burst, create);
+		Lane lane;
+		synchronized (this) {
+			// the clients of every token of a cluster share the lane of a namespace
+			LaneKey key = new LaneKey(client.getMasterUrl().toString(), namespace);
+			lane = lanes.get(key);
+			if (null == lane) {
+				lane = new Lane(key, Metrics.cluster(client), burst);
+				lanes.put(key, lane);
+			}
+			// the lane is kept until its submissions complete
+			lane.submissions++;
+		}
+		Lane submitted = lane;
+		submission.result.whenComplete((value, e) -> submitted.completed());
+		lane.enqueue(submission);
+		return submission.result;
+	}
+
+	/**
+	 * @return The number of namespaces with a queue.
+	 */
+	public synchronized int size() {
+		return lanes.size();
+	}
+
+	/**
+	 * @return The resources the pods of a job request at once, by quota resource name.
+	 */
+	static Map<String, Double> demand(JobSpec spec) {
+		Map<String, Double> demand = new HashMap<String, Double>();
+		int pods = 1;
+		if (null != spec && null != spec.getParallelism()) {
+			pods = Math.max(1, null != spec.getCompletions() ? Math.min(spec.getParallelism(), spec.getCompletions()) : spec.getParallelism());
+		}
+		demand.put(PODS, (double) pods);
+		demand.put(JOBS, 1.0);
+		if (null == spec || null == spec.getTemplate() || null == spec.getTemplate().getSpec()) {
+			return demand;
+		}
+		double cpu = 0;
+		double memory = 0;
+		for (Container container : spec.getTemplate().getSpec().getContainers()) {
+			if (null != container.getResources() && null != container.getResources().getRequests()) {
+				Map<String, Quantity> requests = container.getResources().getRequests();
+				try {
+					cpu += requests.containsKey("cpu") ? parse(requests.get("cpu")) : 0;
+					memory += requests.containsKey("memory") ? parse(requests.get("memory")) : 0;
+				} catch (IllegalArgumentException e) {
+					// the API server rejects the job
+					logger.warn("Ignoring the requests of container " + container.getName() + ": " + e.getMessage());
+				}
+			}
+		}
+		demand.put(REQUESTS_CPU, pods * cpu);
+		demand.put(REQUESTS_MEMORY, pods * memory);
+		// the quotas may name the requests without their prefix
+		demand.put("cpu", pods * cpu);
+		demand.put("memory", pods * memory);
+		return demand;
+	}
+
+	/**
+	 * @return The value of a quantity, in cores for cpus and in bytes for memory.
+	 */
+	static double parse(Quantity quantity) {
+		String text = (null != quantity.getAmount() ? quantity.getAmount() : "") + (null != quantity.getFormat() ? quantity.getFormat() : "");
+		Matcher matcher = QUANTITY.matcher(text.trim());
+		if (!matcher.matches()) {
+			throw new IllegalArgumentException("Invalid quantity " + text);
+		}
+		double value = Double.parseDouble(matcher.group(1));
+		if (null != matcher.group(2)) {
+			return value * Math.pow(10, Integer.parseInt(matcher.group(2).substring(1)));
+		}
+		String suffix = matcher.group(3);
+		if (null == suffix) {
+			return value;
+		}
+		int exponent = "num kMGTPE".indexOf('K' == suffix.charAt(0) ? 'k' : suffix.charAt(0)) - 3;
+		return suffix.endsWith("i") ? value * Math.pow(1024, exponent) : value * Math.pow(1000, exponent);
+	}
+
+	// 429 and 409 other than an existing job are transient, so is a creation rejected by a quota
+	static boolean isRetryable(Throwable t) {
+		KubernetesClientException e = clientException(t);
+		if (null == e) {
+			return false;
+		}
+		switch (e.getCode()) {
+			case 429:
+				return true;
+			case 409:
+				return null == e.getStatus() || !"AlreadyExists".equals(e.getStatus().getReason());
+			case 403:
+				return null != e.getMessage() && e.getMessage().contains("exceeded quota");
+			default:
+				return false;
+		}
+	}
+
+	private static KubernetesClientException clientException(Throwable t) {
+		KubernetesClientException found = null;
+		for (Throwable cause = JobEngine.unwrap(t); null != cause; cause = cause.getCause()) {
+			if (cause instanceof KubernetesClientException && (null == found || 0 == found.getCode())) {
+				found = (KubernetesClientException) cause;
+			}
+		}
+		return found;
+	}
+
+	// full jitter, at least what the server asked for
+	private static long retryDelay(Throwable t, int attempt) {
+		long ceiling = Math.min(MAX_RETRY_DELAY, RETRY_DELAY << Math.min(attempt - 1, 20));
+		long delay = ThreadLocalRandom.current().nextLong(ceiling + 1);
+		KubernetesClientException e = clientException(t);
+		if (null != e && null != e.getStatus() && null != e.getStatus().getDetails() && null != e.getStatus().getDetails().getRetryAfterSeconds()) {
+			delay = Math.max(delay, TimeUnit.SECONDS.toMillis(e.getStatus().getDetails().getRetryAfterSeconds()));
+		}
+		return delay;
+	}
+
+	/**
+	 * The queue of a namespace. Its state is only changed on the scheduler thread.
+	 */
+	private class Lane {
+		private final LaneKey key;
+		private final String namespace;
+		private final String cluster;
+		private final Deque<Submission<?>> waiting = new ArrayDeque<Submission<?>>();
+		private final List<Reservation> reservations = new ArrayList<Reservation>();
+		// the settings of the latest submission
+		private double rate;
+		private int burst;
+		private double tokens;
+		private long refilledAt = System.nanoTime();
+		// the submissions not completed yet, guarded by the queue
+		private int submissions = 0;
+		private boolean removalScheduled = false;
+		// the room left by the quotas, null until read or when they can't be read
+		private Map<String, Double> free = null;
+		private Map<String, Double> hard = null;
+		private long quotasReadAt = 0;
+		private boolean readingQuotas = false;
+		private boolean quotasUnavailable = false;
+		private ScheduledFuture<?> wakeup = null;
+
+		private Lane(LaneKey _key, String _cluster, int _burst) {
+			key = _key;
+			namespace = key.namespace;
+			cluster = _cluster;
+			burst = _burst;
+			tokens = burst;
+		}
+
+		private void enqueue(Submission<?> submission) {
+			scheduler.execute(() -> {
+				refill();
+				rate = submission.rate;
+				burst = submission.burst;
+				tokens = Math.min(tokens, burst);
+				waiting.add(submission);
+				drain();
+			});
+		}
+
+		private void completed() {
+			synchronized (AdmissionQueue.this) {
+				if (0 != --submissions) {
+					return;
+				}
+			}
+			scheduler.execute(() -> scheduleRemoval(reservationTtl));
+		}
+
+		private void scheduleRemoval(long delay) {
+			if (!removalScheduled) {
+				removalScheduled = true;
+				scheduler.schedule(this::removeIfIdle, delay, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		// once its tokens are back and its reservations expired, a new lane would behave the same
+		private void removeIfIdle() {
+			removalScheduled = false;
+			refill();
+			long expiry = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(reservationTtl);
+			reservations.removeIf(reservation -> reservation.admittedAt - expiry <= 0);
+			boolean idle = waiting.isEmpty() && null == wakeup && !readingQuotas && tokens >= burst && reservations.isEmpty();
+			synchronized (AdmissionQueue.this) {
+				if (0 != submissions) {
+					// checked again once they complete
+					return;
+				}
+				if (idle) {
+					lanes.remove(key, this);
+					return;
+				}
+			}
+			// still refilling or waking up
+			scheduleRemoval(Math.max(reservationTtl, Math.max(QUOTA_REFRESH_INTERVAL, (long) Math.ceil((burst - tokens) * 1000 / rate))));
+		}
+
+		private void drain() {
+			while (!waiting.isEmpty()) {
+				if (waiting.peek().result.isDone()) {
+					// cancelled while queued
+					waiting.poll();
+					continue;
+				}
+				refill();
+				if (tokens < 1) {
+					wakeUpIn((long) Math.ceil((1 - tokens) * 1000 / rate));
+					return;
+				}
+				if (readingQuotas) {
+					// drained again once read
+					return;
+				}
+				if (!quotasUnavailable && System.nanoTime() - quotasReadAt > TimeUnit.MILLISECONDS.toNanos(QUOTA_REFRESH_INTERVAL)) {
+					// the client of a waiting submission is still leased
+					readQuotas(waiting.peek().client);
+					return;
+				}
+				Submission<?> head = waiting.peek();
+				String exceeded = exceededHard(head.demand);
+				if (null != exceeded) {
+					waiting.poll();
+					head.result.completeExceptionally(new KubernetesClientException("The job requests more " + exceeded + " than the quotas of namespace " + namespace + " allow"));
+					continue;
+				}
+				if (!fits(head.demand)) {
+					wakeUpIn(QUOTA_REFRESH_INTERVAL);
+					return;
+				}
+				waiting.poll();
+				tokens -= 1;
+				reservations.add(new Reservation(head.demand));
+				run(head);
+			}
+		}
+
+		private void refill() {
+			long now = System.nanoTime();
+			tokens = Math.min(burst, tokens + (now - refilledAt) * rate / TimeUnit.SECONDS.toNanos(1));
+			refilledAt = now;
+		}
+
+		private void wakeUpIn(long delay) {
+			if (null == wakeup) {
+				wakeup = scheduler.schedule(() -> {
+					wakeup = null;
+					drain();
+				}, delay, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		private <T> void run(Submission<T> submission) {
+			submission.attempt++;
+			if (1 == submission.attempt) {
+				Metrics.getInstance().histogram(Metrics.QUEUE_WAIT,
+					Metrics.NAMESPACE_TAG, namespace, Metrics.CLUSTER_TAG, cluster).recordSince(submission.queuedAt);
+			}
+			JobEngine.getInstance().supply(submission.create).whenComplete((value, e) -> {
+				if (null == e) {
+					submission.result.complete(value);
+				} else if (isRetryable(e) && submission.attempt < MAX_ATTEMPTS) {
+					long delay = retryDelay(e, submission.attempt);
+					logger.warn("Creation in namespace " + namespace + " rejected (attempt " + submission.attempt + "), retrying in " + delay + " ms: " + JobEngine.unwrap(e).getMessage());
+					Metrics.getInstance().counter(Metrics.JOB_CREATE_RETRIES,
+						Metrics.NAMESPACE_TAG, namespace, Metrics.CLUSTER_TAG, cluster).increment();
+					// the rejected job holds no resources, the quotas are read again before the retry
+					scheduler.schedule(() -> {
+						quotasReadAt = 0;
+						waiting.addFirst(submission);
+						drain();
+					}, delay, TimeUnit.MILLISECONDS);
+				} else {
+					submission.result.completeExceptionally(JobEngine.unwrap(e));
+				}
+			});
+		}
+
+		private void readQuotas(KubernetesClient client) {
+			readingQuotas = true;
+			long readAt = System.nanoTime();
+			JobEngine.getInstance().supply(() -> client.resourceQuotas().inNamespace(namespace).list().getItems()).whenComplete((quotas, e) -> scheduler.execute(() -> {
+				readingQuotas = false;
+				quotasReadAt = readAt;
+				try {
+					if (null != e) {
+						// without the permission to read them, the API server alone enforces the quotas
+						logger.warn("Unable to read the quotas of namespace " + namespace + ", admitting jobs regardless", JobEngine.unwrap(e));
+						quotasUnavailable = true;
+						free = null;
+						hard = null;
+					} else {
+						updateQuotas(null != quotas ? quotas : new ArrayList<ResourceQuota>(), readAt);
+					}
+				} finally {
+					drain();
+				}
+			}));
+		}
+
+		private void updateQuotas(List<ResourceQuota> quotas, long readAt) {
+			free = new HashMap<String, Double>();
+			hard = new HashMap<String, Double>();
+			for (ResourceQuota quota : quotas) {
+				if (null == quota.getStatus() || null == quota.getStatus().getHard()) {
+					continue;
+				}
+				Map<String, Quantity> used = null != quota.getStatus().getUsed() ? quota.getStatus().getUsed() : new HashMap<String, Quantity>();
+				for (Map.Entry<String, Quantity> limit : quota.getStatus().getHard().entrySet()) {
+					double value;
+					double room;
+					try {
+						value = parse(limit.getValue());
+						room = value - (used.containsKey(limit.getKey()) ? parse(used.get(limit.getKey())) : 0);
+					} catch (IllegalArgumentException e) {
+						logger.warn("Ignoring " + limit.getKey() + " in quota " + quota.getMetadata().getName() + ": " + e.getMessage());
+						continue;
+					}
+					// the tightest of the quotas applies
+					hard.merge(limit.getKey(), value, Math::min);
+					free.merge(limit.getKey(), room, Math::min);
+				}
+			}
+			// the jobs admitted long enough before the quotas were read are part of their usage
+			long expiry = readAt - TimeUnit.MILLISECONDS.toNanos(reservationTtl);
+			for (Iterator<Reservation> i = reservations.iterator(); i.hasNext(); ) {
+				if (i.next().admittedAt - expiry <= 0) {
+					i.remove();
+				}
+			}
+		}
+
+		private boolean fits(Map<String, Double> demand) {
+			if (null == free) {
+				return true;
+			}
+			for (Map.Entry<String, Double> room : free.entrySet()) {
+				double needed = demand.getOrDefault(room.getKey(), 0.0);
+				if (needed <= 0) {
+					continue;
+				}
+				for (Reservation reservation : reservations) {
+					needed += reservation.demand.getOrDefault(room.getKey(), 0.0);
+				}
+				if (needed > room.getValue()) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		// the resource the job alone requests more of than a quota allows, null if none
+		private String exceededHard(Map<String, Double> demand) {
+			if (null == hard) {
+				return null;
+			}
+			for (Map.Entry<String, Double> limit : hard.entrySet()) {
+				if (demand.getOrDefault(limit.getKey(), 0.0) > limit.getValue()) {
+					return limit.getKey();
+				}
+			}
+			return null;
+		}
+	}
+
+	private static class Submission<T> {
+		private final KubernetesClient client;
+		private final Map<String, Double> demand;
+		private final double rate;
+		private final int burst;
+		private final Callable<T> create;
+		private final CompletableFuture<T> result = new CompletableFuture<T>();
+		// when the creation was queued, in nanoseconds
+		private final long queuedAt = System.nanoTime();
+		private int attempt = 0;
+
+		private Submission(KubernetesClient _client, Map<String, Double> _demand, double _rate, int _burst, Callable<T> _create) {
+			client = _client;
+			demand = _demand;
+			rate = _rate;
+			burst = _burst;
+			create = _create;
+		}
+	}
+
+	private static class Reservation {
+		private final Map<String, Double> demand;
+		// when the job was admitted, in nanoseconds
+		private final long admittedAt = System.nanoTime();
+
+		private Reservation(Map<String, Double> _demand) {
+			demand = _demand;
+		}
+	}
+
+	private static class LaneKey {
+		private final String masterUrl;
+		private final String namespace;
+
+		private LaneKey(String _masterUrl, String _namespace) {
+			masterUrl = _masterUrl;
+			namespace = _namespace;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof LaneKey)) {
+				return false;
+			}
+			LaneKey other = (LaneKey) o;
+			return Objects.equals(masterUrl, other.masterUrl) && Objects.equals(namespace, other.namespace);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(masterUrl, namespace);
+		}
+	}
+}
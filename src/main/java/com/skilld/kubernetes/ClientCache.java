@@ -0,0 +1,283 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * ClientCache.java
+ *
+ * Created: 10/15/2026 9:12 AM
+ *
+ */
+package com.skilld.kubernetes;
+
+import io.fabric8.kubernetes.client.Config;
+import io.fabric8.kubernetes.client.ConfigBuilder;
+import io.fabric8.kubernetes.client.DefaultKubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.utils.HttpClientUtils;
+import okhttp3.Interceptor;
+import okhttp3.OkHttpClient;
+import okhttp3.Response;
+import org.apache.log4j.Logger;
+
+import java.net.HttpURLConnection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process wide cache of kubernetes clients, keyed by master URL, token and certificate trust.
+ * Clients are reference counted through {@link Lease}s, closed once they have been idle for
+ * longer than the idle timeout, and invalidated as soon as the server rejects their
+ * credentials, so that a rotated local token is read again.
+ */
+public class ClientCache {
+	static Logger logger = Logger.getLogger(ClientCache.class);
+
+	public static final long DEFAULT_IDLE_TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
+	private static final ClientCache instance = new ClientCache(DEFAULT_IDLE_TIMEOUT);
+
+	private final long idleTimeout;
+	private final Map<Key, Entry> entries = new HashMap<Key, Entry>();
+	private ScheduledExecutorService evictor = null;
+
+	public ClientCache(long _idleTimeout) {
+		idleTimeout = _idleTimeout;
+	}
+
+	public static ClientCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Get a client for the given cluster, creating it if needed.
+	 * @param masterUrl The URL of the kubernetes master, null for the local cluster.
+	 * @param oauthToken The token to use, null for the local token.
+	 * @param trustCerts Whether to trust the server certificate, null for the client default.
+	 * @return A lease on the client, to close once the client is no longer used.
+	 */
+	public synchronized Lease acquire(String masterUrl, String oauthToken, Boolean trustCerts) {
+		Key key = new Key(masterUrl, oauthToken, trustCerts);
+		Entry entry = entries.get(key);
+		if (null == entry) {
+			entry = new Entry(key);
+			entry.client = createClient(key, unauthorizedInterceptor(entry));
+			entries.put(key, entry);
+			scheduleEviction();
+		}
+		entry.references++;
+		return new Lease(entry);
+	}
+
+	/**
+	 * Close every idle client of the given master and make sure busy ones are closed once released.
+	 * @param masterUrl The URL of the kubernetes master, null for the local cluster.
+	 */
+	public synchronized void invalidate(String masterUrl) {
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if (Objects.equals(entry.key.masterUrl, masterUrl)) {
+				iterator.remove();
+				entry.invalidate();
+			}
+		}
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	synchronized void evictIdle() {
+		long now = System.currentTimeMillis();
+		Iterator<Entry> iterator = entries.values().iterator();
+		while (iterator.hasNext()) {
+			Entry entry = iterator.next();
+			if (0 == entry.references && now - entry.lastReleased >= idleTimeout) {
+				iterator.remove();
+				entry.invalidate();
+			}
+		}
+	}
+
+	private synchronized void release(Entry entry) {
+		entry.references--;
+		entry.lastReleased = System.currentTimeMillis();
+		if (0 == entry.references && entry.invalidated) {
+			entry.close();
+		}
+	}
+
+	// the next lease gets a new client, the current one is closed once released
+	private synchronized void invalidateRejected(Entry entry) {
+		if (entry == entries.get(entry.key)) {
+			logger.info("Credentials rejected by " + entry.key + ", invalidating cached client");
+			entries.remove(entry.key);
+			entry.invalidate();
+		}
+	}
+
+	// a 401 means the token expired or was revoked, a 403 is a denial the same credentials would get again
+	private Interceptor unauthorizedInterceptor(Entry entry) {
+		return chain -> {
+			Response response = chain.proceed(chain.request());
+			if (HttpURLConnection.HTTP_UNAUTHORIZED == response.code()) {
+				invalidateRejected(entry);
+			}
+			return response;
+		};
+	}
+
+	private void scheduleEviction() {
+		if (null == evictor) {
+			evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "kubernetes-client-cache-evictor");
+				thread.setDaemon(true);
+				return thread;
+			});
+			long period = Math.max(1000, idleTimeout / 2);
+			evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private static KubernetesClient createClient(Key key, Interceptor unauthorizedInterceptor) {
+		ConfigBuilder clientConfigurationBuilder = new ConfigBuilder().withWatchReconnectInterval(30).withWatchReconnectLimit(0);
+		if (null != key.masterUrl) {
+			clientConfigurationBuilder.withMasterUrl(key.masterUrl);
+		}
+		if (null != key.oauthToken) {
+			clientConfigurationBuilder.withOauthToken(key.oauthToken);
+		}
+		if (null != key.trustCerts) {
+			clientConfigurationBuilder.withTrustCerts(key.trustCerts);
+		}
+		Config config = clientConfigurationBuilder.build();
+		// time every API call made through the client
+		OkHttpClient httpClient = HttpClientUtils.createHttpClient(config).newBuilder()
+			.addInterceptor(Metrics.getInstance().apiCallInterceptor())
+			.addInterceptor(unauthorizedInterceptor)
+			.build();
+		return new DefaultKubernetesClient(httpClient, config);
+	}
+
+	/**
+	 * A reference on a cached client. Closing it hands the client back to the cache; the client
+	 * itself must not be closed by the lease holder.
+	 */
+	public class Lease implements AutoCloseable {
+		private final Entry entry;
+		private boolean closed = false;
+
+		private Lease(Entry _entry) {
+			entry = _entry;
+		}
+
+		public KubernetesClient getClient() {
+			return entry.client;
+		}
+
+		/**
+		 * @return False once the client is invalidated, a new lease then gets a new client.
+		 */
+		public boolean isValid() {
+			synchronized (ClientCache.this) {
+				return !entry.invalidated;
+			}
+		}
+
+		/**
+		 * @return A new lease on the same client, independent from this one.
+		 */
+		public Lease share() {
+			synchronized (ClientCache.this) {
+				entry.references++;
+			}
+			return new Lease(entry);
+		}
+
+		@Override
+		public synchronized void close() {
+			if (!closed) {
+				closed = true;
+				release(entry);
+			}
+		}
+	}
+
+	private static class Entry {
+		private final Key key;
+		// set once, when the entry is created
+		private KubernetesClient client;
+		private int references = 0;
+		private long lastReleased = System.currentTimeMillis();
+		private boolean invalidated = false;
+
+		private Entry(Key _key) {
+			key = _key;
+		}
+
+		private void invalidate() {
+			invalidated = true;
+			if (0 == references) {
+				close();
+			}
+		}
+
+		private void close() {
+			try {
+				client.close();
+			} catch (RuntimeException e) {
+				logger.warn("Unable to close client for " + key, e);
+			}
+		}
+	}
+
+	private static class Key {
+		private final String masterUrl;
+		private final String oauthToken;
+		private final Boolean trustCerts;
+
+		private Key(String _masterUrl, String _oauthToken, Boolean _trustCerts) {
+			masterUrl = _masterUrl;
+			oauthToken = _oauthToken;
+			trustCerts = _trustCerts;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return Objects.equals(masterUrl, other.masterUrl)
+				&& Objects.equals(oauthToken, other.oauthToken)
+				&& Objects.equals(trustCerts, other.trustCerts);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(masterUrl, oauthToken, trustCerts);
+		}
+
+		// never expose the token
+		@Override
+		public String toString() {
+			return (null == masterUrl ? "local cluster" : masterUrl);
+		}
+	}
+}
@@ -0,0 +1,373 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * ImagePrewarmer.java
+ *
+ * Created: 10/15/2026 11:08 PM
+ *
+ */
+package com.skilld.kubernetes;
+
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.ContainerBuilder;
+import io.fabric8.kubernetes.api.model.ContainerStatus;
+import io.fabric8.kubernetes.api.model.LocalObjectReference;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodSpec;
+import io.fabric8.kubernetes.api.model.Quantity;
+import io.fabric8.kubernetes.api.model.ResourceRequirements;
+import io.fabric8.kubernetes.api.model.ResourceRequirementsBuilder;
+import io.fabric8.kubernetes.api.model.extensions.DaemonSet;
+import io.fabric8.kubernetes.api.model.extensions.DaemonSetBuilder;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pre-pulls the images of the steps on the nodes they may run on, so that image pulls are off
+ * the critical path of the steps. Steps register their image, namespace and node selector; each
+ * (namespace, node selector) gets a DaemonSet pulling all of its images, one idle container per
+ * image, which is applied again periodically to pick up moved tags. The containers idle with a
+ * busybox copied by an init container, so that images without a shell can idle as well. Images
+ * no step registered within the image TTL are no longer pulled, and the DaemonSet is deleted
+ * along with its last image. The digests pulled by the DaemonSet pods are recorded per node, so
+ * that a step can tell whether its pod landed on a warm node.
+ */
+public class ImagePrewarmer {
+	static Logger logger = Logger.getLogger(ImagePrewarmer.class);
+
+	public static final String PREWARM_LABEL = "rundeck-image-prewarm";
+	public static final String GENERATION_ANNOTATION = "rundeck-image-prewarm/generation";
+	public static final long DEFAULT_INTERVAL = TimeUnit.HOURS.toMillis(1);
+	public static final long DEFAULT_IMAGE_TTL = TimeUnit.DAYS.toMillis(1);
+	static final long REFRESH_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+	// the static busybox of this image is copied to a volume shared with the pull containers
+	static final String IDLE_IMAGE = "busybox:1.36";
+	static final String IDLE_PATH = "/prewarm";
+	static final String IDLE_BINARY = IDLE_PATH + "/busybox";
+	// the containers only need their image pulled, they idle until the pod is replaced
+	static final String[] IDLE_COMMAND = {IDLE_BINARY, "sh", "-c", "trap 'exit 0' TERM; " + IDLE_BINARY + " sleep 2147483647 & wait"};
+	private static final String IDLE_VOLUME = "prewarm";
+	private static final String PULL_CONTAINER_PREFIX = "pull-";
+	// idling takes next to nothing, a DaemonSet pod must not crowd the nodes out
+	private static final ResourceRequirements IDLE_RESOURCES = new ResourceRequirementsBuilder()
+		.addToRequests("cpu", new Quantity("1m"))
+		.addToRequests("memory", new Quantity("4Mi"))
+		.addToLimits("cpu", new Quantity("10m"))
+		.addToLimits("memory", new Quantity("16Mi"))
+		.build();
+
+	private static final ImagePrewarmer instance = new ImagePrewarmer(ClientCache.getInstance(), DEFAULT_INTERVAL, REFRESH_INTERVAL, DEFAULT_IMAGE_TTL);
+
+	private final ClientCache clientCache;
+	private final long interval;
+	private final long refreshInterval;
+	private final long imageTtl;
+	private final Map<Target, TargetState> targets = new HashMap<Target, TargetState>();
+	// the image ids pulled by the DaemonSets, by cluster, node and image
+	private final Map<String, String> warmImages = new ConcurrentHashMap<String, String>();
+	private ScheduledExecutorService executor = null;
+
+	public ImagePrewarmer(ClientCache _clientCache, long _interval, long _refreshInterval, long _imageTtl) {
+		clientCache = _clientCache;
+		interval = _interval;
+		refreshInterval = _refreshInterval;
+		imageTtl = _imageTtl;
+	}
+
+	public static ImagePrewarmer getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Make sure the image of a pod spec is pre-pulled on the nodes matching its node selector.
+	 * A new image is pulled right away, then along with the others at every interval until no
+	 * step registered it within the image TTL.
+	 * @param masterUrl The URL of the kubernetes master, null for the local cluster.
+	 * @param oauthToken The token to use, null for the local token.
+	 * @param trustCerts Whether to trust the server certificate, null for the client default.
+	 * @param namespace The namespace of the DaemonSet.
+	 * @param spec The pod spec of the step: the image of its first container, its node selector and image pull secrets.
+	 */
+	public synchronized void register(String masterUrl, String oauthToken, Boolean trustCerts, String namespace, PodSpec spec) {
+		Map<String, String> nodeSelector = null == spec.getNodeSelector() ? new TreeMap<String, String>() : new TreeMap<String, String>(spec.getNodeSelector());
+		Target target = new Target(masterUrl, trustCerts, namespace, nodeSelector);
+		TargetState state = targets.get(target);
+		if (null == state) {
+			state = new TargetState();
+			targets.put(target, state);
+		}
+		// keep the latest token, older ones may have been rotated
+		state.oauthToken = oauthToken;
+		state.dirty |= null == state.images.put(spec.getContainers().get(0).getImage(), System.currentTimeMillis());
+		if (null != spec.getImagePullSecrets()) {
+			for (LocalObjectReference secret : spec.getImagePullSecrets()) {
+				state.dirty |= state.pullSecrets.add(secret.getName());
+			}
+		}
+		if (null == executor) {
+			executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "kubernetes-image-prewarmer");
+				thread.setDaemon(true);
+				return thread;
+			});
+			executor.scheduleWithFixedDelay(() -> {
+				try {
+					prewarm(false);
+				} catch (RuntimeException e) {
+					logger.error("Image pre-warming failed", e);
+				}
+			}, 0, refreshInterval, TimeUnit.MILLISECONDS);
+		} else if (state.dirty) {
+			executor.execute(() -> prewarm(false));
+		}
+	}
+
+	/**
+	 * Expire the images no step registered within the image TTL, delete the DaemonSets left
+	 * without images, apply the DaemonSets whose images changed or whose interval elapsed, then
+	 * record the images they pulled.
+	 * @param force Whether to apply every DaemonSet, pulling all the images again.
+	 * @return The number of DaemonSets applied.
+	 */
+	public int prewarm(boolean force) {
+		long now = System.currentTimeMillis();
+		Map<Target, TargetState> current = new HashMap<Target, TargetState>();
+		Map<Target, Set<String>> expired = new HashMap<Target, Set<String>>();
+		synchronized (this) {
+			Iterator<Map.Entry<Target, TargetState>> targetIterator = targets.entrySet().iterator();
+			while (targetIterator.hasNext()) {
+				Map.Entry<Target, TargetState> target = targetIterator.next();
+				TargetState state = target.getValue();
+				Set<String> images = new TreeSet<String>();
+				state.images.entrySet().removeIf(image -> now - image.getValue() >= imageTtl && images.add(image.getKey()));
+				state.dirty |= !images.isEmpty();
+				expired.put(target.getKey(), images);
+				current.put(target.getKey(), state.copy());
+				if (state.images.isEmpty()) {
+					targetIterator.remove();
+				}
+			}
+		}
+		int applied = 0;
+		for (Map.Entry<Target, TargetState> target : current.entrySet()) {
+			Target key = target.getKey();
+			TargetState state = target.getValue();
+			try (ClientCache.Lease lease = clientCache.acquire(key.masterUrl, state.oauthToken, key.trustCerts)) {
+				forget(Metrics.cluster(lease.getClient()), expired.get(key));
+				if (state.images.isEmpty()) {
+					delete(lease.getClient(), key);
+					continue;
+				}
+				if (force || state.dirty || now - state.applied >= interval) {
+					apply(lease.getClient(), key, state, now);
+					synchronized (this) {
+						TargetState latest = targets.get(key);
+						if (null != latest) {
+							latest.applied = now;
+							// images registered while applying are still to pull
+							latest.dirty = !state.images.keySet().containsAll(latest.images.keySet()) || !state.pullSecrets.containsAll(latest.pullSecrets);
+						}
+					}
+					applied++;
+				}
+				record(lease.getClient(), key);
+			} catch (KubernetesClientException e) {
+				logger.warn("Unable to pre-warm images " + state.images.keySet() + " in namespace " + key.namespace, e);
+			}
+		}
+		return applied;
+	}
+
+	/**
+	 * @param client The client of the cluster.
+	 * @param image The image, as set in the pod spec.
+	 * @param nodeName The name of the node.
+	 * @return The id of the image pulled on the node by the pre-warming, null if the node is cold.
+	 */
+	public String getWarmImageId(KubernetesClient client, String image, String nodeName) {
+		return warmImages.get(warmKey(Metrics.cluster(client), nodeName, image));
+	}
+
+	/**
+	 * @param nodeSelector The node selector of the DaemonSet pods.
+	 * @return The name of the DaemonSet pre-pulling the images of a node selector.
+	 */
+	public static String daemonSetName(Map<String, String> nodeSelector) {
+		return "rundeck-image-prewarm-" + JobTemplateCache.hash(new TreeMap<String, String>(nodeSelector)).substring(0, 10);
+	}
+
+	private void apply(KubernetesClient client, Target target, TargetState state, long generation) {
+		String name = daemonSetName(target.nodeSelector);
+		List<Container> pulls = new ArrayList<Container>();
+		int index = 0;
+		for (String image : state.images.keySet()) {
+			pulls.add(new ContainerBuilder()
+				.withName(PULL_CONTAINER_PREFIX + index++)
+				.withImage(image)
+				.withImagePullPolicy("Always")
+				.withCommand(IDLE_COMMAND)
+				.withResources(IDLE_RESOURCES)
+				.addNewVolumeMount().withName(IDLE_VOLUME).withMountPath(IDLE_PATH).withReadOnly(true).endVolumeMount()
+				.build());
+		}
+		List<LocalObjectReference> pullSecrets = new ArrayList<LocalObjectReference>();
+		for (String secret : state.pullSecrets) {
+			pullSecrets.add(new LocalObjectReference(secret));
+		}
+		DaemonSet daemonSet = new DaemonSetBuilder()
+			.withNewMetadata()
+				.withName(name)
+				.addToLabels(PREWARM_LABEL, name)
+			.endMetadata()
+			.withNewSpec()
+				.withNewSelector().addToMatchLabels(PREWARM_LABEL, name).endSelector()
+				.withNewTemplate()
+					.withNewMetadata()
+						.addToLabels(PREWARM_LABEL, name)
+						// a new generation restarts the pods, pulling the images again
+						.addToAnnotations(GENERATION_ANNOTATION, String.valueOf(generation))
+					.endMetadata()
+					.withNewSpec()
+						.withNodeSelector(target.nodeSelector)
+						.withImagePullSecrets(pullSecrets)
+						.addNewInitContainer()
+							.withName("idle")
+							.withImage(IDLE_IMAGE)
+							.withCommand("cp", "/bin/busybox", IDLE_BINARY)
+							.withResources(IDLE_RESOURCES)
+							.addNewVolumeMount().withName(IDLE_VOLUME).withMountPath(IDLE_PATH).endVolumeMount()
+						.endInitContainer()
+						.withContainers(pulls)
+						.addNewVolume().withName(IDLE_VOLUME).withNewEmptyDir().endEmptyDir().endVolume()
+					.endSpec()
+				.endTemplate()
+			.endSpec()
+			.build();
+		if (null == client.extensions().daemonSets().inNamespace(target.namespace).withName(name).get()) {
+			client.extensions().daemonSets().inNamespace(target.namespace).create(daemonSet);
+		} else {
+			client.extensions().daemonSets().inNamespace(target.namespace).withName(name).replace(daemonSet);
+		}
+		logger.info("Pre-warming images " + state.images.keySet() + " with DaemonSet " + name + " in namespace " + target.namespace);
+	}
+
+	// the DaemonSet of a target whose images all expired, its pods no longer keep the images warm
+	private void delete(KubernetesClient client, Target target) {
+		String name = daemonSetName(target.nodeSelector);
+		client.extensions().daemonSets().inNamespace(target.namespace).withName(name).delete();
+		logger.info("Deleted the image pre-warming DaemonSet " + name + " in namespace " + target.namespace);
+	}
+
+	// the images every DaemonSet pod pulled, an image id is only reported once the image is on the node
+	private void record(KubernetesClient client, Target target) {
+		String name = daemonSetName(target.nodeSelector);
+		String cluster = Metrics.cluster(client);
+		for (Pod pod : client.pods().inNamespace(target.namespace).withLabel(PREWARM_LABEL, name).list().getItems()) {
+			if (null == pod.getSpec() || null == pod.getSpec().getNodeName() || null == pod.getStatus() || null == pod.getStatus().getContainerStatuses()) {
+				continue;
+			}
+			Map<String, String> images = new HashMap<String, String>();
+			for (Container container : pod.getSpec().getContainers()) {
+				if (container.getName().startsWith(PULL_CONTAINER_PREFIX)) {
+					images.put(container.getName(), container.getImage());
+				}
+			}
+			for (ContainerStatus status : pod.getStatus().getContainerStatuses()) {
+				String image = images.get(status.getName());
+				// whatever the container did with it
+				if (null != image && null != status.getImageID() && !status.getImageID().isEmpty()) {
+					warmImages.put(warmKey(cluster, pod.getSpec().getNodeName(), image), status.getImageID());
+				}
+			}
+		}
+	}
+
+	// the expired images are no longer kept warm on the nodes of the cluster
+	private void forget(String cluster, Set<String> images) {
+		for (String image : images) {
+			warmImages.keySet().removeIf(key -> key.startsWith(cluster + " ") && key.endsWith(" " + image));
+		}
+	}
+
+	private static String warmKey(String cluster, String nodeName, String image) {
+		return cluster + " " + nodeName + " " + image;
+	}
+
+	private static class TargetState {
+		// the images, with the last time a step registered them
+		private final Map<String, Long> images = new TreeMap<String, Long>();
+		private final Set<String> pullSecrets = new LinkedHashSet<String>();
+		private String oauthToken = null;
+		private boolean dirty = false;
+		private long applied = 0;
+
+		private TargetState copy() {
+			TargetState copy = new TargetState();
+			copy.images.putAll(images);
+			copy.pullSecrets.addAll(pullSecrets);
+			copy.oauthToken = oauthToken;
+			copy.dirty = dirty;
+			copy.applied = applied;
+			return copy;
+		}
+	}
+
+	private static class Target {
+		private final String masterUrl;
+		private final Boolean trustCerts;
+		private final String namespace;
+		private final Map<String, String> nodeSelector;
+
+		private Target(String _masterUrl, Boolean _trustCerts, String _namespace, Map<String, String> _nodeSelector) {
+			masterUrl = _masterUrl;
+			trustCerts = _trustCerts;
+			namespace = _namespace;
+			nodeSelector = _nodeSelector;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Target)) {
+				return false;
+			}
+			Target other = (Target) o;
+			return Objects.equals(masterUrl, other.masterUrl)
+				&& Objects.equals(trustCerts, other.trustCerts)
+				&& Objects.equals(namespace, other.namespace)
+				&& Objects.equals(nodeSelector, other.nodeSelector);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(masterUrl, trustCerts, namespace, nodeSelector);
+		}
+	}
+}
@@ -24,12 +24,20 @@ package com.skilld.kubernetes;
 import com.skilld.kubernetes.JobConfiguration;
 import com.skilld.kubernetes.JobBuilder;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.SerializationFeature;
 import io.fabric8.kubernetes.api.model.JobStatus;
 import io.fabric8.kubernetes.api.model.JobCondition;
-import io.fabric8.kubernetes.api.model.Pod;
-import io.fabric8.kubernetes.api.model.PodList;
+import io.fabric8.kubernetes.client.utils.Serialization;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 public class Job {
+	// the hash of the spec the job was created with, the API server adds defaults to the spec itself
+	public static final String SPEC_HASH_ANNOTATION = "rundeck-spec-hash";
+
 	private io.fabric8.kubernetes.api.model.Job job = null;
 	private JobCondition jobCondition = null;
 
@@ -37,11 +45,48 @@ public class Job {
 		job = JobBuilder.build(jobConfiguration);
 	}
 
+	public Job (io.fabric8.kubernetes.api.model.Job _job){
+		job = _job;
+	}
+
 	public io.fabric8.kubernetes.api.model.Job getJobResource() {
 		return job;
 	}
 
+	/**
+	 * Annotate the job with the hash of its spec, to recognize it once created.
+	 */
+	public void annotateSpecHash() {
+		Map<String, String> annotations = null != job.getMetadata().getAnnotations() ? new HashMap<String, String>(job.getMetadata().getAnnotations()) : new HashMap<String, String>();
+		annotations.put(SPEC_HASH_ANNOTATION, specHash());
+		job.getMetadata().setAnnotations(annotations);
+	}
+
+	/**
+	 * @param existing A job found in the cluster.
+	 * @return Whether it was created from this job: it has its labels and the hash of its spec.
+	 */
+	public Boolean isCreatedFrom(io.fabric8.kubernetes.api.model.Job existing) {
+		Map<String, String> labels = null != existing.getMetadata().getLabels() ? existing.getMetadata().getLabels() : Collections.<String, String>emptyMap();
+		Map<String, String> annotations = null != existing.getMetadata().getAnnotations() ? existing.getMetadata().getAnnotations() : Collections.<String, String>emptyMap();
+		return labels.entrySet().containsAll(job.getMetadata().getLabels().entrySet())
+			&& specHash().equals(annotations.get(SPEC_HASH_ANNOTATION));
+	}
+
+	// the maps are serialized in key order, so that equal specs have equal hashes
+	private String specHash() {
+		try {
+			String spec = Serialization.jsonMapper().writer().with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS).writeValueAsString(job.getSpec());
+			return JobTemplateCache.hash(Collections.singletonMap("spec", spec));
+		} catch (JsonProcessingException e) {
+			throw new IllegalStateException("Unable to serialize the spec of " + job.getMetadata().getName(), e);
+		}
+	}
+
 	public Boolean isComplete(io.fabric8.kubernetes.api.model.Job _job) {
+		if (null == _job.getStatus() || null == _job.getStatus().getConditions()) {
+			return null != jobCondition;
+		}
 		String type = null;
 		for (JobCondition condition : _job.getStatus().getConditions()) {
 			type = condition.getType();
@@ -56,18 +101,9 @@ public class Job {
 		return null != jobCondition && jobCondition.getType().equals("Failed");
 	}
 	public Boolean hasTimedout() {
-		return null != jobCondition && jobCondition.getReason().contains("Deadline");
+		return null != jobCondition && null != jobCondition.getReason() && jobCondition.getReason().contains("Deadline");
 	}
 	public String getCompletionReason() {
 		return (null != jobCondition) ? jobCondition.getReason() : null;
 	}
-	public void delete(io.fabric8.kubernetes.client.KubernetesClient client) {
-		String jobName = job.getMetadata().getName();
-		String namespace = job.getMetadata().getNamespace();
-		client.extensions().jobs().inNamespace(namespace).withName(jobName).delete();
-		PodList podList = client.pods().inNamespace(namespace).withLabel("job-name", jobName).list();
-		for (Pod pod : podList.getItems()) {
-			client.pods().inNamespace(namespace).withName(pod.getMetadata().getName()).delete();
-		}
-	}
 }
@@ -36,6 +36,7 @@ public class JobBuilder {
 			.withNewMetadata()
 				.withName(configuration.getName())
 				.withNamespace(configuration.getNamespace())
+				.withLabels(configuration.getLabels())
 			.endMetadata()
 			.withNewSpec()
 				.withParallelism(configuration.getParallelism())
@@ -0,0 +1,223 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * JobCleaner.java
+ *
+ * Created: 10/15/2026 10:47 PM
+ *
+ */
+package com.skilld.kubernetes;
+
+import io.fabric8.kubernetes.api.model.DeleteOptions;
+import io.fabric8.kubernetes.client.HttpClientAware;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import okhttp3.MediaType;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes finished jobs in the background. Deletions requested for the same namespace within
+ * the batch delay are coalesced into a single label selector collection delete, with a
+ * background propagation policy so that the cluster garbage collects the pods. Failed batches
+ * are retried with an exponential backoff.
+ */
+public class JobCleaner {
+	static Logger logger = Logger.getLogger(JobCleaner.class);
+
+	public static final long DEFAULT_BATCH_DELAY = 200;
+	static final int MAX_BATCH_SIZE = 50;
+	static final int MAX_ATTEMPTS = 5;
+	static final long RETRY_DELAY = 1000;
+
+	private static final MediaType JSON = MediaType.parse("application/json; charset=utf-8");
+
+	private static final JobCleaner instance = new JobCleaner(DEFAULT_BATCH_DELAY);
+
+	private final long batchDelay;
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "kubernetes-job-cleaner");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final Map<BatchKey, Batch> pending = new HashMap<BatchKey, Batch>();
+	private int inFlight = 0;
+
+	public JobCleaner(long _batchDelay) {
+		batchDelay = _batchDelay;
+	}
+
+	public static JobCleaner getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Queue the deletion of a job and its pods.
+	 * @param lease A lease on the client to use, released by the cleaner once the job is deleted.
+	 * @param namespace The namespace of the job.
+	 * @param jobName The name of the job.
+	 */
+	public synchronized void delete(ClientCache.Lease lease, String namespace, String jobName) {
+		BatchKey key = new BatchKey(lease.getClient(), namespace);
+		Batch batch = pending.get(key);
+		if (null == batch) {
+			batch = new Batch(key, 1, System.nanoTime());
+			pending.put(key, batch);
+			inFlight++;
+			final Batch scheduled = batch;
+			executor.schedule(() -> flush(scheduled), batchDelay, TimeUnit.MILLISECONDS);
+		}
+		batch.jobNames.add(jobName);
+		batch.leases.add(lease);
+	}
+
+	/**
+	 * Wait for every queued deletion to be done.
+	 * @param timeout The maximum time to wait, in milliseconds.
+	 * @return True if the queue is empty.
+	 */
+	public synchronized boolean awaitIdle(long timeout) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + timeout;
+		while (inFlight > 0) {
+			long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return false;
+			}
+			wait(remaining);
+		}
+		return true;
+	}
+
+	private void flush(Batch batch) {
+		synchronized (this) {
+			if (pending.get(batch.key) == batch) {
+				pending.remove(batch.key);
+			}
+		}
+		List<String> jobNames = new ArrayList<String>(batch.jobNames);
+		List<String> remaining = new ArrayList<String>();
+		for (int from = 0; from < jobNames.size(); from += MAX_BATCH_SIZE) {
+			List<String> chunk = jobNames.subList(from, Math.min(jobNames.size(), from + MAX_BATCH_SIZE));
+			try {
+				deleteCollection(batch.key.client, batch.key.namespace, chunk);
+				counter(Metrics.JOB_CLEANUP_DELETED, batch.key).add(chunk.size());
+				Metrics.getInstance().histogram(Metrics.JOB_CLEANUP,
+					Metrics.NAMESPACE_TAG, batch.key.namespace, Metrics.CLUSTER_TAG, Metrics.cluster(batch.key.client)).recordSince(batch.created);
+			} catch (IOException | KubernetesClientException e) {
+				logger.warn("Unable to delete jobs " + chunk + " in namespace " + batch.key.namespace + " (attempt " + batch.attempt + ")", e);
+				remaining.addAll(chunk);
+			}
+		}
+		if (!remaining.isEmpty() && batch.attempt < MAX_ATTEMPTS) {
+			Batch retry = new Batch(batch.key, batch.attempt + 1, batch.created);
+			retry.jobNames.addAll(remaining);
+			retry.leases.addAll(batch.leases);
+			long delay = RETRY_DELAY << (batch.attempt - 1);
+			executor.schedule(() -> flush(retry), delay, TimeUnit.MILLISECONDS);
+			return;
+		}
+		if (!remaining.isEmpty()) {
+			logger.error("Giving up deleting jobs " + remaining + " in namespace " + batch.key.namespace);
+			counter(Metrics.JOB_CLEANUP_FAILED, batch.key).add(remaining.size());
+		}
+		for (ClientCache.Lease lease : batch.leases) {
+			lease.close();
+		}
+		synchronized (this) {
+			inFlight--;
+			notifyAll();
+		}
+	}
+
+	private static Metrics.Counter counter(String name, BatchKey key) {
+		return Metrics.getInstance().counter(name, Metrics.NAMESPACE_TAG, key.namespace, Metrics.CLUSTER_TAG, Metrics.cluster(key.client));
+	}
+
+	static void deleteCollection(KubernetesClient client, String namespace, List<String> jobNames) throws IOException {
+		String masterUrl = client.getMasterUrl().toString();
+		String labelSelector = JobInformer.JOB_NAME_LABEL + " in (" + String.join(",", jobNames) + ")";
+		String url = masterUrl + (masterUrl.endsWith("/") ? "" : "/") + "apis/batch/v1/namespaces/" + namespace
+			+ "/jobs?labelSelector=" + URLEncoder.encode(labelSelector, StandardCharsets.UTF_8.name());
+		DeleteOptions deleteOptions = new DeleteOptions();
+		deleteOptions.setPropagationPolicy("Background");
+		Request request = new Request.Builder()
+			.url(url)
+			.delete(RequestBody.create(JSON, Serialization.jsonMapper().writeValueAsString(deleteOptions)))
+			.build();
+		OkHttpClient httpClient = ((HttpClientAware) client).getHttpClient();
+		try (Response response = httpClient.newCall(request).execute()) {
+			if (!response.isSuccessful()) {
+				throw new IOException("Collection delete failed with " + response.code() + ": " + response.message());
+			}
+		}
+	}
+
+	private static class Batch {
+		private final BatchKey key;
+		private final int attempt;
+		// when the first deletion of the batch was requested, in nanoseconds
+		private final long created;
+		private final Set<String> jobNames = new LinkedHashSet<String>();
+		private final List<ClientCache.Lease> leases = new ArrayList<ClientCache.Lease>();
+
+		private Batch(BatchKey _key, int _attempt, long _created) {
+			key = _key;
+			attempt = _attempt;
+			created = _created;
+		}
+	}
+
+	private static class BatchKey {
+		private final KubernetesClient client;
+		private final String namespace;
+
+		private BatchKey(KubernetesClient _client, String _namespace) {
+			client = _client;
+			namespace = _namespace;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof BatchKey)) {
+				return false;
+			}
+			BatchKey other = (BatchKey) o;
+			return client == other.client && Objects.equals(namespace, other.namespace);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * System.identityHashCode(client) + Objects.hashCode(namespace);
+		}
+	}
+}
@@ -23,14 +23,11 @@ package com.skilld.kubernetes;
 
 import io.fabric8.kubernetes.api.model.LocalObjectReference;
 import io.fabric8.kubernetes.api.model.Quantity;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
 
 public class JobConfiguration {
 
@@ -176,18 +173,10 @@ public class JobConfiguration {
 	}
 
 	private String buildOption(String _input, Map<String, String> _options) {
-		for (Map.Entry<String, String> option : _options.entrySet()){
-			_input = _input.replace("${" + option.getKey() + "}", option.getValue());
-		}
-		return _input;
+		return OptionTemplate.compile(_input).render(_options);
 	}
 
 	private List<String> buildInput(String _input, Map<String,String> _options){
-		List<String> input = new ArrayList<String>();
-		Matcher inputParts = Pattern.compile("(\"(?:.(?!(?<!\\\\)\"))*.?\"|'(?:.(?!(?<!\\\\)'))*.?'|\\S+)").matcher(buildOption(_input, _options));
-		while(inputParts.find()) {
-			input.add(inputParts.group(1));
-		}
-		return input;
+		return OptionTemplate.compile(_input).renderTokens(_options);
 	}
 }
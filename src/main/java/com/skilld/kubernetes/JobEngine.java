@@ -0,0 +1,161 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * JobEngine.java
+ *
+ * Created: 10/15/2026 11:36 PM
+ *
+ */
+package com.skilld.kubernetes;
+
+import org.apache.log4j.Logger;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Process wide engine running the stages of the job executions. Blocking API calls run on a
+ * small fixed pool of workers and timers on a single scheduler thread, everything else is driven
+ * by the watch events: an execution waiting for its job holds no thread, only its caller may
+ * park on its result.
+ */
+public class JobEngine {
+	static Logger logger = Logger.getLogger(JobEngine.class);
+
+	public static final int DEFAULT_THREADS = 4;
+	static final long POLL_INTERVAL = 100;
+
+	private static final JobEngine instance = new JobEngine(DEFAULT_THREADS);
+
+	private final ExecutorService workers;
+	private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "kubernetes-job-engine-scheduler");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private final AtomicInteger outstanding = new AtomicInteger();
+
+	public JobEngine(int threads) {
+		workers = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable, "kubernetes-job-engine");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public static JobEngine getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Run a blocking call, an API call for instance, on the workers.
+	 * @param call The call.
+	 * @return Its result, failing with what the call throws.
+	 */
+	public <T> CompletableFuture<T> supply(Callable<T> call) {
+		CompletableFuture<T> result = new CompletableFuture<T>();
+		workers.execute(() -> {
+			try {
+				result.complete(call.call());
+			} catch (Throwable t) {
+				result.completeExceptionally(t);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Run a task on the workers after a delay.
+	 * @param task The task.
+	 * @param delay The delay, in milliseconds.
+	 * @return The scheduled task, to cancel if it isn't needed anymore.
+	 */
+	public ScheduledFuture<?> schedule(Runnable task, long delay) {
+		return scheduler.schedule(() -> workers.execute(task), delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Run a short task on the scheduler thread at a fixed interval, until cancelled.
+	 * @param task The task, which must not block.
+	 * @param interval The interval, in milliseconds.
+	 * @return The scheduled task.
+	 */
+	public ScheduledFuture<?> repeat(Runnable task, long interval) {
+		return scheduler.scheduleWithFixedDelay(() -> {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				logger.error("Repeated task failed", e);
+			}
+		}, interval, interval, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Wait for a condition without holding a thread, by checking it on the scheduler thread.
+	 * @param condition The condition, which must not block.
+	 * @param timeout The maximum time to wait, in milliseconds.
+	 * @return True once the condition holds, false if it didn't before the timeout.
+	 */
+	public CompletableFuture<Boolean> until(BooleanSupplier condition, long timeout) {
+		CompletableFuture<Boolean> result = new CompletableFuture<Boolean>();
+		long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
+		ScheduledFuture<?> check = scheduler.scheduleWithFixedDelay(() -> {
+			if (condition.getAsBoolean()) {
+				result.complete(true);
+			} else if (System.nanoTime() - deadline >= 0) {
+				result.complete(false);
+			}
+		}, 0, POLL_INTERVAL, TimeUnit.MILLISECONDS);
+		result.whenComplete((done, e) -> check.cancel(false));
+		return result;
+	}
+
+	/**
+	 * Count a future among the outstanding ones until it completes.
+	 * @param future The future.
+	 * @return The same future.
+	 */
+	public <T> CompletableFuture<T> track(CompletableFuture<T> future) {
+		outstanding.incrementAndGet();
+		future.whenComplete((value, e) -> outstanding.decrementAndGet());
+		return future;
+	}
+
+	/**
+	 * @return The number of tracked futures not completed yet.
+	 */
+	public int getOutstanding() {
+		return outstanding.get();
+	}
+
+	/**
+	 * @return The failure wrapped by the completion stages, the throwable itself otherwise.
+	 */
+	public static Throwable unwrap(Throwable t) {
+		while ((t instanceof CompletionException || t instanceof ExecutionException) && null != t.getCause()) {
+			t = t.getCause();
+		}
+		return t;
+	}
+}
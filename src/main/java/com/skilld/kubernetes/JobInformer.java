@@ -0,0 +1,567 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * JobInformer.java
+ *
+ * Created: 10/15/2026 10:05 AM
+ *
+ */
+package com.skilld.kubernetes;
+
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.Job;
+import io.fabric8.kubernetes.api.model.JobList;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodList;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.Watch;
+import io.fabric8.kubernetes.client.Watcher;
+import org.apache.log4j.Logger;
+
+import java.net.HttpURLConnection;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Shared watch of the jobs and pods of a namespace, one per (client, namespace).
+ * Jobs are indexed by name and pods by their job-name label, listeners registered
+ * for a job only receive the events of that job.
+ * <p>
+ * The informer lists the jobs and pods, then watches them from the resource version of the
+ * list. A lost watch is resumed from the last resource version seen, a 410 Gone triggers a
+ * new list. While a watch can't be opened, the jobs and pods are polled instead, less often
+ * as long as nothing changes.
+ * <p>
+ * An informer left without registrations keeps watching for {@link #IDLE_TTL}, so that the
+ * next steps of the namespace don't list everything again.
+ */
+public class JobInformer {
+	static Logger logger = Logger.getLogger(JobInformer.class);
+
+	public static final String JOB_NAME_LABEL = "job-name";
+	static final long MIN_POLL_INTERVAL = 1000;
+	static final long MAX_POLL_INTERVAL = 30000;
+	// below the idle timeout of the client cache, the informer holds no lease on its client
+	public static final long IDLE_TTL = 60000;
+
+	private static final Map<KubernetesClient, Map<String, JobInformer>> informers = new IdentityHashMap<KubernetesClient, Map<String, JobInformer>>();
+	// the lists, polls and watch openings of the informers run on the workers, off the threads of
+	// the executions; the watch events are delivered on the threads of the fabric8 watches
+	private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+		Thread thread = new Thread(runnable, "kubernetes-job-informer-scheduler");
+		thread.setDaemon(true);
+		return thread;
+	});
+	private static final ExecutorService workers = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "kubernetes-job-informer");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final KubernetesClient client;
+	private final String namespace;
+	private final Map<String, Job> jobs = new HashMap<String, Job>();
+	private final Map<String, Map<String, Pod>> pods = new HashMap<String, Map<String, Pod>>();
+	private final Map<String, List<Listener>> listeners = new HashMap<String, List<Listener>>();
+	// guarded by informers
+	private int registrations = 0;
+	private long idleSince = 0;
+	private boolean stopScheduled = false;
+	// held while recovering, one recovery at a time
+	private final Object recovery = new Object();
+	// guarded by this: the watches, null until opened or once lost, and the versions to resume them from
+	private Watch jobWatch = null;
+	private Watch podWatch = null;
+	private String jobResourceVersion = null;
+	private String podResourceVersion = null;
+	private boolean lost = false;
+	private boolean stopped = false;
+	// guarded by recovery
+	private long pollInterval = MIN_POLL_INTERVAL;
+
+	/**
+	 * Receives the events of a job and its pods. It is called on the thread of the fabric8 watch
+	 * for watch events, on an informer worker for relists and polls, and on the registering thread
+	 * for the state already known; it must not block, a slow listener holds back the watch of its
+	 * namespace.
+	 */
+	public interface Listener {
+		void onJob(Job job);
+		void onPod(Pod pod);
+	}
+
+	private JobInformer(KubernetesClient _client, String _namespace) {
+		client = _client;
+		namespace = _namespace;
+	}
+
+	/**
+	 * Register a listener on the events of a job, starting the namespace informer if needed.
+	 * The listener is first called with the state already known for the job.
+	 * @param client The client of the cluster.
+	 * @param namespace The namespace of the job.
+	 * @param jobName The name of the job.
+	 * @param listener The listener to notify.
+	 * @return The registration, to close once the job doesn't need to be watched anymore.
+	 */
+	public static Registration register(KubernetesClient client, String namespace, String jobName, Listener listener) {
+		JobInformer informer;
+		synchronized (informers) {
+			Map<String, JobInformer> namespaces = informers.get(client);
+			if (null == namespaces) {
+				namespaces = new HashMap<String, JobInformer>();
+				informers.put(client, namespaces);
+			}
+			informer = namespaces.get(namespace);
+			if (null == informer) {
+				informer = new JobInformer(client, namespace);
+				namespaces.put(namespace, informer);
+				workers.execute(informer::recover);
+			}
+			informer.registrations++;
+		}
+		return informer.addListener(jobName, listener);
+	}
+
+	// opens the missing watches, polling until they can be opened
+	private void recover() {
+		synchronized (recovery) {
+			resume();
+		}
+	}
+
+	private void resume() {
+		boolean changed = false;
+		try {
+			if (!isWatching(true)) {
+				if (null == resourceVersion(true)) {
+					changed |= relistJobs();
+				}
+				watchJobs();
+			}
+			if (!isWatching(false)) {
+				if (null == resourceVersion(false)) {
+					changed |= relistPods();
+				}
+				watchPods();
+			}
+			pollInterval = MIN_POLL_INTERVAL;
+		} catch (KubernetesClientException e) {
+			logger.warn("Unable to watch the jobs of namespace " + namespace + ", polling them: " + e.getMessage());
+			synchronized (this) {
+				if (stopped) {
+					return;
+				}
+				// the next attempt lists what isn't watched, which is the poll
+				if (null == jobWatch) {
+					jobResourceVersion = null;
+				}
+				if (null == podWatch) {
+					podResourceVersion = null;
+				}
+			}
+			pollInterval = changed ? MIN_POLL_INTERVAL : Math.min(2 * pollInterval, MAX_POLL_INTERVAL);
+			scheduler.schedule(() -> workers.execute(this::recover), pollInterval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private synchronized boolean isStopped() {
+		return stopped;
+	}
+
+	private synchronized boolean isWatching(boolean job) {
+		return stopped || null != (job ? jobWatch : podWatch);
+	}
+
+	private synchronized String resourceVersion(boolean job) {
+		return job ? jobResourceVersion : podResourceVersion;
+	}
+
+	private void watchJobs() {
+		InformerWatcher<Job> watcher = new InformerWatcher<Job>(true);
+		opened(watcher, client.extensions().jobs().inNamespace(namespace).withLabel(JOB_NAME_LABEL).withResourceVersion(resourceVersion(true)).watch(watcher));
+	}
+
+	private void watchPods() {
+		InformerWatcher<Pod> watcher = new InformerWatcher<Pod>(false);
+		opened(watcher, client.pods().inNamespace(namespace).withLabel(JOB_NAME_LABEL).withResourceVersion(resourceVersion(false)).watch(watcher));
+	}
+
+	private void opened(InformerWatcher<?> watcher, Watch watch) {
+		boolean reconnected;
+		synchronized (this) {
+			if (stopped || null != watcher.closedBy) {
+				watch.close();
+				if (!stopped) {
+					// closed by the API before the watch was even returned
+					lose(watcher.job, watcher.closedBy);
+				}
+				return;
+			}
+			watcher.opened = true;
+			if (watcher.job) {
+				jobWatch = watch;
+			} else {
+				podWatch = watch;
+			}
+			reconnected = lost;
+			if (null != jobWatch && null != podWatch) {
+				lost = false;
+			}
+		}
+		if (reconnected) {
+			Metrics.getInstance().counter(Metrics.WATCH_RECONNECTS,
+				Metrics.NAMESPACE_TAG, namespace, Metrics.CLUSTER_TAG, Metrics.cluster(client)).increment();
+		}
+	}
+
+	// replaces the known jobs by the listed ones, true when any of them changed
+	private boolean relistJobs() {
+		JobList list = client.extensions().jobs().inNamespace(namespace).withLabel(JOB_NAME_LABEL).list();
+		Map<String, Job> listed = new HashMap<String, Job>();
+		for (Job job : list.getItems()) {
+			listed.put(job.getMetadata().getName(), job);
+		}
+		List<Job> deleted = new ArrayList<Job>();
+		synchronized (this) {
+			for (Job job : jobs.values()) {
+				if (!listed.containsKey(job.getMetadata().getName())) {
+					deleted.add(job);
+				}
+			}
+		}
+		boolean changed = false;
+		for (Job job : deleted) {
+			changed |= onJobEvent(Watcher.Action.DELETED, job);
+		}
+		for (Job job : listed.values()) {
+			changed |= onJobEvent(Watcher.Action.MODIFIED, job);
+		}
+		synchronized (this) {
+			jobResourceVersion = list.getMetadata().getResourceVersion();
+		}
+		return changed;
+	}
+
+	// replaces the known pods by the listed ones, true when any of them changed
+	private boolean relistPods() {
+		PodList list = client.pods().inNamespace(namespace).withLabel(JOB_NAME_LABEL).list();
+		Map<String, Pod> listed = new HashMap<String, Pod>();
+		for (Pod pod : list.getItems()) {
+			listed.put(pod.getMetadata().getName(), pod);
+		}
+		List<Pod> deleted = new ArrayList<Pod>();
+		synchronized (this) {
+			for (Map<String, Pod> jobPods : pods.values()) {
+				for (Pod pod : jobPods.values()) {
+					if (!listed.containsKey(pod.getMetadata().getName())) {
+						deleted.add(pod);
+					}
+				}
+			}
+		}
+		boolean changed = false;
+		for (Pod pod : deleted) {
+			changed |= onPodEvent(Watcher.Action.DELETED, pod);
+		}
+		for (Pod pod : listed.values()) {
+			changed |= onPodEvent(Watcher.Action.MODIFIED, pod);
+		}
+		synchronized (this) {
+			podResourceVersion = list.getMetadata().getResourceVersion();
+		}
+		return changed;
+	}
+
+	private Registration addListener(String jobName, Listener listener) {
+		Job job;
+		List<Pod> jobPods;
+		synchronized (this) {
+			List<Listener> jobListeners = listeners.get(jobName);
+			if (null == jobListeners) {
+				jobListeners = new CopyOnWriteArrayList<Listener>();
+				listeners.put(jobName, jobListeners);
+			}
+			jobListeners.add(listener);
+			job = jobs.get(jobName);
+			jobPods = pods.containsKey(jobName) ? new ArrayList<Pod>(pods.get(jobName).values()) : new ArrayList<Pod>();
+		}
+		if (null != job) {
+			listener.onJob(job);
+		}
+		for (Pod pod : jobPods) {
+			listener.onPod(pod);
+		}
+		return new Registration(jobName, listener);
+	}
+
+	private void removeListener(String jobName, Listener listener) {
+		synchronized (this) {
+			List<Listener> jobListeners = listeners.get(jobName);
+			if (null != jobListeners) {
+				jobListeners.remove(listener);
+				if (jobListeners.isEmpty()) {
+					listeners.remove(jobName);
+				}
+			}
+		}
+		synchronized (informers) {
+			registrations--;
+			if (0 == registrations) {
+				idleSince = System.currentTimeMillis();
+				if (!stopScheduled) {
+					stopScheduled = true;
+					scheduler.schedule(this::stopIfIdle, IDLE_TTL, TimeUnit.MILLISECONDS);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Stop the informers without registrations now rather than once their idle TTL is over.
+	 */
+	public static void stopIdle() {
+		List<JobInformer> idle = new ArrayList<JobInformer>();
+		synchronized (informers) {
+			for (Map<String, JobInformer> namespaces : informers.values()) {
+				for (JobInformer informer : namespaces.values()) {
+					if (0 == informer.registrations) {
+						idle.add(informer);
+					}
+				}
+			}
+			for (JobInformer informer : idle) {
+				informer.detach();
+			}
+		}
+		for (JobInformer informer : idle) {
+			informer.stop();
+		}
+	}
+
+	private void stopIfIdle() {
+		synchronized (informers) {
+			stopScheduled = false;
+			if (0 != registrations || !isCurrent()) {
+				return;
+			}
+			long remaining = idleSince + IDLE_TTL - System.currentTimeMillis();
+			if (remaining > 0) {
+				// registered and released again since
+				stopScheduled = true;
+				scheduler.schedule(this::stopIfIdle, remaining, TimeUnit.MILLISECONDS);
+				return;
+			}
+			detach();
+		}
+		stop();
+	}
+
+	// true while the informer is the one registrations of its namespace get, guarded by informers
+	private boolean isCurrent() {
+		Map<String, JobInformer> namespaces = informers.get(client);
+		return null != namespaces && this == namespaces.get(namespace);
+	}
+
+	// the next registration starts a new informer, guarded by informers
+	private void detach() {
+		Map<String, JobInformer> namespaces = informers.get(client);
+		if (null != namespaces && this == namespaces.get(namespace)) {
+			namespaces.remove(namespace);
+			if (namespaces.isEmpty()) {
+				informers.remove(client);
+			}
+		}
+	}
+
+	private void stop() {
+		Watch closedJobWatch;
+		Watch closedPodWatch;
+		synchronized (this) {
+			stopped = true;
+			closedJobWatch = jobWatch;
+			closedPodWatch = podWatch;
+			jobs.clear();
+			pods.clear();
+		}
+		if (null != closedJobWatch) {
+			closedJobWatch.close();
+		}
+		if (null != closedPodWatch) {
+			closedPodWatch.close();
+		}
+	}
+
+	// true when the event was passed on, a version already known isn't
+	private boolean onJobEvent(Watcher.Action action, Job job) {
+		String jobName = job.getMetadata().getName();
+		List<Listener> jobListeners;
+		synchronized (this) {
+			if (stopped || Watcher.Action.ERROR == action) {
+				return false;
+			}
+			Job known = Watcher.Action.DELETED == action ? jobs.remove(jobName) : jobs.put(jobName, job);
+			if (null != job.getMetadata().getResourceVersion()) {
+				jobResourceVersion = job.getMetadata().getResourceVersion();
+			}
+			if (Watcher.Action.DELETED == action ? null == known : isSameVersion(known, job)) {
+				return false;
+			}
+			jobListeners = listeners.get(jobName);
+		}
+		if (null != jobListeners) {
+			for (Listener listener : jobListeners) {
+				listener.onJob(job);
+			}
+		}
+		return true;
+	}
+
+	// true when the event was passed on, a version already known isn't
+	private boolean onPodEvent(Watcher.Action action, Pod pod) {
+		String jobName = pod.getMetadata().getLabels().get(JOB_NAME_LABEL);
+		String podName = pod.getMetadata().getName();
+		List<Listener> jobListeners;
+		synchronized (this) {
+			if (stopped || Watcher.Action.ERROR == action) {
+				return false;
+			}
+			Map<String, Pod> jobPods = pods.get(jobName);
+			Pod known;
+			if (Watcher.Action.DELETED == action) {
+				known = null != jobPods ? jobPods.remove(podName) : null;
+				if (null != jobPods && jobPods.isEmpty()) {
+					pods.remove(jobName);
+				}
+			} else {
+				if (null == jobPods) {
+					jobPods = new HashMap<String, Pod>();
+					pods.put(jobName, jobPods);
+				}
+				known = jobPods.put(podName, pod);
+			}
+			if (null != pod.getMetadata().getResourceVersion()) {
+				podResourceVersion = pod.getMetadata().getResourceVersion();
+			}
+			if (Watcher.Action.DELETED == action ? null == known : isSameVersion(known, pod)) {
+				return false;
+			}
+			jobListeners = listeners.get(jobName);
+		}
+		if (null != jobListeners) {
+			for (Listener listener : jobListeners) {
+				listener.onPod(pod);
+			}
+		}
+		return true;
+	}
+
+	private static boolean isSameVersion(HasMetadata known, HasMetadata resource) {
+		return null != known && null != resource.getMetadata().getResourceVersion()
+			&& resource.getMetadata().getResourceVersion().equals(known.getMetadata().getResourceVersion());
+	}
+
+	private void onWatchClose(InformerWatcher<?> watcher, KubernetesClientException e) {
+		if (null == e) {
+			// closed by the informer itself
+			return;
+		}
+		synchronized (this) {
+			if (stopped) {
+				return;
+			}
+			if (!watcher.opened) {
+				// either the watch failed to open, which recover() handles, or opened() handles this close
+				watcher.closedBy = e;
+				return;
+			}
+			lose(watcher.job, e);
+		}
+	}
+
+	// forgets a closed watch, resumed from the last version seen unless it is gone
+	private synchronized void lose(boolean job, KubernetesClientException e) {
+		logger.warn("Watch of the " + (job ? "jobs" : "pods") + " of namespace " + namespace + " closed: " + e.getMessage());
+		lost = true;
+		if (job) {
+			jobWatch = null;
+		} else {
+			podWatch = null;
+		}
+		if (HttpURLConnection.HTTP_GONE == e.getCode()) {
+			// the version to resume from is compacted, list again
+			if (job) {
+				jobResourceVersion = null;
+			} else {
+				podResourceVersion = null;
+			}
+		}
+		workers.execute(this::recover);
+	}
+
+	private class InformerWatcher<T> implements Watcher<T> {
+		private final boolean job;
+		// guarded by the informer
+		private boolean opened = false;
+		private KubernetesClientException closedBy = null;
+
+		private InformerWatcher(boolean _job) {
+			job = _job;
+		}
+
+		@Override
+		public void eventReceived(Action action, T resource) {
+			boolean passed = job ? onJobEvent(action, (Job) resource) : onPodEvent(action, (Pod) resource);
+			// a relist sees the known versions again, the watch should not
+			if (!passed && Action.ERROR != action && !isStopped()) {
+				Metrics.getInstance().counter(Metrics.WATCH_EVENTS_DUPLICATE,
+					Metrics.NAMESPACE_TAG, namespace, Metrics.CLUSTER_TAG, Metrics.cluster(client)).increment();
+			}
+		}
+
+		@Override
+		public void onClose(KubernetesClientException e) {
+			onWatchClose(this, e);
+		}
+	}
+
+	public class Registration implements AutoCloseable {
+		private final String jobName;
+		private final Listener listener;
+		private boolean closed = false;
+
+		private Registration(String _jobName, Listener _listener) {
+			jobName = _jobName;
+			listener = _listener;
+		}
+
+		@Override
+		public synchronized void close() {
+			if (!closed) {
+				closed = true;
+				removeListener(jobName, listener);
+			}
+		}
+	}
+}
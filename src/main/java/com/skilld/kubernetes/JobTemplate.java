@@ -0,0 +1,59 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * JobTemplate.java
+ *
+ * Created: 10/15/2026 10:49 PM
+ *
+ */
+package com.skilld.kubernetes;
+
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.Job;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * A job spec built once from the configuration shared by every execution of a job definition.
+ * Each execution gets a copy of it with its own name, labels, command and arguments.
+ */
+public class JobTemplate {
+	private final Job template;
+
+	public JobTemplate(JobConfiguration configuration) {
+		template = JobBuilder.build(configuration);
+	}
+
+	/**
+	 * @param configuration The per execution configuration: name, labels, command and arguments.
+	 * @return A new job resource.
+	 */
+	public Job instantiate(JobConfiguration configuration) {
+		Job job = new io.fabric8.kubernetes.api.model.JobBuilder(template).build();
+		job.getMetadata().setName(configuration.getName());
+		job.getMetadata().setLabels(new HashMap<String, String>(configuration.getLabels()));
+		job.getSpec().getTemplate().getMetadata().setLabels(new HashMap<String, String>(configuration.getLabels()));
+		Container container = job.getSpec().getTemplate().getSpec().getContainers().get(0);
+		container.setName(configuration.getName());
+		if (null != configuration.getCommand()) {
+			container.setCommand(new ArrayList<String>(configuration.getCommand()));
+		}
+		if (null != configuration.getArguments()) {
+			container.setArgs(new ArrayList<String>(configuration.getArguments()));
+		}
+		return job;
+	}
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * JobTemplateCache.java
+ *
+ * Created: 10/15/2026 10:49 PM
+ *
+ */
+package com.skilld.kubernetes;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Least recently used cache of {@link JobTemplate}s, keyed by a hash of the configuration they
+ * are built from.
+ */
+public class JobTemplateCache {
+	public static final int DEFAULT_MAX_SIZE = 100;
+
+	private static final JobTemplateCache instance = new JobTemplateCache(DEFAULT_MAX_SIZE);
+
+	private final Map<String, JobTemplate> templates;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	public JobTemplateCache(final int _maxSize) {
+		templates = new LinkedHashMap<String, JobTemplate>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, JobTemplate> eldest) {
+				return size() > _maxSize;
+			}
+		};
+	}
+
+	public static JobTemplateCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Get the template of a configuration, building it if needed.
+	 * @param key The hash of the configuration, see {@link #hash(Map)}.
+	 * @param configuration Supplies the configuration of the template when it is not cached.
+	 * @return The template.
+	 */
+	public JobTemplate get(String key, Supplier<JobConfiguration> configuration) {
+		synchronized (templates) {
+			JobTemplate template = templates.get(key);
+			if (null != template) {
+				hits.incrementAndGet();
+				return template;
+			}
+		}
+		misses.incrementAndGet();
+		// built outside the lock, concurrent misses on the same key build the same template
+		JobTemplate template = new JobTemplate(configuration.get());
+		synchronized (templates) {
+			templates.put(key, template);
+		}
+		return template;
+	}
+
+	public int size() {
+		synchronized (templates) {
+			return templates.size();
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @param values The configuration values a template depends on, null values are ignored.
+	 * @return A stable hash of the values, which never exposes them.
+	 */
+	public static String hash(Map<String, ?> values) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+		for (Map.Entry<String, ?> entry : new TreeMap<String, Object>(values).entrySet()) {
+			if (null != entry.getValue()) {
+				update(digest, entry.getKey());
+				update(digest, entry.getValue().toString());
+			}
+		}
+		StringBuilder hash = new StringBuilder();
+		for (byte b : digest.digest()) {
+			hash.append(String.format("%02x", b));
+		}
+		return hash.toString();
+	}
+
+	// length prefixed, so that the boundaries between values are part of the hash
+	private static void update(MessageDigest digest, String value) {
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		digest.update(new byte[]{(byte) (bytes.length >>> 24), (byte) (bytes.length >>> 16), (byte) (bytes.length >>> 8), (byte) bytes.length});
+		digest.update(bytes);
+	}
+}
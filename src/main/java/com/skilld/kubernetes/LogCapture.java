@@ -0,0 +1,328 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * LogCapture.java
+ *
+ * Created: 10/15/2026 1:40 PM
+ *
+ */
+package com.skilld.kubernetes;
+
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * Captures a pod log with a bounded heap footprint, according to a {@link Policy}:
+ * - FULL keeps the log in memory up to the limit, then spills it to a temporary file which is
+ *   memory mapped chunk by chunk when the log is emitted
+ * - HEAD_TAIL keeps the first and the last limit bytes
+ * - TAIL keeps the last limit bytes in a ring buffer
+ * An observer can be given the whole log as it is read, before the policy drops anything.
+ * The buffers grow with the log up to the limit, a short log only holds what it needs.
+ */
+public class LogCapture implements AutoCloseable {
+	static Logger logger = Logger.getLogger(LogCapture.class);
+
+	public static final int DEFAULT_LIMIT = 1024 * 1024;
+	static final int CHUNK_SIZE = 64 * 1024;
+
+	public enum Policy {
+		FULL("full"),
+		HEAD_TAIL("headTail"),
+		TAIL("tail");
+
+		private final String value;
+
+		Policy(String _value) {
+			value = _value;
+		}
+
+		public String getValue() {
+			return value;
+		}
+
+		public static Policy fromValue(String _value) {
+			for (Policy policy : values()) {
+				if (policy.value.equals(_value)) {
+					return policy;
+				}
+			}
+			throw new IllegalArgumentException("Unknown log capture policy " + _value);
+		}
+	}
+
+	private final Policy policy;
+	private final int limit;
+	// the head holds up to headLimit bytes, the tail up to limit bytes
+	private final int headLimit;
+	private byte[] head = new byte[0];
+	private int headLength = 0;
+	private byte[] tail = null;
+	private byte lastDropped = '\n';
+	private long total = 0;
+	private Path spillFile = null;
+	private FileChannel spillChannel = null;
+	private final OutputStream observer;
+
+	public LogCapture(Policy _policy, int _limit) {
+		this(_policy, _limit, null);
+	}
+
+	public LogCapture(Policy _policy, int _limit, OutputStream _observer) {
+		policy = _policy;
+		limit = _limit;
+		observer = _observer;
+		headLimit = Policy.TAIL == policy ? 0 : limit;
+		if (Policy.FULL != policy) {
+			tail = new byte[0];
+		}
+	}
+
+	/**
+	 * Read a log stream until its end.
+	 * @param input The log stream, which is not closed.
+	 */
+	public void capture(InputStream input) throws IOException {
+		byte[] chunk = new byte[CHUNK_SIZE];
+		int read;
+		while (-1 != (read = input.read(chunk))) {
+			append(chunk, 0, read);
+		}
+	}
+
+	/**
+	 * Read a log until its end, the characters are captured in UTF-8.
+	 * @param input The log, which is not closed.
+	 */
+	public void capture(Reader input) throws IOException {
+		Writer encoder = new OutputStreamWriter(new OutputStream() {
+			@Override
+			public void write(int b) throws IOException {
+				append(new byte[] {(byte) b}, 0, 1);
+			}
+
+			@Override
+			public void write(byte[] bytes, int offset, int length) throws IOException {
+				append(bytes, offset, length);
+			}
+		}, StandardCharsets.UTF_8);
+		char[] chunk = new char[CHUNK_SIZE];
+		int read;
+		while (-1 != (read = input.read(chunk))) {
+			encoder.write(chunk, 0, read);
+		}
+		encoder.flush();
+	}
+
+	/**
+	 * @return The number of bytes read from the log, captured or not.
+	 */
+	public long getTotalBytes() {
+		return total;
+	}
+
+	/**
+	 * @return The number of bytes which were dropped by the policy.
+	 */
+	public long getSkippedBytes() {
+		switch (policy) {
+			case TAIL:
+				return Math.max(0, total - limit);
+			case HEAD_TAIL:
+				return Math.max(0, total - 2L * limit);
+			default:
+				return 0;
+		}
+	}
+
+	/**
+	 * Hand the captured log to the consumer line by line.
+	 * @param consumer Receives the lines.
+	 */
+	public void emit(Consumer<String> consumer) throws IOException {
+		LineSplitter lines = new LineSplitter(consumer);
+		if (null != spillChannel) {
+			long size = spillChannel.size();
+			for (long position = 0; position < size; position += CHUNK_SIZE) {
+				MappedByteBuffer mapped = spillChannel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(CHUNK_SIZE, size - position));
+				lines.feed(mapped);
+			}
+			lines.finish();
+			return;
+		}
+		lines.feed(ByteBuffer.wrap(head, 0, headLength));
+		if (null != tail) {
+			long skipped = getSkippedBytes();
+			long tailed = total - headLength;
+			if (skipped > 0) {
+				lines.finish();
+				consumer.accept("[... " + skipped + " bytes skipped ...]");
+				if ('\n' != lastDropped) {
+					// the first tail line is truncated
+					lines.skipToNextLine();
+				}
+			}
+			if (tailed > limit) {
+				int oldest = (int) (tailed % limit);
+				lines.feed(ByteBuffer.wrap(tail, oldest, limit - oldest));
+				lines.feed(ByteBuffer.wrap(tail, 0, oldest));
+			} else if (tailed > 0) {
+				lines.feed(ByteBuffer.wrap(tail, 0, (int) tailed));
+			}
+		}
+		lines.finish();
+	}
+
+	@Override
+	public void close() {
+		if (null != spillChannel) {
+			try {
+				spillChannel.close();
+				Files.deleteIfExists(spillFile);
+			} catch (IOException e) {
+				logger.warn("Unable to remove log spill file " + spillFile, e);
+			}
+			spillChannel = null;
+		}
+	}
+
+	private void append(byte[] bytes, int offset, int length) throws IOException {
+		if (null != observer) {
+			observer.write(bytes, offset, length);
+		}
+		total += length;
+		if (null != spillChannel) {
+			write(bytes, offset, length);
+			return;
+		}
+		int toHead = Math.min(length, headLimit - headLength);
+		head = grow(head, headLength + toHead);
+		System.arraycopy(bytes, offset, head, headLength, toHead);
+		headLength += toHead;
+		offset += toHead;
+		length -= toHead;
+		if (0 == length) {
+			return;
+		}
+		if (Policy.FULL == policy) {
+			spillFile = Files.createTempFile("rundeck-kubernetes-log", ".log");
+			spillChannel = FileChannel.open(spillFile, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE);
+			write(head, 0, headLength);
+			write(bytes, offset, length);
+			return;
+		}
+		// keep only the last bytes in the ring buffer, indexed by their position after the head
+		long start = total - length - headLength;
+		if (length > limit) {
+			lastDropped = bytes[offset + length - limit - 1];
+			start += length - limit;
+			offset += length - limit;
+			length = limit;
+		} else if (start + length > limit) {
+			lastDropped = tail[(int) ((start + length - limit - 1) % limit)];
+		}
+		// the ring only wraps once it is full
+		tail = grow(tail, (int) Math.min(limit, start + length));
+		int position = (int) (start % limit);
+		int first = Math.min(length, limit - position);
+		System.arraycopy(bytes, offset, tail, position, first);
+		System.arraycopy(bytes, offset + first, tail, 0, length - first);
+	}
+
+	// at least doubles the buffer when it is too small, never past the limit
+	private byte[] grow(byte[] buffer, int needed) {
+		if (needed <= buffer.length) {
+			return buffer;
+		}
+		return Arrays.copyOf(buffer, (int) Math.min(limit, Math.max(needed, 2L * buffer.length)));
+	}
+
+	/**
+	 * @return The size of the buffers held in memory, in bytes.
+	 */
+	int getBufferSize() {
+		return head.length + (null != tail ? tail.length : 0);
+	}
+
+	private void write(byte[] bytes, int offset, int length) throws IOException {
+		ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+		while (buffer.hasRemaining()) {
+			spillChannel.write(buffer);
+		}
+	}
+
+	/**
+	 * Splits bytes into lines, flushing overlong lines so that a single line can't grow unbounded.
+	 */
+	private static class LineSplitter {
+		private final Consumer<String> consumer;
+		private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+		private boolean skipping = false;
+
+		private LineSplitter(Consumer<String> _consumer) {
+			consumer = _consumer;
+		}
+
+		private void feed(ByteBuffer buffer) {
+			while (buffer.hasRemaining()) {
+				byte b = buffer.get();
+				if ('\n' == b) {
+					if (skipping) {
+						skipping = false;
+					} else {
+						flush();
+					}
+				} else if (!skipping) {
+					line.write(b);
+					if (line.size() >= CHUNK_SIZE) {
+						flush();
+					}
+				}
+			}
+		}
+
+		private void skipToNextLine() {
+			skipping = true;
+		}
+
+		private void finish() {
+			if (line.size() > 0) {
+				flush();
+			}
+			skipping = false;
+		}
+
+		private void flush() {
+			consumer.accept(new String(line.toByteArray(), StandardCharsets.UTF_8));
+			line.reset();
+		}
+	}
+}
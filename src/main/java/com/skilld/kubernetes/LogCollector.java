@@ -0,0 +1,229 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * LogCollector.java
+ *
+ * Created: 10/15/2026 11:57 PM
+ *
+ */
+package com.skilld.kubernetes;
+
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Collects the logs of the finished pods of a job. The logs are fetched concurrently by a small
+ * pool shared by every job, never by the thread reporting the pods, and are handed back in the
+ * order the pods were created so that the output of a job doesn't depend on which pod finished
+ * first.
+ */
+public class LogCollector implements AutoCloseable {
+	static Logger logger = Logger.getLogger(LogCollector.class);
+
+	public static final int FETCH_THREADS = 4;
+
+	private static final ExecutorService fetchers = Executors.newFixedThreadPool(FETCH_THREADS, runnable -> {
+		Thread thread = new Thread(runnable, "kubernetes-log-collector");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	// pods by creation time, then by name for the ones created in the same second
+	private static final Comparator<PodLog> POD_ORDER = Comparator
+		.comparing((PodLog podLog) -> null != podLog.creationTimestamp ? podLog.creationTimestamp : "")
+		.thenComparing(podLog -> podLog.podName);
+
+	private final KubernetesClient client;
+	private final String namespace;
+	private final LogCapture.Policy policy;
+	private final int limit;
+	// by pod UID, a pod of the same name may be a new one
+	private final Map<String, PodLog> podLogs = new HashMap<String, PodLog>();
+	private volatile boolean closed = false;
+
+	public LogCollector(KubernetesClient _client, String _namespace, LogCapture.Policy _policy, int _limit) {
+		client = _client;
+		namespace = _namespace;
+		policy = _policy;
+		limit = _limit;
+	}
+
+	/**
+	 * Start fetching the log of a finished pod, once: the later events of the pod, from status
+	 * updates or finalizers, don't fetch it again.
+	 * @param pod The pod.
+	 * @param level The level of the log lines of the pod.
+	 * @return False when the log of the pod is already collected.
+	 */
+	public synchronized boolean collect(Pod pod, int level) {
+		String podName = pod.getMetadata().getName();
+		String uid = null != pod.getMetadata().getUid() ? pod.getMetadata().getUid() : podName;
+		if (closed) {
+			return true;
+		}
+		PodLog known = podLogs.get(uid);
+		if (null != known) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Skipping pod " + podName + " at version " + pod.getMetadata().getResourceVersion() + ", its log was collected at version " + known.resourceVersion);
+			}
+			return false;
+		}
+		PodLog podLog = new PodLog(podName, pod.getMetadata().getCreationTimestamp(), pod.getMetadata().getResourceVersion(), level);
+		podLogs.put(uid, podLog);
+		fetchers.execute(() -> fetch(podLog));
+		return true;
+	}
+
+	/**
+	 * @return The number of pods whose log is collected.
+	 */
+	public synchronized int size() {
+		return podLogs.size();
+	}
+
+	/**
+	 * @return The logs collected so far, in the order of their pods, whether they are fetched or not.
+	 */
+	public List<PodLog> getPodLogs() {
+		List<PodLog> logs;
+		synchronized (this) {
+			logs = new ArrayList<PodLog>(podLogs.values());
+		}
+		logs.sort(POD_ORDER);
+		return logs;
+	}
+
+	/**
+	 * @return The logs collected so far, completed once each one is fetched or failed, in the order of their pods.
+	 */
+	public CompletableFuture<List<PodLog>> fetched() {
+		List<PodLog> logs = getPodLogs();
+		CompletableFuture<?>[] fetches = new CompletableFuture<?>[logs.size()];
+		for (int i = 0; i < fetches.length; i++) {
+			// a failed fetch leaves the pod without capture
+			fetches[i] = logs.get(i).fetched.handle((capture, e) -> null);
+		}
+		return CompletableFuture.allOf(fetches).thenApply(v -> logs);
+	}
+
+	@Override
+	public void close() {
+		List<PodLog> logs;
+		synchronized (this) {
+			closed = true;
+			logs = new ArrayList<PodLog>(podLogs.values());
+		}
+		for (PodLog podLog : logs) {
+			// the captures still being fetched are closed by their fetcher
+			podLog.fetched.thenAccept(LogCapture::close);
+		}
+	}
+
+	// the fetch completes whatever happens, the execution waits for it
+	private void fetch(PodLog podLog) {
+		long start = System.nanoTime();
+		LogCapture capture = null;
+		Throwable failure = null;
+		try {
+			capture = new LogCapture(policy, limit, podLog.data);
+			// the pod is done, its log is read to the end of the response without following it
+			try (Reader log = client.pods().inNamespace(namespace).withName(podLog.podName).getLogReader()) {
+				if (!closed) {
+					capture.capture(log);
+				}
+			} catch (IOException | KubernetesClientException e) {
+				logger.error("Unable to capture the log of " + podLog.podName, e);
+			}
+			podLog.data.close();
+		} catch (RuntimeException | Error e) {
+			logger.error("Unable to capture the log of " + podLog.podName, e);
+			failure = e;
+			throw e;
+		} finally {
+			podLog.fetchNanos = System.nanoTime() - start;
+			if (null == failure) {
+				podLog.fetched.complete(capture);
+			} else {
+				if (null != capture) {
+					capture.close();
+				}
+				podLog.fetched.completeExceptionally(failure);
+			}
+		}
+	}
+
+	/**
+	 * The log of a finished pod.
+	 */
+	public static class PodLog {
+		private final String podName;
+		private final String creationTimestamp;
+		// the version the pod was first seen finished at
+		private final String resourceVersion;
+		private final int level;
+		private final CompletableFuture<LogCapture> fetched = new CompletableFuture<LogCapture>();
+		private final OutputData data = new OutputData();
+		private volatile long fetchNanos = 0;
+
+		private PodLog(String _podName, String _creationTimestamp, String _resourceVersion, int _level) {
+			podName = _podName;
+			creationTimestamp = _creationTimestamp;
+			resourceVersion = _resourceVersion;
+			level = _level;
+		}
+
+		public String getPodName() {
+			return podName;
+		}
+
+		public int getLevel() {
+			return level;
+		}
+
+		/**
+		 * @return The captured log, null until it is fetched or when its fetch failed.
+		 */
+		public LogCapture getCapture() {
+			return fetched.isCompletedExceptionally() ? null : fetched.getNow(null);
+		}
+
+		/**
+		 * @return The values reported by the pod in its log.
+		 */
+		public OutputData getData() {
+			return data;
+		}
+
+		/**
+		 * @return How long the log took to fetch, in nanoseconds.
+		 */
+		public long getFetchNanos() {
+			return fetchNanos;
+		}
+	}
+}
@@ -0,0 +1,334 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * LogFollower.java
+ *
+ * Created: 10/15/2026 11:20 AM
+ *
+ */
+package com.skilld.kubernetes;
+
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.client.HttpClientAware;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import okhttp3.Call;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Follows the logs of the pods of a job while they run. Each pod log is read line by line
+ * by a reader thread into a bounded buffer, which is drained by the thread owning the
+ * follower; readers block when the buffer is full.
+ * <p>
+ * A followed log ends once the container exits. The log is requested directly rather than
+ * through the client, whose log watch never ends. The lines are timestamped, so that a stream
+ * which ended before its pod did, because the container restarted or the connection dropped, is
+ * resumed after the last line read rather than read again from the start.
+ */
+public class LogFollower implements AutoCloseable {
+	static Logger logger = Logger.getLogger(LogFollower.class);
+
+	// how long an ended stream waits for its pod to end before it is resumed
+	static final long RESUME_DELAY = 1000;
+	static final int MAX_FAILURES = 5;
+
+	private static final ExecutorService readers = Executors.newCachedThreadPool(runnable -> {
+		Thread thread = new Thread(runnable, "kubernetes-log-follower");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private final KubernetesClient client;
+	private final String namespace;
+	private final OkHttpClient httpClient;
+	private final BlockingQueue<Line> buffer;
+	// by pod UID, a pod of the same name may be a new one
+	private final Map<String, PodStream> streams = new HashMap<String, PodStream>();
+	// the streams whose pod hasn't finished or whose end wasn't read yet
+	private int activeStreams = 0;
+	private volatile boolean closed = false;
+
+	public LogFollower(KubernetesClient _client, String _namespace, int capacity) {
+		client = _client;
+		namespace = _namespace;
+		// a followed log is silent for as long as the container is
+		httpClient = ((HttpClientAware) client).getHttpClient().newBuilder().readTimeout(0, TimeUnit.MILLISECONDS).build();
+		buffer = new ArrayBlockingQueue<Line>(capacity);
+	}
+
+	/**
+	 * Start following the log of a pod, does nothing if the pod is already followed.
+	 * @param pod The pod.
+	 * @return False when the pod is already followed.
+	 */
+	public synchronized boolean follow(Pod pod) {
+		if (closed) {
+			return true;
+		}
+		String uid = uid(pod);
+		if (streams.containsKey(uid)) {
+			return false;
+		}
+		PodStream stream = new PodStream(pod.getMetadata().getName());
+		streams.put(uid, stream);
+		activeStreams++;
+		// the stream is opened by its reader, the caller may be delivering watch events
+		readers.submit(() -> read(stream));
+		return true;
+	}
+
+	/**
+	 * Mark a pod as finished, its log is read until the end; the pod is followed first if it
+	 * wasn't. Does nothing if the pod already ended.
+	 * @param pod The pod.
+	 * @param level The level of the lines not read yet.
+	 * @return False when the pod already ended.
+	 */
+	public synchronized boolean end(Pod pod, int level) {
+		if (closed) {
+			return true;
+		}
+		follow(pod);
+		PodStream stream = streams.get(uid(pod));
+		if (stream.ended) {
+			return false;
+		}
+		end(stream, level);
+		return true;
+	}
+
+	/**
+	 * Mark every pod as finished, once the job completed; each log is read until the end.
+	 */
+	public synchronized void endAll() {
+		if (closed) {
+			return;
+		}
+		for (PodStream stream : streams.values()) {
+			end(stream, stream.level);
+		}
+	}
+
+	/**
+	 * Hand every buffered line to the consumer without waiting for new ones.
+	 * @param consumer Receives the lines.
+	 */
+	public void drain(Consumer<Line> consumer) {
+		List<Line> lines = new ArrayList<Line>();
+		buffer.drainTo(lines);
+		for (Line line : lines) {
+			consumer.accept(line);
+		}
+	}
+
+	@Override
+	public synchronized void close() {
+		closed = true;
+		for (PodStream stream : streams.values()) {
+			if (null != stream.call) {
+				stream.call.cancel();
+			}
+		}
+		buffer.clear();
+		notifyAll();
+	}
+
+	/**
+	 * @return True once every followed log has ended.
+	 */
+	public synchronized boolean isDone() {
+		return 0 == activeStreams;
+	}
+
+	private static String uid(Pod pod) {
+		return null != pod.getMetadata().getUid() ? pod.getMetadata().getUid() : pod.getMetadata().getName();
+	}
+
+	// guarded by the follower
+	private void end(PodStream stream, int level) {
+		if (stream.ended) {
+			return;
+		}
+		stream.ended = true;
+		stream.level = level;
+		// wakes the reader up if its stream already ended
+		notifyAll();
+	}
+
+	// reads the stream until it ends after the pod did, resuming it when it ends before
+	private void read(PodStream stream) {
+		int failures = 0;
+		try {
+			while (true) {
+				boolean complete = false;
+				try {
+					readStream(stream);
+					complete = true;
+					failures = 0;
+				} catch (IOException e) {
+					if (closed) {
+						return;
+					}
+					if (++failures >= MAX_FAILURES) {
+						logger.error("Log stream of " + stream.podName + " failed, giving up", e);
+						return;
+					}
+					logger.warn("Log stream of " + stream.podName + " failed, resuming it: " + e.getMessage());
+				}
+				synchronized (this) {
+					if (!closed && !stream.ended) {
+						wait(RESUME_DELAY);
+					}
+					// a stream ending once the pod ended delivered the whole log
+					if (closed || (complete && stream.ended)) {
+						return;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			synchronized (this) {
+				stream.call = null;
+				activeStreams--;
+			}
+		}
+	}
+
+	private void readStream(PodStream stream) throws IOException, InterruptedException {
+		Call call;
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			call = httpClient.newCall(new Request.Builder().url(logUrl(stream)).build());
+			stream.call = call;
+		}
+		try (Response response = call.execute()) {
+			if (!response.isSuccessful()) {
+				throw new IOException("Log request failed with " + response.code() + ": " + response.message());
+			}
+			BufferedReader reader = new BufferedReader(new InputStreamReader(response.body().byteStream(), StandardCharsets.UTF_8));
+			String text;
+			while (null != (text = reader.readLine())) {
+				int separator = text.indexOf(' ');
+				Instant time = separator > 0 ? parseTime(text.substring(0, separator)) : null;
+				if (null == time) {
+					offer(stream, text);
+				} else if (null == stream.last || time.isAfter(stream.last)) {
+					// a resumed stream repeats the second of the last line read
+					stream.last = time;
+					offer(stream, text.substring(separator + 1));
+				}
+			}
+		}
+	}
+
+	private String logUrl(PodStream stream) throws IOException {
+		String masterUrl = client.getMasterUrl().toString();
+		StringBuilder url = new StringBuilder(masterUrl).append(masterUrl.endsWith("/") ? "" : "/")
+			.append("api/v1/namespaces/").append(namespace).append("/pods/").append(stream.podName)
+			.append("/log?follow=true&timestamps=true");
+		if (null != stream.last) {
+			// the API takes whole seconds
+			url.append("&sinceTime=").append(URLEncoder.encode(stream.last.truncatedTo(ChronoUnit.SECONDS).toString(), StandardCharsets.UTF_8.name()));
+		}
+		return url.toString();
+	}
+
+	private static Instant parseTime(String time) {
+		try {
+			return Instant.parse(time);
+		} catch (DateTimeParseException e) {
+			return null;
+		}
+	}
+
+	// the lines read once the follower is closed are dropped
+	private void offer(PodStream stream, String text) throws InterruptedException {
+		Line line = new Line(stream.podName, stream.level, text);
+		while (!closed) {
+			if (buffer.offer(line, 100, TimeUnit.MILLISECONDS)) {
+				return;
+			}
+			// the buffer is full, wait for the owner to drain it
+		}
+	}
+
+	private static class PodStream {
+		private final String podName;
+		// the time of the last line read, read by its reader only
+		private Instant last = null;
+		private volatile int level = 2;
+		// guarded by the follower
+		private Call call = null;
+		private boolean ended = false;
+
+		private PodStream(String _podName) {
+			podName = _podName;
+		}
+	}
+
+	/**
+	 * A line of a followed log.
+	 */
+	public static class Line {
+		private final String podName;
+		private final int level;
+		private final String text;
+
+		private Line(String _podName, int _level, String _text) {
+			podName = _podName;
+			level = _level;
+			text = _text;
+		}
+
+		public String getPodName() {
+			return podName;
+		}
+
+		/**
+		 * @return The level of the line, 0 for the end of the log of a failed pod.
+		 */
+		public int getLevel() {
+			return level;
+		}
+
+		public String getText() {
+			return text;
+		}
+	}
+}
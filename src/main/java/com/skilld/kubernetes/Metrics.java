@@ -0,0 +1,323 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * Metrics.java
+ *
+ * Created: 10/15/2026 10:57 PM
+ *
+ */
+package com.skilld.kubernetes;
+
+import io.fabric8.kubernetes.client.KubernetesClient;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import org.apache.log4j.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Process wide registry of histograms and counters, each one exposed as an MXBean under the
+ * {@link #DOMAIN} domain. Metrics are identified by a name and tags, for instance the namespace
+ * and the cluster they apply to.
+ */
+public class Metrics {
+	static Logger logger = Logger.getLogger(Metrics.class);
+
+	public static final String DOMAIN = "com.skilld.kubernetes";
+	public static final String NAMESPACE_TAG = "namespace";
+	public static final String CLUSTER_TAG = "cluster";
+	public static final String VERB_TAG = "verb";
+
+	// durations, in milliseconds
+	public static final String JOB_CREATE = "job.create";
+	public static final String QUEUE_WAIT = "job.queue.wait";
+	public static final String POD_SCHEDULED = "pod.scheduled";
+	public static final String POD_RUNNING = "pod.running";
+	public static final String JOB_COMPLETE = "job.complete";
+	public static final String JOB_CLEANUP = "job.cleanup";
+	public static final String LOG_FETCH = "log.fetch";
+	public static final String API_CALL = "api.call";
+	// sizes, in bytes
+	public static final String LOG_FETCH_BYTES = "log.fetch.bytes";
+	// counts
+	public static final String WATCH_RECONNECTS = "watch.reconnects";
+	// the watch events of a version already seen, dropped by the informer
+	public static final String WATCH_EVENTS_DUPLICATE = "watch.events.duplicate";
+	// the events of a finished pod whose log is already collected or ended, or of a running pod already followed
+	public static final String POD_LOGS_DUPLICATE = "pod.logs.duplicate";
+	public static final String JOB_CREATE_RETRIES = "job.create.retries";
+	public static final String POD_POOL_HITS = "pod.pool.hits";
+	public static final String POD_POOL_MISSES = "pod.pool.misses";
+	public static final String IMAGE_WARM = "image.warm";
+	public static final String IMAGE_COLD = "image.cold";
+	// the jobs deleted by the cleaner, and given up on after every attempt failed
+	public static final String JOB_CLEANUP_DELETED = "job.cleanup.deleted";
+	public static final String JOB_CLEANUP_FAILED = "job.cleanup.failed";
+	// the orphaned jobs deleted by the reaper
+	public static final String JOB_REAPED = "job.reaped";
+
+	private static final Pattern NAMESPACE_PATH = Pattern.compile("/namespaces/([^/?]+)");
+
+	private static final Metrics instance = new Metrics(ManagementFactory.getPlatformMBeanServer());
+
+	private final MBeanServer server;
+	private final Map<ObjectName, Object> metrics = new HashMap<ObjectName, Object>();
+
+	public Metrics(MBeanServer _server) {
+		server = _server;
+	}
+
+	public static Metrics getInstance() {
+		return instance;
+	}
+
+	/**
+	 * @param name The name of the histogram.
+	 * @param tags The tags of the histogram, as key value pairs.
+	 * @return The histogram, registered on its first use.
+	 */
+	public Histogram histogram(String name, String... tags) {
+		return get(Histogram.class, name, tags);
+	}
+
+	/**
+	 * @param name The name of the counter.
+	 * @param tags The tags of the counter, as key value pairs.
+	 * @return The counter, registered on its first use.
+	 */
+	public Counter counter(String name, String... tags) {
+		return get(Counter.class, name, tags);
+	}
+
+	/**
+	 * @return The tag identifying the cluster of a client: the host and port of its master.
+	 */
+	public static String cluster(KubernetesClient client) {
+		return cluster(client.getMasterUrl());
+	}
+
+	static String cluster(URL masterUrl) {
+		return masterUrl.getHost() + (masterUrl.getPort() < 0 ? "" : ":" + masterUrl.getPort());
+	}
+
+	/**
+	 * @return An interceptor recording the latency of every API call, by verb, namespace and cluster.
+	 */
+	public Interceptor apiCallInterceptor() {
+		return chain -> {
+			Request request = chain.request();
+			long start = System.nanoTime();
+			try {
+				return chain.proceed(request);
+			} finally {
+				String verb = "true".equals(request.url().queryParameter("watch")) ? "WATCH" : request.method();
+				Matcher namespace = NAMESPACE_PATH.matcher(request.url().encodedPath());
+				histogram(API_CALL,
+					VERB_TAG, verb,
+					NAMESPACE_TAG, namespace.find() ? namespace.group(1) : "",
+					CLUSTER_TAG, cluster(request.url().url())).recordSince(start);
+			}
+		};
+	}
+
+	private synchronized <T> T get(Class<T> type, String name, String... tags) {
+		ObjectName objectName = objectName(type, name, tags);
+		Object metric = metrics.get(objectName);
+		if (null == metric) {
+			metric = Histogram.class == type ? new Histogram() : new Counter();
+			metrics.put(objectName, metric);
+			try {
+				server.registerMBean(metric, objectName);
+			} catch (JMException e) {
+				logger.warn("Unable to register " + objectName, e);
+			}
+		}
+		return type.cast(metric);
+	}
+
+	private static ObjectName objectName(Class<?> type, String name, String... tags) {
+		Hashtable<String, String> properties = new Hashtable<String, String>();
+		properties.put("type", type.getSimpleName());
+		properties.put("name", name);
+		for (int i = 0; i + 1 < tags.length; i += 2) {
+			properties.put(tags[i], ObjectName.quote(tags[i + 1]));
+		}
+		try {
+			return new ObjectName(DOMAIN, properties);
+		} catch (JMException e) {
+			throw new IllegalArgumentException("Invalid metric " + name + " " + Arrays.toString(tags), e);
+		}
+	}
+
+	public interface CounterMXBean {
+		long getCount();
+	}
+
+	public static class Counter implements CounterMXBean {
+		private final AtomicLong count = new AtomicLong();
+
+		public void increment() {
+			count.incrementAndGet();
+		}
+
+		public void add(long delta) {
+			count.addAndGet(delta);
+		}
+
+		@Override
+		public long getCount() {
+			return count.get();
+		}
+	}
+
+	public interface HistogramMXBean {
+		long getCount();
+		long getSum();
+		long getMax();
+		double getMean();
+		long get50thPercentile();
+		long get95thPercentile();
+		long get99thPercentile();
+		List<Long> getBuckets();
+		List<Long> getBucketCounts();
+	}
+
+	/**
+	 * A distribution of values in fixed exponential buckets (1, 2, 5, 10, 20, 50...). Percentiles
+	 * are the upper bound of the bucket they fall into.
+	 */
+	public static class Histogram implements HistogramMXBean {
+		private static final long[] BOUNDS = bounds();
+
+		private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+
+		public void record(long value) {
+			int bucket = Arrays.binarySearch(BOUNDS, value);
+			counts.incrementAndGet(bucket < 0 ? -bucket - 1 : bucket);
+			count.incrementAndGet();
+			sum.addAndGet(value);
+			long current;
+			while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+				// retry
+			}
+		}
+
+		/**
+		 * Record the milliseconds elapsed since a {@link System#nanoTime()} value.
+		 */
+		public void recordSince(long startNanos) {
+			record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos));
+		}
+
+		@Override
+		public long getCount() {
+			return count.get();
+		}
+
+		@Override
+		public long getSum() {
+			return sum.get();
+		}
+
+		@Override
+		public long getMax() {
+			return max.get();
+		}
+
+		@Override
+		public double getMean() {
+			long n = count.get();
+			return 0 == n ? 0 : (double) sum.get() / n;
+		}
+
+		@Override
+		public long get50thPercentile() {
+			return percentile(0.5);
+		}
+
+		@Override
+		public long get95thPercentile() {
+			return percentile(0.95);
+		}
+
+		@Override
+		public long get99thPercentile() {
+			return percentile(0.99);
+		}
+
+		@Override
+		public List<Long> getBuckets() {
+			Long[] bounds = new Long[BOUNDS.length];
+			for (int i = 0; i < BOUNDS.length; i++) {
+				bounds[i] = BOUNDS[i];
+			}
+			return Arrays.asList(bounds);
+		}
+
+		@Override
+		public List<Long> getBucketCounts() {
+			Long[] values = new Long[counts.length()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = counts.get(i);
+			}
+			return Arrays.asList(values);
+		}
+
+		long percentile(double quantile) {
+			long n = count.get();
+			if (0 == n) {
+				return 0;
+			}
+			long rank = (long) Math.ceil(quantile * n);
+			long seen = 0;
+			for (int i = 0; i < BOUNDS.length; i++) {
+				seen += counts.get(i);
+				if (seen >= rank) {
+					return Math.min(BOUNDS[i], max.get());
+				}
+			}
+			return max.get();
+		}
+
+		private static long[] bounds() {
+			long[] bounds = new long[30];
+			long decade = 1;
+			for (int i = 0; i < bounds.length; i += 3) {
+				bounds[i] = decade;
+				bounds[i + 1] = 2 * decade;
+				bounds[i + 2] = 5 * decade;
+				decade *= 10;
+			}
+			return bounds;
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * OptionTemplate.java
+ *
+ * Created: 10/15/2026 10:51 PM
+ *
+ */
+package com.skilld.kubernetes;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A string with <code>${option}</code> placeholders, parsed once and rendered in a single pass.
+ * Unknown placeholders are kept as is and option values are inserted literally, they are not
+ * searched for placeholders themselves.
+ */
+public class OptionTemplate {
+	static final int CACHE_SIZE = 256;
+
+	private static final Map<String, OptionTemplate> cache = new LinkedHashMap<String, OptionTemplate>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, OptionTemplate> eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+
+	// literals at even indexes, option names at odd ones
+	private final String[] segments;
+	private final int literalLength;
+
+	private OptionTemplate(String[] _segments) {
+		segments = _segments;
+		int length = 0;
+		for (int i = 0; i < segments.length; i += 2) {
+			length += segments[i].length();
+		}
+		literalLength = length;
+	}
+
+	/**
+	 * @param input The string to parse.
+	 * @return The template of the string, shared with the previous calls for the same string.
+	 */
+	public static OptionTemplate compile(String input) {
+		synchronized (cache) {
+			OptionTemplate template = cache.get(input);
+			if (null == template) {
+				template = parse(input);
+				cache.put(input, template);
+			}
+			return template;
+		}
+	}
+
+	/**
+	 * @param options The option values.
+	 * @return The string with the placeholders of the given options replaced by their value.
+	 */
+	public String render(Map<String, String> options) {
+		if (1 == segments.length) {
+			return segments[0];
+		}
+		StringBuilder output = new StringBuilder(literalLength + 16 * (segments.length / 2));
+		renderTo(output, options);
+		return output.toString();
+	}
+
+	/**
+	 * Render the string then split it the way a shell would split words: on whitespace, except
+	 * inside single or double quotes, which are kept in the tokens.
+	 * @param options The option values.
+	 * @return The tokens of the rendered string.
+	 */
+	public List<String> renderTokens(Map<String, String> options) {
+		return tokenize(render(options));
+	}
+
+	private void renderTo(StringBuilder output, Map<String, String> options) {
+		output.append(segments[0]);
+		for (int i = 1; i < segments.length; i += 2) {
+			String value = options.get(segments[i]);
+			if (null == value) {
+				output.append("${").append(segments[i]).append('}');
+			} else {
+				output.append(value);
+			}
+			output.append(segments[i + 1]);
+		}
+	}
+
+	static OptionTemplate parse(String input) {
+		List<String> segments = new ArrayList<String>();
+		StringBuilder literal = new StringBuilder();
+		int position = 0;
+		while (position < input.length()) {
+			int start = input.indexOf("${", position);
+			int end = start < 0 ? -1 : input.indexOf('}', start + 2);
+			if (end < 0) {
+				break;
+			}
+			// the placeholder is the innermost one: "${a${b}" holds the "b" placeholder
+			int inner = input.lastIndexOf("${", end);
+			literal.append(input, position, inner);
+			segments.add(literal.toString());
+			segments.add(input.substring(inner + 2, end));
+			literal.setLength(0);
+			position = end + 1;
+		}
+		literal.append(input, position, input.length());
+		segments.add(literal.toString());
+		return new OptionTemplate(segments.toArray(new String[segments.size()]));
+	}
+
+	/**
+	 * Split a string into tokens: quoted strings, up to the last closing quote of the line that
+	 * is not escaped by a backslash, and runs of non whitespace characters otherwise.
+	 * @param input The string to split.
+	 * @return The tokens.
+	 */
+	static List<String> tokenize(CharSequence input) {
+		List<String> tokens = new ArrayList<String>();
+		int length = input.length();
+		int position = 0;
+		while (position < length) {
+			char c = input.charAt(position);
+			if (isWhitespace(c)) {
+				position++;
+				continue;
+			}
+			int end = -1;
+			if ('"' == c || '\'' == c) {
+				end = quotedEnd(input, position, c);
+			}
+			if (end < 0) {
+				end = position + 1;
+				while (end < length && !isWhitespace(input.charAt(end))) {
+					end++;
+				}
+			}
+			tokens.add(input.subSequence(position, end).toString());
+			position = end;
+		}
+		return tokens;
+	}
+
+	// the end of the quoted string starting at start, -1 when it is not closed on its line
+	private static int quotedEnd(CharSequence input, int start, char quote) {
+		int length = input.length();
+		int position = start + 1;
+		while (position < length && !isLineTerminator(input.charAt(position))) {
+			if (position + 1 < length && quote == input.charAt(position + 1) && '\\' != input.charAt(position)) {
+				return position + 2;
+			}
+			position++;
+		}
+		// only escaped quotes are left, the last one closes the string
+		for (int last = position - 1; last > start; last--) {
+			if (quote == input.charAt(last)) {
+				return last + 1;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean isWhitespace(char c) {
+		return ' ' == c || '\t' == c || '\n' == c || '\u000B' == c || '\f' == c || '\r' == c;
+	}
+
+	private static boolean isLineTerminator(char c) {
+		return '\n' == c || '\r' == c || '\u0085' == c || '\u2028' == c || '\u2029' == c;
+	}
+}
@@ -0,0 +1,259 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * OrphanReaper.java
+ *
+ * Created: 10/15/2026 10:48 PM
+ *
+ */
+package com.skilld.kubernetes;
+
+import io.fabric8.kubernetes.api.model.Job;
+import io.fabric8.kubernetes.api.model.JobCondition;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Deletes the jobs left behind by executions that never cleaned up, for instance because
+ * Rundeck was restarted while they were running. Jobs to clean up carry the
+ * {@link #EXECUTION_LABEL} label and the {@link #SERVER_LABEL} label of the server that created
+ * them; only the jobs of the servers of this process are listed, so the jobs of other Rundeck
+ * servers sharing the namespace are never reaped. A job is reaped once its execution is not
+ * tracked by this process and it has been finished, or running without its execution, for longer
+ * than the grace period. Jobs created for re-attach are given the longer re-attach grace period,
+ * for their execution to re-attach to them after a restart.
+ */
+public class OrphanReaper {
+	static Logger logger = Logger.getLogger(OrphanReaper.class);
+
+	public static final String EXECUTION_LABEL = "rundeck-execution";
+	public static final String SERVER_LABEL = "rundeck-server";
+	// the server id of a Rundeck server not running in cluster mode
+	public static final String DEFAULT_SERVER_ID = "standalone";
+	public static final long DEFAULT_INTERVAL = TimeUnit.MINUTES.toMillis(5);
+	public static final long DEFAULT_GRACE_PERIOD = TimeUnit.MINUTES.toMillis(5);
+	public static final long DEFAULT_REATTACH_GRACE_PERIOD = TimeUnit.HOURS.toMillis(1);
+	static final int BATCH_SIZE = 20;
+	static final long BATCH_INTERVAL = 1000;
+
+	private static final OrphanReaper instance = new OrphanReaper(ClientCache.getInstance(), DEFAULT_INTERVAL, DEFAULT_GRACE_PERIOD, DEFAULT_REATTACH_GRACE_PERIOD);
+
+	private final ClientCache clientCache;
+	private final long interval;
+	private final long gracePeriod;
+	private final long reattachGracePeriod;
+	private final Map<String, Integer> activeExecutions = new HashMap<String, Integer>();
+	private final Map<Target, String> targets = new HashMap<Target, String>();
+	private ScheduledExecutorService executor = null;
+
+	public OrphanReaper(ClientCache _clientCache, long _interval, long _gracePeriod, long _reattachGracePeriod) {
+		clientCache = _clientCache;
+		interval = _interval;
+		gracePeriod = _gracePeriod;
+		reattachGracePeriod = _reattachGracePeriod;
+	}
+
+	public static OrphanReaper getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Mark an execution as active and make sure its namespace is reaped.
+	 * @param masterUrl The URL of the kubernetes master, null for the local cluster.
+	 * @param oauthToken The token to use, null for the local token.
+	 * @param trustCerts Whether to trust the server certificate, null for the client default.
+	 * @param namespace The namespace of the jobs.
+	 * @param serverId The id of the Rundeck server, the value of the {@link #SERVER_LABEL} label.
+	 * @param execid The Rundeck execution id, the value of the {@link #EXECUTION_LABEL} label.
+	 * @return The tracking of the execution, to close once the execution is done.
+	 */
+	public synchronized Tracking track(String masterUrl, String oauthToken, Boolean trustCerts, String namespace, String serverId, String execid) {
+		// keep the latest token, older ones may have been rotated
+		targets.put(new Target(masterUrl, trustCerts, namespace, serverId), oauthToken);
+		activeExecutions.merge(execid, 1, Integer::sum);
+		scheduleReaping();
+		return new Tracking(execid);
+	}
+
+	/**
+	 * Delete the orphaned jobs of every known namespace.
+	 * @return The number of jobs deleted.
+	 */
+	int reap() throws InterruptedException {
+		Map<Target, String> current;
+		synchronized (this) {
+			current = new HashMap<Target, String>(targets);
+		}
+		int count = 0;
+		for (Map.Entry<Target, String> target : current.entrySet()) {
+			try (ClientCache.Lease lease = clientCache.acquire(target.getKey().masterUrl, target.getValue(), target.getKey().trustCerts)) {
+				count += reap(lease.getClient(), target.getKey().namespace, target.getKey().serverId);
+			} catch (KubernetesClientException | IOException e) {
+				logger.warn("Unable to reap orphaned jobs in namespace " + target.getKey().namespace, e);
+			}
+		}
+		return count;
+	}
+
+	private int reap(KubernetesClient client, String namespace, String serverId) throws IOException, InterruptedException {
+		long now = System.currentTimeMillis();
+		List<String> orphans = new ArrayList<String>();
+		for (Job job : client.extensions().jobs().inNamespace(namespace).withLabel(SERVER_LABEL, serverId).withLabel(EXECUTION_LABEL).list().getItems()) {
+			if (isOrphan(job, now)) {
+				orphans.add(job.getMetadata().getName());
+			}
+		}
+		// delete in small batches to keep the load on the API server low
+		for (int from = 0; from < orphans.size(); from += BATCH_SIZE) {
+			if (from > 0) {
+				Thread.sleep(BATCH_INTERVAL);
+			}
+			List<String> batch = orphans.subList(from, Math.min(orphans.size(), from + BATCH_SIZE));
+			JobCleaner.deleteCollection(client, namespace, batch);
+			Metrics.getInstance().counter(Metrics.JOB_REAPED,
+				Metrics.NAMESPACE_TAG, namespace, Metrics.CLUSTER_TAG, Metrics.cluster(client)).add(batch.size());
+			logger.info("Reaped orphaned jobs " + batch + " in namespace " + namespace);
+		}
+		return orphans.size();
+	}
+
+	private boolean isOrphan(Job job, long now) {
+		String execid = job.getMetadata().getLabels().get(EXECUTION_LABEL);
+		synchronized (this) {
+			if (activeExecutions.containsKey(execid)) {
+				return false;
+			}
+		}
+		Map<String, String> annotations = job.getMetadata().getAnnotations();
+		// the execution may be resumed after a restart and re-attach to it
+		boolean reattach = null != annotations && annotations.containsKey(com.skilld.kubernetes.Job.SPEC_HASH_ANNOTATION);
+		return now - orphanedAt(job) >= (reattach ? reattachGracePeriod : gracePeriod);
+	}
+
+	// the time of the terminal condition, or the creation time while the job is running
+	private static long orphanedAt(Job job) {
+		Long time = null;
+		if (null != job.getStatus() && null != job.getStatus().getConditions()) {
+			for (JobCondition condition : job.getStatus().getConditions()) {
+				if (("Complete".equals(condition.getType()) || "Failed".equals(condition.getType())) && "True".equals(condition.getStatus())) {
+					time = parseTime(condition.getLastTransitionTime());
+					break;
+				}
+			}
+		}
+		if (null == time) {
+			time = parseTime(job.getMetadata().getCreationTimestamp());
+		}
+		return null == time ? 0L : time;
+	}
+
+	private static Long parseTime(String time) {
+		if (null == time) {
+			return null;
+		}
+		try {
+			return Instant.parse(time).toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return null;
+		}
+	}
+
+	private synchronized void untrack(String execid) {
+		activeExecutions.computeIfPresent(execid, (key, count) -> count > 1 ? count - 1 : null);
+	}
+
+	private void scheduleReaping() {
+		if (null == executor) {
+			executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "kubernetes-orphan-reaper");
+				thread.setDaemon(true);
+				return thread;
+			});
+			executor.scheduleWithFixedDelay(() -> {
+				try {
+					reap();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (RuntimeException e) {
+					logger.error("Orphaned job reaping failed", e);
+				}
+			}, interval, interval, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/**
+	 * An active execution, whose jobs must not be reaped.
+	 */
+	public class Tracking implements AutoCloseable {
+		private final String execid;
+		private boolean closed = false;
+
+		private Tracking(String _execid) {
+			execid = _execid;
+		}
+
+		@Override
+		public synchronized void close() {
+			if (!closed) {
+				closed = true;
+				untrack(execid);
+			}
+		}
+	}
+
+	private static class Target {
+		private final String masterUrl;
+		private final Boolean trustCerts;
+		private final String namespace;
+		private final String serverId;
+
+		private Target(String _masterUrl, Boolean _trustCerts, String _namespace, String _serverId) {
+			masterUrl = _masterUrl;
+			trustCerts = _trustCerts;
+			namespace = _namespace;
+			serverId = _serverId;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Target)) {
+				return false;
+			}
+			Target other = (Target) o;
+			return Objects.equals(masterUrl, other.masterUrl)
+				&& Objects.equals(trustCerts, other.trustCerts)
+				&& Objects.equals(namespace, other.namespace)
+				&& Objects.equals(serverId, other.serverId);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(masterUrl, trustCerts, namespace, serverId);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * OutputData.java
+ *
+ * Created: 10/16/2026 12:07 AM
+ *
+ */
+package com.skilld.kubernetes;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Extracts the values a pod reports in its log with marked lines, either
+ * <code>RUNDECK:DATA key=value</code> or <code>RUNDECK:DATA {"key": "value", ...}</code>.
+ * The log is written to it as a stream: only the start of each line is kept until it is known
+ * not to be marked, so that a large log is never held in memory. A later value of a key
+ * replaces the earlier one.
+ */
+public class OutputData extends OutputStream {
+	static Logger logger = Logger.getLogger(OutputData.class);
+
+	public static final String MARKER = "RUNDECK:DATA ";
+	// the longest marked line, longer ones are ignored
+	static final int MAX_LINE = 64 * 1024;
+
+	private static final byte[] MARKER_BYTES = MARKER.getBytes(StandardCharsets.UTF_8);
+	private static final Pattern KEY = Pattern.compile("^[A-Za-z0-9_.-]+$");
+
+	private final Map<String, String> values = new LinkedHashMap<String, String>();
+	private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+	// the rest of the current line is ignored
+	private boolean skipping = false;
+
+	@Override
+	public synchronized void write(int b) {
+		if ('\n' == b) {
+			endLine();
+		} else if (!skipping) {
+			line.write(b);
+			int length = line.size();
+			if (length <= MARKER_BYTES.length && MARKER_BYTES[length - 1] != (byte) b) {
+				skip();
+			} else if (length > MAX_LINE) {
+				logger.warn("Ignoring a marked line longer than " + MAX_LINE + " bytes");
+				skip();
+			}
+		}
+	}
+
+	@Override
+	public synchronized void write(byte[] bytes, int offset, int length) {
+		for (int i = offset; i < offset + length; i++) {
+			write(bytes[i]);
+		}
+	}
+
+	/**
+	 * Handle the last line of the stream, even without its line feed.
+	 */
+	@Override
+	public synchronized void close() {
+		endLine();
+	}
+
+	/**
+	 * Extract the value of a whole line, outside of the stream.
+	 * @param text The line, without its line feed.
+	 */
+	public synchronized void scan(String text) {
+		if (text.startsWith(MARKER) && text.length() <= MAX_LINE) {
+			parse(text);
+		}
+	}
+
+	/**
+	 * @return The values extracted so far, by key, in the order they were first reported.
+	 */
+	public synchronized Map<String, String> getValues() {
+		return new LinkedHashMap<String, String>(values);
+	}
+
+	private void endLine() {
+		if (!skipping && line.size() >= MARKER_BYTES.length) {
+			parse(new String(line.toByteArray(), StandardCharsets.UTF_8));
+		}
+		line.reset();
+		skipping = false;
+	}
+
+	private void skip() {
+		line.reset();
+		skipping = true;
+	}
+
+	private void parse(String text) {
+		String data = text.substring(MARKER.length()).trim();
+		if (data.startsWith("{")) {
+			parseJson(data);
+			return;
+		}
+		int separator = data.indexOf('=');
+		if (separator < 0) {
+			logger.warn("Ignoring marked line without a value: " + text);
+			return;
+		}
+		put(data.substring(0, separator).trim(), data.substring(separator + 1).trim());
+	}
+
+	// the nested values are kept as JSON
+	private void parseJson(String data) {
+		JsonNode object;
+		try {
+			object = Serialization.jsonMapper().readTree(data);
+		} catch (IOException e) {
+			logger.warn("Ignoring marked line with invalid JSON: " + e.getMessage());
+			return;
+		}
+		if (!object.isObject()) {
+			logger.warn("Ignoring marked line which is not a JSON object");
+			return;
+		}
+		for (Iterator<Map.Entry<String, JsonNode>> fields = object.fields(); fields.hasNext(); ) {
+			Map.Entry<String, JsonNode> field = fields.next();
+			put(field.getKey(), field.getValue().isValueNode() ? field.getValue().asText() : field.getValue().toString());
+		}
+	}
+
+	private void put(String key, String value) {
+		if (!KEY.matcher(key).matches()) {
+			logger.warn("Ignoring invalid data key \"" + key + "\"");
+			return;
+		}
+		values.put(key, value);
+	}
+}
@@ -0,0 +1,170 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * PodAnalyzer.java
+ *
+ * Created: 10/16/2026 12:21 AM
+ *
+ */
+package com.skilld.kubernetes;
+
+import io.fabric8.kubernetes.api.model.ContainerStatus;
+import io.fabric8.kubernetes.api.model.Event;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodCondition;
+import io.fabric8.kubernetes.client.KubernetesClient;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Recognizes the pods which are stuck in practice although Kubernetes keeps retrying them: the
+ * ones no node can take, and the ones whose image can't be pulled. Their job only fails once its
+ * active deadline expires, or never without one. A pod waiting for the cluster autoscaler to add
+ * a node for it isn't stuck, although it is unschedulable until the node is ready.
+ */
+public class PodAnalyzer {
+	public static final long DEFAULT_GRACE_PERIOD = 120000;
+
+	static final Set<String> IMAGE_PULL_REASONS = new HashSet<String>(Arrays.asList("ErrImagePull", "ImagePullBackOff", "InvalidImageName", "ErrImageNeverPull"));
+	// the events telling why, as reported by the scheduler and the kubelet
+	static final Set<String> EVENT_REASONS = new HashSet<String>(Arrays.asList("FailedScheduling", "Failed", "BackOff", "InspectFailed", "ErrImageNeverPull"));
+	// the events of the cluster autoscaler about a pod it is, or isn't, adding a node for
+	static final String SCALE_UP_TRIGGERED = "TriggeredScaleUp";
+	static final Set<String> SCALE_UP_REASONS = new HashSet<String>(Arrays.asList(SCALE_UP_TRIGGERED, "NotTriggerScaleUp", "FailedScaleUp"));
+
+	public enum Problem {
+		UNSCHEDULABLE("is unschedulable"),
+		IMAGE_PULL("can't pull its image");
+
+		private final String description;
+
+		Problem(String _description) {
+			description = _description;
+		}
+
+		public String getDescription() {
+			return description;
+		}
+	}
+
+	/**
+	 * What keeps a pod from running.
+	 */
+	public static class Diagnosis {
+		private final Problem problem;
+		private final String reason;
+		private final String message;
+
+		private Diagnosis(Problem _problem, String _reason, String _message) {
+			problem = _problem;
+			reason = _reason;
+			message = _message;
+		}
+
+		public Problem getProblem() {
+			return problem;
+		}
+
+		public String getReason() {
+			return reason;
+		}
+
+		public String getMessage() {
+			return message;
+		}
+	}
+
+	/**
+	 * @param pod The pod.
+	 * @return What keeps the pending pod from running, null when nothing does or it is deleted.
+	 */
+	public static Diagnosis diagnose(Pod pod) {
+		if (null == pod.getStatus() || !"Pending".equals(pod.getStatus().getPhase()) || null != pod.getMetadata().getDeletionTimestamp()) {
+			return null;
+		}
+		List<ContainerStatus> containerStatuses = new ArrayList<ContainerStatus>();
+		if (null != pod.getStatus().getInitContainerStatuses()) {
+			containerStatuses.addAll(pod.getStatus().getInitContainerStatuses());
+		}
+		if (null != pod.getStatus().getContainerStatuses()) {
+			containerStatuses.addAll(pod.getStatus().getContainerStatuses());
+		}
+		for (ContainerStatus containerStatus : containerStatuses) {
+			if (null != containerStatus.getState() && null != containerStatus.getState().getWaiting()
+				&& IMAGE_PULL_REASONS.contains(containerStatus.getState().getWaiting().getReason())) {
+				return new Diagnosis(Problem.IMAGE_PULL, containerStatus.getState().getWaiting().getReason(), containerStatus.getState().getWaiting().getMessage());
+			}
+		}
+		if (null != pod.getStatus().getConditions()) {
+			for (PodCondition condition : pod.getStatus().getConditions()) {
+				if ("PodScheduled".equals(condition.getType()) && "False".equals(condition.getStatus()) && "Unschedulable".equals(condition.getReason())) {
+					return new Diagnosis(Problem.UNSCHEDULABLE, condition.getReason(), condition.getMessage());
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param client The client of the cluster.
+	 * @param namespace The namespace of the pod.
+	 * @param podName The name of the pod.
+	 * @return The events of the pod.
+	 */
+	public static List<Event> events(KubernetesClient client, String namespace, String podName) {
+		return client.events().inNamespace(namespace).withField("involvedObject.name", podName).list().getItems();
+	}
+
+	/**
+	 * @param events The events of the pod.
+	 * @return The message of the last warning event explaining why the pod is stuck, null if there is none.
+	 */
+	public static String lastEventMessage(List<Event> events) {
+		Event last = null;
+		for (Event event : events) {
+			if ("Warning".equals(event.getType()) && EVENT_REASONS.contains(event.getReason()) && isLater(event, last)) {
+				last = event;
+			}
+		}
+		return null != last ? last.getMessage() : null;
+	}
+
+	/**
+	 * @param events The events of the pod.
+	 * @return Whether the cluster autoscaler last reported adding a node for the pod.
+	 */
+	public static boolean isScaleUpPending(List<Event> events) {
+		Event last = null;
+		for (Event event : events) {
+			if (SCALE_UP_REASONS.contains(event.getReason()) && isLater(event, last)) {
+				last = event;
+			}
+		}
+		return null != last && SCALE_UP_TRIGGERED.equals(last.getReason());
+	}
+
+	// the timestamps are RFC 3339 UTC, they sort as strings
+	private static boolean isLater(Event event, Event last) {
+		return null == last || timestamp(event).compareTo(timestamp(last)) >= 0;
+	}
+
+	private static String timestamp(Event event) {
+		return null != event.getLastTimestamp() ? event.getLastTimestamp() : "";
+	}
+}
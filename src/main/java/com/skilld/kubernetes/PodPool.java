@@ -0,0 +1,516 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * PodPool.java
+ *
+ * Created: 10/15/2026 11:05 PM
+ *
+ */
+package com.skilld.kubernetes;
+
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.fabric8.kubernetes.api.model.PodSpec;
+import io.fabric8.kubernetes.api.model.PodSpecBuilder;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.dsl.ExecListener;
+import io.fabric8.kubernetes.client.dsl.ExecWatch;
+import okhttp3.Response;
+import org.apache.log4j.Logger;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * Pools of idle pods, ready to run short commands through exec instead of creating a job.
+ * There is one pool per (client, namespace, profile), the profile standing for the pod spec.
+ * Pooled pods run an idle shell loop and are used once: after a command they are deleted and
+ * the pool is refilled in the background. A pool keeps at least its minimum of idle pods,
+ * grows up to its maximum on misses and shrinks back once pods stay idle for the idle TTL.
+ * Pooled pods have an active deadline, so that the cluster removes them if their pool is lost:
+ * a pool is dropped once its client is invalidated or its refreshes keep failing, the next steps
+ * then start a new one. A pool whose pods are all ready is refreshed less and less often, down to every
+ * {@link #MAX_REFRESH_INTERVAL}, until it is used again.
+ */
+public class PodPool {
+	static Logger logger = Logger.getLogger(PodPool.class);
+
+	public static final String POOL_LABEL = "rundeck-pod-pool";
+	public static final String OWNER_LABEL = "rundeck-pod-pool-owner";
+	public static final long DEFAULT_IDLE_TTL = TimeUnit.MINUTES.toMillis(5);
+	// written to the error stream once the command exits, followed by its exit code
+	public static final String EXIT_CODE_MARKER = "__rundeck_exit_code__=";
+	static final long REFRESH_INTERVAL = 1000;
+	static final long MAX_REFRESH_INTERVAL = 30000;
+	static final long POOL_EXPIRY = TimeUnit.HOURS.toMillis(1);
+	// consecutive refresh failures after which the API server is considered gone
+	static final int MAX_REFRESH_FAILURES = 5;
+	static final long MAX_POD_LIFETIME = TimeUnit.HOURS.toMillis(1);
+	// pods closer than this to their deadline are not handed out anymore
+	static final long MIN_REMAINING_LIFETIME = TimeUnit.MINUTES.toMillis(10);
+
+	private static final List<String> IDLE_COMMAND = Arrays.asList("sh", "-c", "trap 'exit 0' TERM; while true; do sleep 1; done");
+	private static final String EXEC_SCRIPT = "\"$@\"; printf '%s%d\\n' '" + EXIT_CODE_MARKER + "' \"$?\" >&2";
+
+	private static final PodPool instance = new PodPool(REFRESH_INTERVAL);
+
+	private final long refreshInterval;
+	private final Map<PoolKey, Pool> pools = new HashMap<PoolKey, Pool>();
+	private ScheduledExecutorService executor = null;
+
+	public PodPool(long _refreshInterval) {
+		refreshInterval = _refreshInterval;
+	}
+
+	public static PodPool getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Get the pool of a profile, starting it if needed. The sizes of an existing pool are
+	 * updated to the given ones.
+	 * @param lease A lease on the client to use, shared by the pool for as long as it runs.
+	 * @param namespace The namespace of the pods.
+	 * @param profile The identifier of the pod spec, a valid label value.
+	 * @param spec The pod spec; its first container runs the commands.
+	 * @param min The number of idle pods to keep.
+	 * @param max The maximum number of pods, idle or busy.
+	 * @param idleTtl How long pods above the minimum stay idle before being deleted, in milliseconds.
+	 * @return The pool.
+	 */
+	public synchronized Pool get(ClientCache.Lease lease, String namespace, String profile, PodSpec spec, int min, int max, long idleTtl) {
+		PoolKey key = new PoolKey(lease.getClient(), namespace, profile);
+		Pool pool = pools.get(key);
+		if (null == pool) {
+			if (null == executor) {
+				executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+					Thread thread = new Thread(runnable, "kubernetes-pod-pool");
+					thread.setDaemon(true);
+					return thread;
+				});
+			}
+			pool = new Pool(key, lease.share(), spec);
+			pools.put(key, pool);
+			pool.scheduleRefresh(0);
+		}
+		pool.resize(min, max, idleTtl);
+		return pool;
+	}
+
+	/**
+	 * @return The number of running pools.
+	 */
+	public synchronized int size() {
+		return pools.size();
+	}
+
+	private synchronized void remove(Pool pool) {
+		pools.remove(pool.key, pool);
+	}
+
+	/**
+	 * The idle pods of a profile.
+	 */
+	public class Pool {
+		private final PoolKey key;
+		private final ClientCache.Lease lease;
+		private final KubernetesClient client;
+		private final PodSpec spec;
+		// pods of other pools, possibly from other processes, are never adopted
+		private final String owner = UUID.randomUUID().toString().substring(0, 8);
+		// the pods not handed out yet, by name
+		private final Map<String, PooledPod> pods = new HashMap<String, PooledPod>();
+		private int min = 0;
+		private int max = 0;
+		private long idleTtl = DEFAULT_IDLE_TTL;
+		private int target = 0;
+		private int busy = 0;
+		private long lastUsed = System.currentTimeMillis();
+		// the delay to the next refresh, longer while the pool stays settled
+		private long interval = refreshInterval;
+		private ScheduledFuture<?> refresh = null;
+		// the consecutive failed refreshes, only used by the refresh
+		private int failures = 0;
+		private boolean closed = false;
+
+		private Pool(PoolKey _key, ClientCache.Lease _lease, PodSpec _spec) {
+			key = _key;
+			lease = _lease;
+			client = lease.getClient();
+			spec = _spec;
+		}
+
+		/**
+		 * Take an idle pod out of the pool.
+		 * @return The name of the pod, null if no pod is ready.
+		 */
+		public synchronized String acquire() {
+			lastUsed = System.currentTimeMillis();
+			// whether it hits or misses, the pool has pods to create
+			wake();
+			Iterator<PooledPod> iterator = pods.values().iterator();
+			while (iterator.hasNext()) {
+				PooledPod pod = iterator.next();
+				if (pod.ready && lastUsed - pod.created < MAX_POD_LIFETIME - MIN_REMAINING_LIFETIME) {
+					iterator.remove();
+					busy++;
+					counter(Metrics.POD_POOL_HITS).increment();
+					return pod.name;
+				}
+			}
+			// make room for one more idle pod next time
+			target = Math.min(target + 1, max);
+			counter(Metrics.POD_POOL_MISSES).increment();
+			return null;
+		}
+
+		/**
+		 * Run a command in an acquired pod, then delete the pod. The pod image must provide
+		 * <code>sh</code>, which reports the exit code of the command. No thread waits for the
+		 * command, the result completes once its stream closes.
+		 * @param podName The name of the pod, as given by {@link #acquire()}.
+		 * @param command The command and its arguments.
+		 * @param timeout The maximum time to wait for the command, in milliseconds, 0 for no limit.
+		 * @param output The consumer of the standard output lines.
+		 * @param error The consumer of the standard error lines.
+		 * @return The exit code of the command, null if it timed out. It fails with an {@link IOException}
+		 * when the command could not be run or its exit code is unknown; completing it early closes the stream.
+		 */
+		public CompletableFuture<Integer> exec(String podName, List<String> command, long timeout, Consumer<String> output, Consumer<String> error) {
+			CompletableFuture<Integer> result = new CompletableFuture<Integer>();
+			List<String> wrapped = new ArrayList<String>();
+			try {
+				// the client appends the command to the query string as is
+				for (String argument : Arrays.asList("sh", "-c", EXEC_SCRIPT, "sh")) {
+					wrapped.add(URLEncoder.encode(argument, StandardCharsets.UTF_8.name()));
+				}
+				for (String argument : command) {
+					wrapped.add(URLEncoder.encode(argument, StandardCharsets.UTF_8.name()));
+				}
+			} catch (IOException e) {
+				release(podName);
+				result.completeExceptionally(e);
+				return result;
+			}
+			AtomicReference<Integer> exitCode = new AtomicReference<Integer>();
+			LineOutputStream out = new LineOutputStream(output);
+			LineOutputStream err = new LineOutputStream(line -> {
+				int marker = line.lastIndexOf(EXIT_CODE_MARKER);
+				if (marker < 0) {
+					error.accept(line);
+					return;
+				}
+				// the marker follows the last line of the command when it has no line break
+				if (marker > 0) {
+					error.accept(line.substring(0, marker));
+				}
+				try {
+					exitCode.set(Integer.valueOf(line.substring(marker + EXIT_CODE_MARKER.length()).trim()));
+				} catch (NumberFormatException e) {
+					error.accept(line);
+				}
+			});
+			ExecWatch watch;
+			try {
+				watch = client.pods().inNamespace(key.namespace).withName(podName)
+					.writingOutput(out)
+					.writingError(err)
+					.usingListener(new ExecListener() {
+						@Override
+						public void onOpen(Response response) {
+						}
+
+						@Override
+						public void onFailure(Throwable t, Response response) {
+							result.completeExceptionally(new IOException("Unable to run the command in pod " + podName, t));
+						}
+
+						@Override
+						public void onClose(int code, String reason) {
+							out.close();
+							err.close();
+							if (null == exitCode.get()) {
+								result.completeExceptionally(new IOException("The command run in pod " + podName + " did not report its exit code"));
+							} else {
+								result.complete(exitCode.get());
+							}
+						}
+					})
+					.exec(wrapped.toArray(new String[wrapped.size()]));
+			} catch (KubernetesClientException e) {
+				release(podName);
+				result.completeExceptionally(e);
+				return result;
+			}
+			ScheduledFuture<?> timer = timeout > 0 ? executor.schedule(() -> result.complete(null), timeout, TimeUnit.MILLISECONDS) : null;
+			result.whenComplete((code, e) -> {
+				if (null != timer) {
+					timer.cancel(false);
+				}
+				watch.close();
+				release(podName);
+			});
+			return result;
+		}
+
+		private synchronized void resize(int _min, int _max, long _idleTtl) {
+			max = Math.max(0, _max);
+			min = Math.max(0, Math.min(_min, max));
+			idleTtl = _idleTtl;
+			target = Math.max(min, Math.min(target, max));
+		}
+
+		private void release(String podName) {
+			synchronized (this) {
+				busy--;
+				wake();
+			}
+			executor.execute(() -> delete(podName));
+		}
+
+		private synchronized void scheduleRefresh(long delay) {
+			if (!closed) {
+				refresh = executor.schedule(this::refresh, delay, TimeUnit.MILLISECONDS);
+			}
+		}
+
+		// refreshes right away a pool that backed off, guarded by this
+		private void wake() {
+			if (interval > refreshInterval) {
+				interval = refreshInterval;
+				if (null != refresh && refresh.cancel(false)) {
+					scheduleRefresh(0);
+				}
+			}
+		}
+
+		private void refresh() {
+			boolean settled = false;
+			try {
+				if (!lease.isValid()) {
+					close("its client was invalidated");
+					return;
+				}
+				List<Pod> listed = client.pods().inNamespace(key.namespace)
+					.withLabel(POOL_LABEL, key.profile)
+					.withLabel(OWNER_LABEL, owner)
+					.list().getItems();
+				List<String> deletions = new ArrayList<String>();
+				int creations;
+				boolean expired;
+				synchronized (this) {
+					long now = System.currentTimeMillis();
+					Set<String> names = new HashSet<String>();
+					for (Pod pod : listed) {
+						String name = pod.getMetadata().getName();
+						names.add(name);
+						PooledPod pooled = pods.get(name);
+						if (null == pooled) {
+							continue;
+						}
+						String phase = null == pod.getStatus() ? null : pod.getStatus().getPhase();
+						if ("Succeeded".equals(phase) || "Failed".equals(phase) || null != pod.getMetadata().getDeletionTimestamp()) {
+							pods.remove(name);
+							deletions.add(name);
+						} else if ("Running".equals(phase) && !pooled.ready) {
+							pooled.ready = true;
+							pooled.idleSince = now;
+						}
+					}
+					// pods deleted behind the pool's back
+					pods.keySet().retainAll(names);
+					expired = now - lastUsed >= POOL_EXPIRY && 0 == busy;
+					Iterator<PooledPod> iterator = pods.values().iterator();
+					while (iterator.hasNext()) {
+						PooledPod pod = iterator.next();
+						boolean old = now - pod.created >= MAX_POD_LIFETIME - MIN_REMAINING_LIFETIME;
+						boolean surplus = pod.ready && pods.size() > min && now - pod.idleSince >= idleTtl;
+						if (expired || old || surplus) {
+							iterator.remove();
+							deletions.add(pod.name);
+							if (surplus) {
+								target = Math.max(min, target - 1);
+							}
+						}
+					}
+					creations = expired ? 0 : Math.min(target - pods.size(), max - busy - pods.size());
+					settled = deletions.isEmpty() && creations <= 0 && pods.values().stream().allMatch(pod -> pod.ready);
+				}
+				for (String name : deletions) {
+					delete(name);
+				}
+				for (int i = 0; i < creations; i++) {
+					create();
+				}
+				failures = 0;
+				if (expired) {
+					close("it expired");
+				}
+			} catch (KubernetesClientException e) {
+				logger.warn("Unable to refresh the pod pool " + key, e);
+				if (++failures >= MAX_REFRESH_FAILURES) {
+					close("its refresh failed " + failures + " times");
+				}
+			} catch (RuntimeException e) {
+				logger.error("Pod pool refresh failed " + key, e);
+			} finally {
+				synchronized (this) {
+					interval = settled ? Math.min(2 * interval, MAX_REFRESH_INTERVAL) : refreshInterval;
+					scheduleRefresh(interval);
+				}
+			}
+		}
+
+		private void create() {
+			String name = "rundeck-pool-" + key.profile.substring(0, Math.min(10, key.profile.length())).toLowerCase() + "-" + UUID.randomUUID().toString().substring(0, 8);
+			PodSpec podSpec = new PodSpecBuilder(spec).build();
+			podSpec.setRestartPolicy("Never");
+			podSpec.setActiveDeadlineSeconds(TimeUnit.MILLISECONDS.toSeconds(MAX_POD_LIFETIME));
+			Container container = podSpec.getContainers().get(0);
+			container.setName("runner");
+			container.setCommand(new ArrayList<String>(IDLE_COMMAND));
+			container.setArgs(new ArrayList<String>());
+			Pod pod = new PodBuilder()
+				.withNewMetadata()
+					.withName(name)
+					.addToLabels(POOL_LABEL, key.profile)
+					.addToLabels(OWNER_LABEL, owner)
+				.endMetadata()
+				.withSpec(podSpec)
+				.build();
+			client.pods().inNamespace(key.namespace).create(pod);
+			synchronized (this) {
+				pods.put(name, new PooledPod(name));
+			}
+		}
+
+		private void delete(String podName) {
+			try {
+				client.pods().inNamespace(key.namespace).withName(podName).delete();
+			} catch (KubernetesClientException e) {
+				logger.warn("Unable to delete pooled pod " + podName + " in namespace " + key.namespace, e);
+			}
+		}
+
+		private void close(String reason) {
+			remove(this);
+			synchronized (this) {
+				closed = true;
+			}
+			lease.close();
+			logger.info("Pod pool " + key + " dropped, " + reason);
+		}
+
+		private Metrics.Counter counter(String name) {
+			return Metrics.getInstance().counter(name, Metrics.NAMESPACE_TAG, key.namespace, Metrics.CLUSTER_TAG, Metrics.cluster(client));
+		}
+	}
+
+	private static class PooledPod {
+		private final String name;
+		private final long created = System.currentTimeMillis();
+		private boolean ready = false;
+		private long idleSince = 0;
+
+		private PooledPod(String _name) {
+			name = _name;
+		}
+	}
+
+	// splits a stream into lines, handing each of them over as soon as it ends
+	private static class LineOutputStream extends OutputStream {
+		private final Consumer<String> consumer;
+		private final ByteArrayOutputStream line = new ByteArrayOutputStream();
+
+		private LineOutputStream(Consumer<String> _consumer) {
+			consumer = _consumer;
+		}
+
+		@Override
+		public synchronized void write(int b) {
+			if ('\n' == b) {
+				emit();
+			} else {
+				line.write(b);
+			}
+		}
+
+		@Override
+		public synchronized void close() {
+			if (line.size() > 0) {
+				emit();
+			}
+		}
+
+		private void emit() {
+			String text = new String(line.toByteArray(), StandardCharsets.UTF_8);
+			line.reset();
+			consumer.accept(text.endsWith("\r") ? text.substring(0, text.length() - 1) : text);
+		}
+	}
+
+	private static class PoolKey {
+		private final KubernetesClient client;
+		private final String namespace;
+		private final String profile;
+
+		private PoolKey(KubernetesClient _client, String _namespace, String _profile) {
+			client = _client;
+			namespace = _namespace;
+			profile = _profile;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof PoolKey)) {
+				return false;
+			}
+			PoolKey other = (PoolKey) o;
+			return client == other.client && Objects.equals(namespace, other.namespace) && Objects.equals(profile, other.profile);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * System.identityHashCode(client) + Objects.hashCode(namespace)) + Objects.hashCode(profile);
+		}
+
+		@Override
+		public String toString() {
+			return namespace + "/" + profile;
+		}
+	}
+}
@@ -0,0 +1,194 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * FanOutExecution.java
+ *
+ * Created: 10/15/2026 11:00 PM
+ *
+ */
+package com.skilld.rundeck.plugin.step.kubernetes;
+
+import com.dtolabs.rundeck.core.execution.workflow.steps.FailureReason;
+import com.dtolabs.rundeck.core.execution.workflow.steps.StepException;
+import com.dtolabs.rundeck.plugins.PluginLogger;
+import com.dtolabs.rundeck.plugins.step.PluginStepContext;
+import com.skilld.kubernetes.OptionTemplate;
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.skilld.rundeck.plugin.step.kubernetes.KubernetesStep.*;
+
+/**
+ * A run of {@link KubernetesStep} launching one job for each value of its fan-out list, at most
+ * a given number at a time. Every job is an {@link KubernetesStepExecution} of its own, sharing
+ * the client and the namespace watches of the others; the step fails if any of them fails.
+ * Only the calling thread waits, each finished job starts the next one.
+ */
+class FanOutExecution {
+	static Logger logger = Logger.getLogger(FanOutExecution.class);
+
+	// the options holding the value and the index of the job in the fan-out
+	static final String ITEM_OPTION = "fanOutItem";
+	static final String INDEX_OPTION = "fanOutIndex";
+	static final String INDEX_LABEL = "rundeck-fan-out-index";
+	static final int MAX_ITEMS = 1000;
+	private static final String RANGE_SEPARATOR = "..";
+
+	private final PluginStepContext context;
+	private final Map<String, Object> configuration;
+	private final PluginLogger pluginLogger;
+	private final List<KubernetesStepExecution> executions = new ArrayList<>();
+	// completed with the failure of each job, null when it succeeded
+	private final List<CompletableFuture<StepException>> results = new ArrayList<>();
+	private final AtomicInteger next = new AtomicInteger();
+	private volatile boolean cancelled = false;
+
+	FanOutExecution(PluginStepContext _context, Map<String, Object> _configuration) {
+		context = _context;
+		configuration = _configuration;
+		pluginLogger = context.getLogger();
+	}
+
+	void execute() throws StepException {
+		String fanOut = OptionTemplate.compile(configuration.get(FAN_OUT).toString()).render(context.getDataContextObject().get("option"));
+		List<String> items = parseItems(fanOut);
+		int maxInFlight = null != configuration.get(FAN_OUT_MAX_IN_FLIGHT) ? Integer.valueOf(configuration.get(FAN_OUT_MAX_IN_FLIGHT).toString()) : DEFAULT_FAN_OUT_MAX_IN_FLIGHT;
+		if (maxInFlight < 1) {
+			throw new StepException("Invalid " + FAN_OUT_MAX_IN_FLIGHT + " " + maxInFlight, Reason.UnexepectedFailure);
+		}
+
+		for (int i = 0; i < items.size(); i++) {
+			executions.add(new KubernetesStepExecution(context, configuration, i, items.get(i)));
+			results.add(new CompletableFuture<>());
+		}
+		for (int i = 0; i < Math.min(maxInFlight, items.size()); i++) {
+			launchNext();
+		}
+
+		try {
+			List<String> failures = new ArrayList<>();
+			FailureReason reason = null;
+			for (int i = 0; i < results.size(); i++) {
+				StepException failure = results.get(i).get();
+				if (null != failure) {
+					String jobName = null != executions.get(i).getJobName() ? executions.get(i).getJobName() : items.get(i);
+					failures.add(jobName + ": " + failure.getMessage());
+					pluginLogger.log(0, jobName + " failed: " + failure.getMessage());
+					// the reason of the step is the one shared by all the failures, if any
+					reason = null == reason || reason == failure.getFailureReason() ? failure.getFailureReason() : Reason.UnexepectedFailure;
+				}
+			}
+			pluginLogger.log(2, (items.size() - failures.size()) + " of " + items.size() + " jobs succeeded");
+			KubernetesStepExecution.publishData(context, joinData());
+			if (!failures.isEmpty()) {
+				throw new StepException(failures.size() + " of " + items.size() + " jobs failed: " + String.join("; ", failures), reason);
+			}
+		} catch (InterruptedException | ExecutionException e) {
+			// the running executions delete their job, the others never start
+			cancelled = true;
+			for (KubernetesStepExecution execution : executions) {
+				execution.cancel();
+			}
+			logger.error(e.getMessage(), e);
+			throw new StepException(e.getMessage(), Reason.InterruptionFailure);
+		}
+	}
+
+	// starts the next job, which starts the one after it when done: no thread waits on the jobs
+	private void launchNext() {
+		int i = next.getAndIncrement();
+		if (cancelled || i >= executions.size()) {
+			return;
+		}
+		executions.get(i).start().whenComplete((v, e) -> {
+			results.get(i).complete(null == e ? null : KubernetesStepExecution.failure(e));
+			launchNext();
+		});
+	}
+
+	// the values of each key reported by the jobs, in the order of the jobs and joined like a fan-out list
+	private Map<String, String> joinData() {
+		Map<String, List<String>> values = new LinkedHashMap<>();
+		for (KubernetesStepExecution execution : executions) {
+			for (Map.Entry<String, String> entry : execution.getData().entrySet()) {
+				values.computeIfAbsent(entry.getKey(), key -> new ArrayList<>()).add(entry.getValue());
+			}
+		}
+		Map<String, String> data = new LinkedHashMap<>();
+		values.forEach((key, list) -> data.put(key, String.join(",", list)));
+		return data;
+	}
+
+	/**
+	 * Split a fan-out list on commas and whitespace. A single <code>start..end</code> value is a
+	 * range of integers, both ends included.
+	 * @param fanOut The fan-out list.
+	 * @return The values of the list.
+	 * @throws StepException Thrown when the list is empty, holds more than {@link #MAX_ITEMS} values or an invalid range.
+	 */
+	static List<String> parseItems(String fanOut) throws StepException {
+		List<String> items = new ArrayList<>();
+		int start = -1;
+		for (int i = 0; i <= fanOut.length(); i++) {
+			boolean separator = i == fanOut.length() || ',' == fanOut.charAt(i) || Character.isWhitespace(fanOut.charAt(i));
+			if (!separator && start < 0) {
+				start = i;
+			} else if (separator && start >= 0) {
+				items.add(fanOut.substring(start, i));
+				start = -1;
+			}
+		}
+		if (1 == items.size() && items.get(0).indexOf(RANGE_SEPARATOR) > 0) {
+			items = parseRange(items.get(0));
+		}
+		if (items.isEmpty()) {
+			throw new StepException("The fan-out list \"" + fanOut + "\" is empty", Reason.UnexepectedFailure);
+		}
+		if (items.size() > MAX_ITEMS) {
+			throw new StepException("The fan-out list holds " + items.size() + " values, more than " + MAX_ITEMS, Reason.UnexepectedFailure);
+		}
+		return items;
+	}
+
+	private static List<String> parseRange(String range) throws StepException {
+		int separator = range.indexOf(RANGE_SEPARATOR);
+		long first;
+		long last;
+		try {
+			first = Long.parseLong(range.substring(0, separator));
+			last = Long.parseLong(range.substring(separator + RANGE_SEPARATOR.length()));
+		} catch (NumberFormatException e) {
+			throw new StepException("Invalid fan-out range \"" + range + "\"", Reason.UnexepectedFailure);
+		}
+		if (last < first) {
+			throw new StepException("Invalid fan-out range \"" + range + "\", its end is before its start", Reason.UnexepectedFailure);
+		}
+		if (last - first >= MAX_ITEMS) {
+			throw new StepException("The fan-out range \"" + range + "\" holds more than " + MAX_ITEMS + " values", Reason.UnexepectedFailure);
+		}
+		List<String> items = new ArrayList<>();
+		for (long value = first; value <= last; value++) {
+			items.add(String.valueOf(value));
+		}
+		return items;
+	}
+}
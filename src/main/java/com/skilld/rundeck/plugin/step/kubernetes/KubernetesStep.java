@@ -28,33 +28,24 @@ import com.dtolabs.rundeck.core.plugins.Plugin;
 import com.dtolabs.rundeck.core.plugins.configuration.Describable;
 import com.dtolabs.rundeck.core.plugins.configuration.Description;
 import com.dtolabs.rundeck.core.plugins.configuration.PropertyUtil;
-import com.dtolabs.rundeck.plugins.PluginLogger;
 import com.dtolabs.rundeck.plugins.descriptions.PluginDescription;
 import com.dtolabs.rundeck.plugins.step.PluginStepContext;
 import com.dtolabs.rundeck.plugins.step.StepPlugin;
 import com.dtolabs.rundeck.plugins.util.DescriptionBuilder;
 import com.google.common.annotations.VisibleForTesting;
-import com.skilld.kubernetes.JobConfiguration;
-import io.fabric8.kubernetes.api.model.Job;
-import io.fabric8.kubernetes.api.model.Pod;
-import io.fabric8.kubernetes.api.model.Quantity;
-import io.fabric8.kubernetes.client.Config;
-import io.fabric8.kubernetes.client.ConfigBuilder;
-import io.fabric8.kubernetes.client.DefaultKubernetesClient;
-import io.fabric8.kubernetes.client.KubernetesClient;
-import io.fabric8.kubernetes.client.KubernetesClientException;
-import io.fabric8.kubernetes.client.Watch;
-import io.fabric8.kubernetes.client.Watcher;
+import com.skilld.kubernetes.AdmissionQueue;
+import com.skilld.kubernetes.LogCapture;
+import com.skilld.kubernetes.PodAnalyzer;
+import com.skilld.kubernetes.PodPool;
 import org.apache.log4j.Logger;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
-import java.util.concurrent.CountDownLatch;
-import java.util.function.Predicate;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 /**
  * KubernetesExecutor allow to run kubernetes jobs from rundeck
@@ -64,7 +55,7 @@ import java.util.stream.Collectors;
 @PluginDescription(title = "Kubernetes Jobs Execution", description = "Run a job through kubernetes.")
 public class KubernetesStep implements StepPlugin, Describable {
 	static Logger logger = Logger.getLogger(KubernetesStep.class);
-	private Framework framework;
+	private final Framework framework;
 
 	public static final String STEP_NAME = "kubernetes-step";
 	public static final String KUBE_MASTER = "kubeMaster";
@@ -86,19 +77,46 @@ public class KubernetesStep implements StepPlugin, Describable {
 	public static final String RESOURCE_REQUESTS = "resourceRequests";
 	public static final String CLEAN_UP = "cleanUp";
 	public static final String LABELS = "labels";
+	public static final String FOLLOW_LOGS = "followLogs";
+	public static final String REATTACH = "reattach";
+	public static final String POD_FAILURE_GRACE = "podFailureGrace";
+	public static final String MAX_POD_FAILURES = "maxPodFailures";
+	public static final String LOG_CAPTURE = "logCapture";
+	public static final String LOG_CAPTURE_LIMIT = "logCaptureLimit";
+	public static final String FAN_OUT = "fanOut";
+	public static final String FAN_OUT_MAX_IN_FLIGHT = "fanOutMaxInFlight";
+	public static final String ADMISSION_RATE = "admissionRate";
+	public static final String ADMISSION_BURST = "admissionBurst";
 
-	private static final String LABELSEPARATOR = " ";
-	private static final String LABELKVSEPARATOR = "=";
+	public static final String IMAGE_PREWARM = "imagePrewarm";
+	public static final String POD_POOL = "podPool";
+	public static final String POD_POOL_MIN = "podPoolMin";
+	public static final String POD_POOL_MAX = "podPoolMax";
+	public static final String POD_POOL_IDLE_TTL = "podPoolIdleTtl";
 
-	private KubernetesClient client = null;
-	private com.skilld.kubernetes.Job job = null;
-	private	Watch jobWatch = null;
-	private	Watch podWatch = null;
+	static final int DEFAULT_FAN_OUT_MAX_IN_FLIGHT = 10;
+	static final int DEFAULT_POD_POOL_MIN = 1;
+	static final int DEFAULT_POD_POOL_MAX = 5;
+
+	static final String LABELSEPARATOR = " ";
+	static final String LABELKVSEPARATOR = "=";
+	private static final int LABELS_CACHE_SIZE = 256;
+
+	// the validated labels of the last label strings seen, most are the same from one run to the next
+	private static final Map<LabelsKey, Map<String, String>> labelsCache = new LinkedHashMap<LabelsKey, Map<String, String>>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<LabelsKey, Map<String, String>> eldest) {
+			return size() > LABELS_CACHE_SIZE;
+		}
+	};
 
 	public static enum Reason implements FailureReason {
 		UnexepectedFailure,
 		ExecutionTimeoutFailure,
-		InterruptionFailure
+		InterruptionFailure,
+		PodUnschedulableFailure,
+		ImagePullFailure,
+		PodFailureLimitFailure
 	}
 
 	public KubernetesStep(final Framework framework) {
@@ -130,6 +148,22 @@ public class KubernetesStep implements StepPlugin, Describable {
 				+ "Example: 'foo" + LABELKVSEPARATOR + "bar" + LABELSEPARATOR + "a" + LABELKVSEPARATOR + "b'. See https://kubernetes.io/docs/concepts/overview/working-with-objects/labels/#syntax-and-character-set for "
 				+ "information on key and value formatting.",false, ""))
 		.property(PropertyUtil.bool(CLEAN_UP, "Cleanup", "Remove finished jobs from Kubernetes", true, "true"))
+		.property(PropertyUtil.select(LOG_CAPTURE, "Log capture", "How much of the pod logs to keep once the pods are finished: the full log (spilled to disk above the limit), its head and tail, or its tail", false, LogCapture.Policy.FULL.getValue(), Arrays.asList(LogCapture.Policy.FULL.getValue(), LogCapture.Policy.HEAD_TAIL.getValue(), LogCapture.Policy.TAIL.getValue())))
+		.property(PropertyUtil.integer(LOG_CAPTURE_LIMIT, "Log capture limit", "The number of log bytes kept in memory for each pod (for each of the head and the tail)", false, String.valueOf(LogCapture.DEFAULT_LIMIT)))
+		.property(PropertyUtil.bool(FOLLOW_LOGS, "Follow logs", "Stream the pod logs while the job runs instead of fetching them once the pods are finished", false, "false"))
+		.property(PropertyUtil.integer(MAX_POD_FAILURES, "Pod failure limit", "Stop the job as soon as this many of its pods failed, scaling its parallelism down to 0, and fail the step; 1 fails on the first failed pod, 0 lets the job run its course. For the Never restart policy", false, "0"))
+		.property(PropertyUtil.integer(POD_FAILURE_GRACE, "Pod failure grace period", "How long a pod may stay unschedulable or unable to pull its image before the step fails (in seconds), 0 to wait for the job deadline; a pod waiting for a cluster scale-up is given more time", false, String.valueOf(TimeUnit.MILLISECONDS.toSeconds(PodAnalyzer.DEFAULT_GRACE_PERIOD))))
+		.property(PropertyUtil.bool(REATTACH, "Re-attach", "When the job of this execution already exists with the same labels and spec, after a restart or a retry, wait for it and report its result instead of creating it again", false, "false"))
+		.property(PropertyUtil.string(FAN_OUT, "Fan-out", "Run one job for each value of a list separated by commas or spaces, or of a range like 1..10. "
+				+ "The value and the index of each job are available as the ${" + FanOutExecution.ITEM_OPTION + "} and ${" + FanOutExecution.INDEX_OPTION + "} options, empty for a single job", false, null))
+		.property(PropertyUtil.bool(IMAGE_PREWARM, "Image pre-warm", "Pre-pull the image on the nodes matching the node selector with a DaemonSet, refreshed every hour until no step used it for a day, and report whether the pod ran on a warm node", false, "false"))
+		.property(PropertyUtil.bool(POD_POOL, "Pod pool", "Run the command through exec in an idle pod kept warm for this image and resources, falling back to a job when none is ready. Only for a single pod with the Never restart policy and no pod failure limit, other steps run as jobs. The image must provide sh", false, "false"))
+		.property(PropertyUtil.integer(POD_POOL_MIN, "Pod pool min", "The number of idle pods to keep warm", false, String.valueOf(DEFAULT_POD_POOL_MIN)))
+		.property(PropertyUtil.integer(POD_POOL_MAX, "Pod pool max", "The maximum number of pooled pods, idle or busy", false, String.valueOf(DEFAULT_POD_POOL_MAX)))
+		.property(PropertyUtil.integer(POD_POOL_IDLE_TTL, "Pod pool idle TTL", "How long pods above the minimum stay idle before being deleted (in seconds)", false, String.valueOf(TimeUnit.MILLISECONDS.toSeconds(PodPool.DEFAULT_IDLE_TTL))))
+		.property(PropertyUtil.integer(FAN_OUT_MAX_IN_FLIGHT, "Fan-out max in flight", "The maximum number of fan-out jobs running at the same time", false, String.valueOf(DEFAULT_FAN_OUT_MAX_IN_FLIGHT)))
+		.property(PropertyUtil.integer(ADMISSION_RATE, "Admission rate", "The number of jobs created per second in the namespace, the latest step sets it for the namespace", false, String.valueOf((int) AdmissionQueue.DEFAULT_RATE)))
+		.property(PropertyUtil.integer(ADMISSION_BURST, "Admission burst", "The number of jobs created at once in the namespace after an idle period", false, String.valueOf(AdmissionQueue.DEFAULT_BURST)))
 		.build();
 
 	public Description getDescription() {
@@ -137,166 +171,12 @@ public class KubernetesStep implements StepPlugin, Describable {
 	}
 
 	public void executeStep(PluginStepContext context, Map<String,Object> configuration) throws StepException {
-		PluginLogger pluginLogger = context.getLogger();
-		ConfigBuilder clientConfigurationBuilder = new ConfigBuilder().withWatchReconnectInterval(30).withWatchReconnectLimit(0);
-
-		if(null != configuration.get(KUBE_MASTER)) {
-			clientConfigurationBuilder.withMasterUrl(configuration.get(KUBE_MASTER).toString());
-		}
-		if(null != configuration.get(KUBE_TOKEN)) {
-			clientConfigurationBuilder.withOauthToken(configuration.get(KUBE_TOKEN).toString());
-		}
-		if(null != configuration.get(KUBE_SSL)) {
-			clientConfigurationBuilder.withTrustCerts(!"true".equals(configuration.get(KUBE_SSL).toString()));
-		}
-
-		Config clientConfiguration = clientConfigurationBuilder.build();
-		boolean cleanup = "true".equals(configuration.get(CLEAN_UP).toString());
-		try {
-			client = new DefaultKubernetesClient(clientConfiguration);
-			String jobName = context.getDataContextObject().get("job").get("name").toString().toLowerCase() + "-" + context.getDataContextObject().get("job").get("execid");
-			String namespace = configuration.get(NAMESPACE).toString();
-
-			// add the job-name label in addition to the labels set in the job configuration
-			final StringBuilder labelBuilder = new StringBuilder("job-name" + LABELKVSEPARATOR + jobName);
-			if (configuration.containsKey(LABELS)) {
-			    final String configuredLabels = configuration.get(LABELS).toString();
-			    if (!configuredLabels.isEmpty()) {
-					labelBuilder
-							.append(LABELSEPARATOR)
-							.append(configuration.get(LABELS).toString());
-				}
-			}
-			// validate and get the labels
-			final Map<String, String> labels = validateAndGetLabels(LABELKVSEPARATOR, LABELSEPARATOR, labelBuilder.toString());
-
-			JobConfiguration jobConfiguration = new JobConfiguration();
-			jobConfiguration.setName(jobName);
-			jobConfiguration.setLabels(labels);
-			jobConfiguration.setNamespace((String)configuration.get(NAMESPACE));
-			jobConfiguration.setImage((String)configuration.get(IMAGE));
-			jobConfiguration.setRestartPolicy((String)configuration.get(RESTART_POLICY));
-			jobConfiguration.setImagePullPolicy((String)configuration.get(IMAGE_PULL_POLICY));
-			jobConfiguration.setCompletions(Integer.valueOf(configuration.get(COMPLETIONS).toString()));
-			jobConfiguration.setParallelism(Integer.valueOf(configuration.get(PARALLELISM).toString()));
-			if(null != configuration.get(IMAGE_PULL_SECRETS)){
-				jobConfiguration.setImagePullSecrets(configuration.get(IMAGE_PULL_SECRETS).toString());
-			}
-			if(null != configuration.get(COMMAND)) {
-				jobConfiguration.setCommand(configuration.get(COMMAND).toString(), context.getDataContextObject().get("option"));
-			}
-			if(null != configuration.get(ARGUMENTS)) {
-				jobConfiguration.setArguments(configuration.get(ARGUMENTS).toString(), context.getDataContextObject().get("option"));
-			}
-			if(null != configuration.get(NODE_SELECTOR)) {
-				jobConfiguration.setNodeSelector(configuration.get(NODE_SELECTOR).toString());
-			}
-			if(null != configuration.get(ACTIVE_DEADLINE)){
-				jobConfiguration.setActiveDeadlineSeconds(Long.valueOf(configuration.get(ACTIVE_DEADLINE).toString()));
-			}
-			if(null != configuration.get(PERSISTENT_VOLUME)) {
-				try {
-					String persistentVolumeArray[] = configuration.get(PERSISTENT_VOLUME).toString().split("\\s*;\\s*");
-					jobConfiguration.setPersistentVolume(persistentVolumeArray[0], persistentVolumeArray[1], context.getDataContextObject().get("option"));
-				}
-				catch (ArrayIndexOutOfBoundsException e) {
-					logger.error("Invalid format for " + PERSISTENT_VOLUME, e);
-				}
-			}
-			if(null != configuration.get(SECRET)) {
-				try {
-					String secretVolumeArray[] = configuration.get(SECRET).toString().split("\\s*;\\s*");
-					jobConfiguration.setSecret(secretVolumeArray[0], secretVolumeArray[1], context.getDataContextObject().get("option"));
-				}
-				catch (ArrayIndexOutOfBoundsException e) {
-					logger.error("Invalid format for " + SECRET, e);
-				}
-			}
-			if(null != configuration.get(RESOURCE_REQUESTS) && !"".equals(configuration.get(RESOURCE_REQUESTS).toString())) {
-				try {
-					Map<String, Quantity> reqMap = new HashMap<>();
-					for (String resourceRequest: configuration.get(RESOURCE_REQUESTS).toString().split(" ")) {
-						String resourceRequestArray[] = resourceRequest.split(":");
-						reqMap.put(resourceRequestArray[0], new Quantity(resourceRequestArray[1]));
-					}
-					jobConfiguration.setResourceRequests(reqMap);
-				}
-				catch (ArrayIndexOutOfBoundsException e) {
-					logger.error("Invalid format for " + RESOURCE_REQUESTS, e);
-				}
-			}
-			job = new com.skilld.kubernetes.Job(jobConfiguration);
-
-			CountDownLatch jobCloseLatch = new CountDownLatch(1);
-			Watcher<Job> jobWatcher = new Watcher<Job>() {
-				@Override
-				public void eventReceived(Action action, Job resource) {
-					if(job.isComplete(resource)) {
-						jobCloseLatch.countDown();
-					}
-				}
-				@Override
-				public void onClose(KubernetesClientException e) {
-					if (null != e) {
-						logger.error(e.getMessage());
-					}
-				}
-			};
-			Watcher<Pod> podWatcher = new Watcher<Pod>() {
-				@Override
-				public void eventReceived(Action action, Pod resource) {
-					String name = resource.getMetadata().getName();
-					Integer logLevel = null;
-					if(resource.getStatus().getPhase().equals("Succeeded") && null == resource.getMetadata().getDeletionTimestamp()) {
-						logLevel = 2;
-					} else if (resource.getStatus().getPhase().equals("Failed")) {
-						logLevel = 0;
-					}
-					if (null != logLevel) {
-						pluginLogger.log(logLevel, name + " : " + client.pods().inNamespace(namespace).withName(name).getLog(true));
-					}
-				}
-				@Override
-				public void onClose(KubernetesClientException e) {
-					if (null != e) {
-						logger.error(e.getMessage());
-					}
-				}
-			};
-
-			jobWatch = client.extensions().jobs().inNamespace(namespace).withLabels(labels).watch(jobWatcher);
-			podWatch = client.pods().inNamespace(namespace).withLabel("job-name", jobName).watch(podWatcher);
-			client.extensions().jobs().inNamespace(namespace).withName(jobName).create(job.getJobResource());
-			jobCloseLatch.await();
-			Terminate(cleanup);
-
-			if(job.hasFailed()){
-				Reason reason = Reason.UnexepectedFailure;
-				if(job.hasTimedout()){
-					reason = Reason.ExecutionTimeoutFailure;
-				}
-				throw new StepException(job.getCompletionReason(), reason);
-			}
-		} catch (KubernetesClientException e) {
-			logger.error(e.getMessage(), e);
-			throw new StepException(e.getMessage(), Reason.UnexepectedFailure);
-		} catch (InterruptedException e) {
-			Terminate(cleanup);
-			logger.error(e.getMessage(), e);
-			throw new StepException(e.getMessage(), Reason.InterruptionFailure);
-		} catch (StepException e) {
-			logger.error(e.getMessage(), e);
-			throw e;
-		}
-	}
-
-	private void Terminate(boolean cleanup) {
-		jobWatch.close();
-		podWatch.close();
-		if (cleanup) {
-			job.delete(client);
+		// all the state of a run lives in its execution, so that concurrent runs never share it
+		if (null != configuration.get(FAN_OUT) && !configuration.get(FAN_OUT).toString().trim().isEmpty()) {
+			new FanOutExecution(context, configuration).execute();
+		} else {
+			new KubernetesStepExecution(context, configuration).execute();
 		}
-		client.close();
 	}
 
 	/**
@@ -318,81 +198,164 @@ public class KubernetesStep implements StepPlugin, Describable {
 	 */
 	@VisibleForTesting
 	protected static boolean validateLabel(String separator, String keyValue) {
-		final String keyPrefixSeparator = "/";
-	    final Predicate<String> isValidKeyName = Pattern.compile("^[a-zA-Z0-9]([-_.]?[a-zA-Z0-9]+)*$")
-				.asPredicate()
-				.and(prefix -> prefix.length() <= 63);
-	    final Predicate<String> isValidKeyPrefix = Pattern.compile("^[a-zA-Z0-9]+(\\.[a-zA-Z0-9]+)*$")
-				.asPredicate()
-				.and(prefix -> prefix.length() <= 253);
-	    final Predicate<String> isValidValue = isValidKeyName.or(""::equals);
-
 	    // the separator may not be null or empty
 		if (separator == null || separator.isEmpty()) {
 			return false;
 		}
+		return keyValue != null && null != parseLabel(separator, keyValue, 0, keyValue.length());
+	}
 
-		// the keyValue may not be null and should always contain at least a name and a separator, which in its shorted
-		// form is "a="
-		if (keyValue == null || keyValue.length() < 2) {
-			return false;
+	// the key and the value of the label in text[start, end), null if the label is not valid
+	private static String[] parseLabel(String separator, String text, int start, int end) {
+		// the label should always contain at least a name and a separator, which in its shortest form is "a="
+		if (end - start < 2) {
+			return null;
 		}
-
 	    // a label cannot start with the separator, but it may end with it in case the value is empty
-		if (keyValue.startsWith(separator)) {
-			return false;
+		if (text.startsWith(separator, start)) {
+			return null;
+		}
+		// trailing separators are ignored, like String.split drops trailing empty strings
+		int last = end;
+		while (last - start > separator.length() && text.startsWith(separator, last - separator.length())) {
+			last -= separator.length();
+		}
+		// either the label is of form "foo=bar", or "foo" once the trailing separators are ignored
+		int keyEnd = indexOf(text, separator, start, last);
+		int valueStart = last;
+		if (keyEnd < 0) {
+			keyEnd = last;
+		} else {
+			valueStart = keyEnd + separator.length();
+			if (indexOf(text, separator, valueStart, last) >= 0) {
+				return null;
+			}
 		}
 
-	    // either keyvalue is of form "foo=bar", or "foo=" which will result in an array of 2 or 1 respectively
-		// when split on "=" (assuming that's the separator used)
-		final String[] kv = keyValue.split(separator);
-		if (kv.length < 1 || kv.length > 2) {
-			return false;
+		// the key is either a name or a prefix and a name separated by a /
+		int prefixEnd = text.indexOf('/', start);
+		boolean validKey;
+		if (prefixEnd < 0 || prefixEnd >= keyEnd) {
+			validKey = isValidName(text, start, keyEnd);
+		} else {
+			validKey = isValidPrefix(text, start, prefixEnd) && isValidName(text, prefixEnd + 1, keyEnd);
+		}
+		if (!validKey || !(valueStart == last || isValidName(text, valueStart, last))) {
+			return null;
 		}
+		return new String[]{text.substring(start, keyEnd), text.substring(valueStart, last)};
+	}
 
-		final String key = kv[0];
-		// a value may be empty, so if we were given a label of form "foo=", set the value to an empty string
-		final String val = kv.length == 2 ? kv[1] : "";
+	// at most 63 alphanumeric characters, possibly separated by single "-", "_" or "."
+	private static boolean isValidName(String text, int start, int end) {
+		if (end <= start || end - start > 63 || !isAlphanumeric(text.charAt(start)) || !isAlphanumeric(text.charAt(end - 1))) {
+			return false;
+		}
+		for (int i = start + 1; i < end - 1; i++) {
+			char c = text.charAt(i);
+			if (!isAlphanumeric(c) && !(('-' == c || '_' == c || '.' == c) && isAlphanumeric(text.charAt(i - 1)))) {
+				return false;
+			}
+		}
+		return true;
+	}
 
-		// first make sure the key doesn't begin or end with a /
-		if (key.startsWith(keyPrefixSeparator) || key.endsWith(keyPrefixSeparator)) {
+	// at most 253 characters, alphanumeric parts separated by single "."
+	private static boolean isValidPrefix(String text, int start, int end) {
+		if (end <= start || end - start > 253 || !isAlphanumeric(text.charAt(start)) || !isAlphanumeric(text.charAt(end - 1))) {
 			return false;
 		}
-		// split the key on /
-		final String[] keySplitOnPrefix = key.split(keyPrefixSeparator);
-		final boolean validKey;
-		if (keySplitOnPrefix.length == 1) {
-			// key doesn't contain a prefix
-			validKey = isValidKeyName.test(keySplitOnPrefix[0]);
-		} else if (keySplitOnPrefix.length == 2) {
-			validKey = isValidKeyPrefix.test(keySplitOnPrefix[0]) &&
-					isValidKeyName.test(keySplitOnPrefix[1]);
-		} else {
-			validKey = false;
+		for (int i = start + 1; i < end - 1; i++) {
+			char c = text.charAt(i);
+			if (!isAlphanumeric(c) && !('.' == c && isAlphanumeric(text.charAt(i - 1)))) {
+				return false;
+			}
 		}
+		return true;
+	}
+
+	private static boolean isAlphanumeric(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+	}
 
-		return validKey && isValidValue.test(val);
+	private static int indexOf(String text, String separator, int start, int end) {
+		int index = text.indexOf(separator, start);
+		return index >= 0 && index + separator.length() <= end ? index : -1;
 	}
 
 	/**
 	 * Given a string, split it on {@code labelSeparator} and validate every substring according to {@link KubernetesStep#validateLabel(String, String)}.
+	 * The result is memoized, the same label string always gives back the same read-only map.
 	 * @param kvSeparator The string used to split a label to the key and the value.
 	 * @param labelSeparator The string used to split occurrences of labels.
 	 * @param labels The string that contains the label(s).
 	 * @return A map containing the label-keys as keys and the label-values as values.
-	 * @throws StepException Thrown when we can't validate one or more of the labels.
+	 * @throws StepException Thrown when we can't validate one or more of the labels, or when a key is set twice.
 	 */
 	@VisibleForTesting
 	protected static Map<String, String> validateAndGetLabels(String kvSeparator, String labelSeparator, String labels) throws StepException {
-		List<String> labelsUnvalidated = Arrays.asList(labels.split(labelSeparator));
-		// make sure there is not a single label that doesn't validate
-		if (!labelsUnvalidated.stream().allMatch(label -> validateLabel(kvSeparator, label))) {
-			throw new StepException("Invalid label contained in \"" + labelsUnvalidated + "\"", Reason.UnexepectedFailure);
+		final LabelsKey key = new LabelsKey(kvSeparator, labelSeparator, labels);
+		synchronized (labelsCache) {
+			final Map<String, String> cached = labelsCache.get(key);
+			if (null != cached) {
+				return cached;
+			}
+		}
+		final Map<String, String> result = new HashMap<>();
+		// split on the label separator like String.split would, trailing empty labels are ignored
+		int end = labels.length();
+		while (end >= labelSeparator.length() && labels.startsWith(labelSeparator, end - labelSeparator.length())) {
+			end -= labelSeparator.length();
+		}
+		if (labels.isEmpty()) {
+			throw new StepException("Invalid label contained in \"" + labels + "\"", Reason.UnexepectedFailure);
+		}
+		int start = 0;
+		while (start < end) {
+			int labelEnd = indexOf(labels, labelSeparator, start, end);
+			if (labelEnd < 0) {
+				labelEnd = end;
+			}
+			final String[] label = parseLabel(kvSeparator, labels, start, labelEnd);
+			if (null == label) {
+				throw new StepException("Invalid label \"" + labels.substring(start, labelEnd) + "\" contained in \"" + labels + "\"", Reason.UnexepectedFailure);
+			}
+			if (null != result.put(label[0], label[1])) {
+				throw new StepException("Duplicate label \"" + label[0] + "\" contained in \"" + labels + "\"", Reason.UnexepectedFailure);
+			}
+			start = labelEnd + labelSeparator.length();
+		}
+
+		final Map<String, String> validated = Collections.unmodifiableMap(result);
+		synchronized (labelsCache) {
+			labelsCache.put(key, validated);
+		}
+		return validated;
+	}
+
+	private static class LabelsKey {
+		private final String kvSeparator;
+		private final String labelSeparator;
+		private final String labels;
+
+		private LabelsKey(String _kvSeparator, String _labelSeparator, String _labels) {
+			kvSeparator = _kvSeparator;
+			labelSeparator = _labelSeparator;
+			labels = _labels;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof LabelsKey)) {
+				return false;
+			}
+			LabelsKey other = (LabelsKey) o;
+			return labels.equals(other.labels) && kvSeparator.equals(other.kvSeparator) && labelSeparator.equals(other.labelSeparator);
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(kvSeparator, labelSeparator, labels);
 		}
-		// now we know that all labels are valid, transform them to a map and return them
-		return Arrays.asList(labels.split(labelSeparator))
-				.stream()
-				.map(keyVal -> keyVal.split(kvSeparator))
-				.collect(Collectors.toMap(keyVal -> keyVal[0], keyVal -> keyVal.length == 2 ? keyVal[1] : ""));
 	}
 }
@@ -0,0 +1,905 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+/*
+ * KubernetesStepExecution.java
+ *
+ * Created: 10/15/2026 3:05 PM
+ *
+ */
+package com.skilld.rundeck.plugin.step.kubernetes;
+
+import com.dtolabs.rundeck.core.execution.workflow.steps.StepException;
+import com.dtolabs.rundeck.plugins.PluginLogger;
+import com.dtolabs.rundeck.plugins.step.PluginStepContext;
+import com.skilld.kubernetes.AdmissionQueue;
+import com.skilld.kubernetes.ClientCache;
+import com.skilld.kubernetes.ImagePrewarmer;
+import com.skilld.kubernetes.JobCleaner;
+import com.skilld.kubernetes.JobConfiguration;
+import com.skilld.kubernetes.JobEngine;
+import com.skilld.kubernetes.JobInformer;
+import com.skilld.kubernetes.JobTemplate;
+import com.skilld.kubernetes.JobTemplateCache;
+import com.skilld.kubernetes.LogCapture;
+import com.skilld.kubernetes.LogCollector;
+import com.skilld.kubernetes.LogFollower;
+import com.skilld.kubernetes.Metrics;
+import com.skilld.kubernetes.OrphanReaper;
+import com.skilld.kubernetes.OutputData;
+import com.skilld.kubernetes.PodAnalyzer;
+import com.skilld.kubernetes.PodPool;
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.Event;
+import io.fabric8.kubernetes.api.model.Job;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodCondition;
+import io.fabric8.kubernetes.api.model.Quantity;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import static com.skilld.rundeck.plugin.step.kubernetes.KubernetesStep.*;
+
+/**
+ * The state of a single run of {@link KubernetesStep}: the client lease, the job and its
+ * watches belong to one execution and are released when it ends.
+ */
+class KubernetesStepExecution implements JobInformer.Listener {
+	static Logger logger = Logger.getLogger(KubernetesStepExecution.class);
+
+	private static final int LOG_BUFFER_LINES = 1000;
+	private static final long LOG_DRAIN_INTERVAL = 200;
+	private static final long LOG_COMPLETION_TIMEOUT = 30000;
+	// how long the collected logs may take to fetch once the job completed
+	private static final long LOG_FETCH_TIMEOUT = 300000;
+	// how long the events of the finished pods may lag behind the job completion before they are listed
+	private static final long POD_EVENTS_TIMEOUT = 5000;
+	// how long past the active deadline the watchdog waits for the completion
+	private static final long WATCHDOG_GRACE = 60000;
+	// the output group receiving the values reported by the pods
+	static final String DATA_GROUP = "data";
+	// the length of the template key used as pod pool profile, a label value
+	private static final int POOL_PROFILE_LENGTH = 40;
+	private static final String[] TEMPLATE_PROPERTIES = {
+		NAMESPACE, IMAGE, RESTART_POLICY, IMAGE_PULL_POLICY, COMPLETIONS, PARALLELISM, IMAGE_PULL_SECRETS,
+		NODE_SELECTOR, ACTIVE_DEADLINE, PERSISTENT_VOLUME, SECRET, RESOURCE_REQUESTS
+	};
+
+	private final PluginStepContext context;
+	private final Map<String, Object> configuration;
+	// the index of the job in its fan-out, -1 when the step runs a single job
+	private final int fanOutIndex;
+	private final Map<String, String> options;
+	private final PluginLogger pluginLogger;
+	private final boolean cleanup;
+	private final boolean followLogs;
+	private final boolean reattach;
+	// how long a pod may stay stuck before the step fails, 0 to wait for the job deadline
+	private final long podFailureGrace;
+	// the number of failed pods stopping the job, 0 to let it run its course
+	private final int maxPodFailures;
+	private final boolean podPool;
+	// the job creations per second and at once in the namespace
+	private final int admissionRate;
+	private final int admissionBurst;
+	private final boolean imagePrewarm;
+	private final LogCapture.Policy logCapturePolicy;
+	private final int logCaptureLimit;
+	// completed with the job once it completes, or failed by the watchdog or a cancellation
+	private final CompletableFuture<Job> completion = new CompletableFuture<>();
+	// the pods stuck in practice, with when they were first seen stuck
+	private final Map<String, StuckPod> stuckPods = new HashMap<>();
+	// the failed pods, in the order they failed
+	private final Set<String> failedPods = new LinkedHashSet<>();
+	// set once the job was stopped by too many failed pods
+	private volatile StepException podFailureLimit = null;
+	// the values reported in the followed or pooled output, line by line
+	private final OutputData lineData = new OutputData();
+	// the values reported in the collected logs, pod by pod
+	private final Map<String, String> collectedData = new LinkedHashMap<>();
+
+	private String kubeMaster = null;
+	private String kubeToken = null;
+	private Boolean trustCerts = null;
+	private String execid = null;
+	private String serverId = null;
+	private ClientCache.Lease clientLease = null;
+	private KubernetesClient client = null;
+	private String namespace = null;
+	private String jobName = null;
+	private com.skilld.kubernetes.Job job = null;
+	private JobInformer.Registration jobRegistration = null;
+	private LogFollower logFollower = null;
+	private LogCollector logCollector = null;
+	private OrphanReaper.Tracking reaperTracking = null;
+	private volatile CompletableFuture<Integer> poolExec = null;
+	private volatile CompletableFuture<Job> admission = null;
+	// when the job creation was requested, in nanoseconds
+	private volatile long createdAt = 0;
+	private final AtomicBoolean podScheduled = new AtomicBoolean();
+	private final AtomicBoolean podRunning = new AtomicBoolean();
+	private final AtomicBoolean jobCompleted = new AtomicBoolean();
+	private final AtomicBoolean imageReported = new AtomicBoolean();
+
+	KubernetesStepExecution(PluginStepContext _context, Map<String, Object> _configuration) {
+		this(_context, _configuration, -1, null);
+	}
+
+	/**
+	 * @param _fanOutIndex The index of the job in the fan-out of the step, -1 for a single job.
+	 * @param _fanOutItem The fan-out value of the job, available to the step as the {@link FanOutExecution#ITEM_OPTION} option.
+	 */
+	KubernetesStepExecution(PluginStepContext _context, Map<String, Object> _configuration, int _fanOutIndex, String _fanOutItem) {
+		context = _context;
+		configuration = _configuration;
+		fanOutIndex = _fanOutIndex;
+		Map<String, String> contextOptions = context.getDataContextObject().get("option");
+		if (fanOutIndex < 0) {
+			options = contextOptions;
+		} else {
+			Map<String, String> jobOptions = null != contextOptions ? new HashMap<>(contextOptions) : new HashMap<>();
+			jobOptions.put(FanOutExecution.ITEM_OPTION, _fanOutItem);
+			jobOptions.put(FanOutExecution.INDEX_OPTION, String.valueOf(fanOutIndex));
+			options = jobOptions;
+		}
+		pluginLogger = context.getLogger();
+		cleanup = "true".equals(configuration.get(CLEAN_UP).toString());
+		followLogs = null != configuration.get(FOLLOW_LOGS) && "true".equals(configuration.get(FOLLOW_LOGS).toString());
+		reattach = null != configuration.get(REATTACH) && "true".equals(configuration.get(REATTACH).toString());
+		maxPodFailures = intProperty(MAX_POD_FAILURES, 0);
+		podFailureGrace = null != configuration.get(POD_FAILURE_GRACE) ? TimeUnit.SECONDS.toMillis(Long.valueOf(configuration.get(POD_FAILURE_GRACE).toString())) : PodAnalyzer.DEFAULT_GRACE_PERIOD;
+		podPool = null != configuration.get(POD_POOL) && "true".equals(configuration.get(POD_POOL).toString());
+		admissionRate = Math.max(1, intProperty(ADMISSION_RATE, (int) AdmissionQueue.DEFAULT_RATE));
+		admissionBurst = Math.max(1, intProperty(ADMISSION_BURST, AdmissionQueue.DEFAULT_BURST));
+		imagePrewarm = null != configuration.get(IMAGE_PREWARM) && "true".equals(configuration.get(IMAGE_PREWARM).toString());
+		logCapturePolicy = null != configuration.get(LOG_CAPTURE) ? LogCapture.Policy.fromValue(configuration.get(LOG_CAPTURE).toString()) : LogCapture.Policy.FULL;
+		logCaptureLimit = null != configuration.get(LOG_CAPTURE_LIMIT) ? Integer.valueOf(configuration.get(LOG_CAPTURE_LIMIT).toString()) : LogCapture.DEFAULT_LIMIT;
+	}
+
+	void execute() throws StepException {
+		CompletableFuture<Void> result = start();
+		try {
+			result.get();
+			publishData(context, getData());
+		} catch (ExecutionException e) {
+			// a failed job may still have reported what went wrong
+			publishData(context, getData());
+			StepException failure = failure(e);
+			logger.error(failure.getMessage(), failure);
+			throw failure;
+		} catch (InterruptedException e) {
+			cancel();
+			logger.error(e.getMessage(), e);
+			throw new StepException(e.getMessage(), Reason.InterruptionFailure);
+		}
+	}
+
+	/**
+	 * Hand values to the later steps of the workflow, as <code>${data.key}</code>.
+	 * @param context The context of the step.
+	 * @param data The values by key.
+	 */
+	static void publishData(PluginStepContext context, Map<String, String> data) {
+		if (data.isEmpty() || null == context.getExecutionContext() || null == context.getExecutionContext().getOutputContext()) {
+			return;
+		}
+		context.getExecutionContext().getOutputContext().addOutput(DATA_GROUP, data);
+	}
+
+	/**
+	 * @return The values reported by the pods with {@link OutputData#MARKER} lines, the last one of each key.
+	 */
+	Map<String, String> getData() {
+		Map<String, String> data;
+		synchronized (collectedData) {
+			data = new LinkedHashMap<>(collectedData);
+		}
+		data.putAll(lineData.getValues());
+		return data;
+	}
+
+	/**
+	 * Start the execution without waiting for it: the job is created on the {@link JobEngine},
+	 * then followed through the informer events until it completes and is cleaned up.
+	 * @return The result of the execution, failing with a {@link StepException}.
+	 */
+	CompletableFuture<Void> start() {
+		CompletableFuture<Void> result;
+		try {
+			String templateKey = prepare();
+			if (podPool) {
+				result = execInPool(templateKey.substring(0, POOL_PROFILE_LENGTH)).thenCompose(ran -> ran ? CompletableFuture.completedFuture(null) : runJob());
+			} else {
+				result = runJob();
+			}
+		} catch (StepException | KubernetesClientException e) {
+			result = new CompletableFuture<>();
+			result.completeExceptionally(e);
+		}
+		return JobEngine.getInstance().track(result.whenComplete((v, e) -> release()));
+	}
+
+	/**
+	 * Stop the execution, its job or pooled command is stopped and cleaned up.
+	 */
+	void cancel() {
+		StepException interrupted = new StepException("The execution of " + jobName + " was interrupted", Reason.InterruptionFailure);
+		completion.completeExceptionally(interrupted);
+		CompletableFuture<Integer> exec = poolExec;
+		if (null != exec) {
+			exec.completeExceptionally(interrupted);
+		}
+		CompletableFuture<Job> queued = admission;
+		if (null != queued) {
+			// a job still waiting for its admission is never created
+			queued.completeExceptionally(interrupted);
+		}
+	}
+
+	/**
+	 * @return The step failure behind a failed stage.
+	 */
+	static StepException failure(Throwable t) {
+		Throwable cause = JobEngine.unwrap(t);
+		if (cause instanceof StepException) {
+			return (StepException) cause;
+		}
+		return new StepException(cause.getMessage(), cause, Reason.UnexepectedFailure);
+	}
+
+	// the client, the names and the job resource, without any API call
+	private String prepare() throws StepException {
+		kubeMaster = null != configuration.get(KUBE_MASTER) ? configuration.get(KUBE_MASTER).toString() : null;
+		kubeToken = null != configuration.get(KUBE_TOKEN) ? configuration.get(KUBE_TOKEN).toString() : null;
+		trustCerts = null != configuration.get(KUBE_SSL) ? !"true".equals(configuration.get(KUBE_SSL).toString()) : null;
+		clientLease = ClientCache.getInstance().acquire(kubeMaster, kubeToken, trustCerts);
+		client = clientLease.getClient();
+		execid = context.getDataContextObject().get("job").get("execid");
+		// the server UUID is only set in cluster mode
+		serverId = context.getDataContextObject().get("job").get("serverUUID");
+		if (null == serverId || serverId.isEmpty()) {
+			serverId = OrphanReaper.DEFAULT_SERVER_ID;
+		}
+		jobName = context.getDataContextObject().get("job").get("name").toString().toLowerCase() + "-" + execid;
+		if (fanOutIndex >= 0) {
+			jobName += "-" + fanOutIndex;
+		}
+		namespace = configuration.get(NAMESPACE).toString();
+
+		String templateKey = templateKey();
+		JobTemplate template = JobTemplateCache.getInstance().get(templateKey, this::buildTemplateConfiguration);
+		job = new com.skilld.kubernetes.Job(template.instantiate(buildJobConfiguration(jobName, execid)));
+		if (reattach) {
+			job.annotateSpecHash();
+		}
+		if (imagePrewarm) {
+			ImagePrewarmer.getInstance().register(kubeMaster, kubeToken, trustCerts, namespace, job.getJobResource().getSpec().getTemplate().getSpec());
+		}
+		return templateKey;
+	}
+
+	// create, wait for the completion while following the logs, then clean up
+	private CompletableFuture<Void> runJob() {
+		if (cleanup) {
+			reaperTracking = OrphanReaper.getInstance().track(kubeMaster, kubeToken, trustCerts, namespace, serverId, execid);
+		}
+		if (followLogs) {
+			logFollower = new LogFollower(client, namespace, LOG_BUFFER_LINES);
+		} else {
+			logCollector = new LogCollector(client, namespace, logCapturePolicy, logCaptureLimit);
+		}
+		jobRegistration = JobInformer.register(client, namespace, jobName, this);
+		CompletableFuture<Void> logs = followLogs ? followLogs() : collectLogs();
+		return (reattach ? attach() : admit())
+			.thenCompose(created -> {
+				startWatchdog();
+				return logs;
+			})
+			.handle((v, e) -> finish(e));
+	}
+
+	// queues the creation of the job
+	private CompletableFuture<Job> admit() {
+		if (completion.isCompletedExceptionally()) {
+			// cancelled before the job was created
+			return completion;
+		}
+		admission = AdmissionQueue.getInstance().submit(client, namespace, admissionRate, admissionBurst, job.getJobResource(), () -> {
+			createdAt = System.nanoTime();
+			Job created = client.extensions().jobs().inNamespace(namespace).withName(jobName).create(job.getJobResource());
+			histogram(Metrics.JOB_CREATE).recordSince(createdAt);
+			return created;
+		});
+		return admission;
+	}
+
+	// the job left by an earlier run of the execution is followed instead of being created again
+	private CompletableFuture<Job> attach() {
+		return JobEngine.getInstance().supply(() -> client.extensions().jobs().inNamespace(namespace).withName(jobName).get())
+			.thenCompose(existing -> {
+				if (null == existing) {
+					return admit();
+				}
+				if (!job.isCreatedFrom(existing)) {
+					throw new CompletionException(new StepException("The job " + jobName + " already exists with other labels or another spec", Reason.UnexepectedFailure));
+				}
+				pluginLogger.log(2, "Re-attaching to the existing job " + jobName);
+				// the latencies of a job created by an earlier run are unknown, the watchdog counts from the re-attachment
+				podScheduled.set(true);
+				podRunning.set(true);
+				jobCompleted.set(true);
+				createdAt = System.nanoTime();
+				// a finished job completes at once, its pods are reported by the informer
+				onJob(existing);
+				return CompletableFuture.completedFuture(existing);
+			});
+	}
+
+	// the last stage of a job: it is cleaned up whatever the outcome, the step fails if it failed
+	private Void finish(Throwable failure) {
+		terminate();
+		if (null != failure) {
+			throw failure instanceof CompletionException ? (CompletionException) failure : new CompletionException(failure);
+		}
+		if (null != podFailureLimit) {
+			throw new CompletionException(podFailureLimit);
+		}
+		if (job.hasFailed()) {
+			Reason reason = job.hasTimedout() ? Reason.ExecutionTimeoutFailure : Reason.UnexepectedFailure;
+			throw new CompletionException(new StepException(job.getCompletionReason(), reason));
+		}
+		return null;
+	}
+
+	// drains the followed logs while the job runs, then until their streams end
+	private CompletableFuture<Void> followLogs() {
+		final AtomicLong logBytes = new AtomicLong();
+		Consumer<LogFollower.Line> logConsumer = line -> {
+			logBytes.addAndGet(line.getText().length() + 1);
+			lineData.scan(line.getText());
+			pluginLogger.log(line.getLevel(), line.getPodName() + " : " + line.getText());
+		};
+		ScheduledFuture<?> drainer = JobEngine.getInstance().repeat(() -> logFollower.drain(logConsumer), LOG_DRAIN_INTERVAL);
+		return completion.thenCompose(resource -> {
+			// when following, the fetch time is how long the logs lag behind the job completion
+			long logStart = System.nanoTime();
+			// the streams are ended by the events of the finished pods, or with the job when they lag behind
+			return JobEngine.getInstance().until(logFollower::isDone, POD_EVENTS_TIMEOUT).thenCompose(done -> {
+				if (done) {
+					return CompletableFuture.completedFuture(true);
+				}
+				logFollower.endAll();
+				return JobEngine.getInstance().until(logFollower::isDone, LOG_COMPLETION_TIMEOUT);
+			}).thenAccept(ended -> {
+				drainer.cancel(false);
+				logFollower.drain(logConsumer);
+				if (!ended) {
+					logger.warn("Log streams of " + jobName + " did not end after job completion");
+				}
+				histogram(Metrics.LOG_FETCH).recordSince(logStart);
+				histogram(Metrics.LOG_FETCH_BYTES).record(logBytes.get());
+			});
+		}).whenComplete((v, e) -> drainer.cancel(false));
+	}
+
+	// once the job completes, emits the logs of its finished pods pod by pod
+	private CompletableFuture<Void> collectLogs() {
+		return completion.thenCompose(resource -> {
+			int finished = null != resource.getStatus() ? count(resource.getStatus().getSucceeded()) + count(resource.getStatus().getFailed()) : 0;
+			return JobEngine.getInstance().until(() -> logCollector.size() >= finished, POD_EVENTS_TIMEOUT)
+				.thenCompose(reported -> reported ? CompletableFuture.<Void>completedFuture(null) : collectFinishedPods())
+				.thenCompose(v -> {
+					CompletableFuture<List<LogCollector.PodLog>> fetched = logCollector.fetched();
+					return JobEngine.getInstance().until(fetched::isDone, LOG_FETCH_TIMEOUT);
+				})
+				.thenAccept(fetched -> {
+					if (!fetched) {
+						logger.warn("Logs of " + jobName + " not fetched " + LOG_FETCH_TIMEOUT + " ms after job completion");
+					}
+					emitLogs(logCollector.getPodLogs());
+				});
+		});
+	}
+
+	// lists the pods of the job, for the finished ones the watch didn't report
+	private CompletableFuture<Void> collectFinishedPods() {
+		return JobEngine.getInstance().supply(() -> client.pods().inNamespace(namespace).withLabel("job-name", jobName).list().getItems())
+			.handle((pods, e) -> {
+				if (null != e) {
+					logger.warn("Unable to list the pods of " + jobName, JobEngine.unwrap(e));
+				} else {
+					pods.forEach(this::collectLog);
+				}
+				return null;
+			});
+	}
+
+	private void emitLogs(List<LogCollector.PodLog> podLogs) {
+		for (LogCollector.PodLog podLog : podLogs) {
+			String name = podLog.getPodName();
+			LogCapture capture = podLog.getCapture();
+			if (null == capture) {
+				pluginLogger.log(0, "Unable to fetch the log of " + name);
+				continue;
+			}
+			try {
+				capture.emit(line -> pluginLogger.log(podLog.getLevel(), name + " : " + line));
+			} catch (IOException e) {
+				logger.error("Unable to emit the log of " + name, e);
+			}
+			histogram(Metrics.LOG_FETCH).record(TimeUnit.NANOSECONDS.toMillis(podLog.getFetchNanos()));
+			histogram(Metrics.LOG_FETCH_BYTES).record(capture.getTotalBytes());
+			// in pod order, the values of the last pod win
+			synchronized (collectedData) {
+				collectedData.putAll(podLog.getData().getValues());
+			}
+		}
+	}
+
+	// the log of a pod is collected once it succeeded or failed, the later events of the pod are counted
+	private void collectLog(Pod resource) {
+		int level;
+		if ("Succeeded".equals(resource.getStatus().getPhase()) && null == resource.getMetadata().getDeletionTimestamp()) {
+			level = 2;
+		} else if ("Failed".equals(resource.getStatus().getPhase())) {
+			level = 0;
+		} else {
+			return;
+		}
+		if (!logCollector.collect(resource, level)) {
+			counter(Metrics.POD_LOGS_DUPLICATE).increment();
+		}
+	}
+
+	private static int count(Integer pods) {
+		return null != pods ? pods : 0;
+	}
+
+	private void release() {
+		if (null != jobRegistration) {
+			jobRegistration.close();
+		}
+		if (null != logFollower) {
+			logFollower.close();
+		}
+		if (null != logCollector) {
+			logCollector.close();
+		}
+		if (null != reaperTracking) {
+			reaperTracking.close();
+		}
+		if (null != clientLease) {
+			clientLease.close();
+		}
+	}
+
+	/**
+	 * @return The name of the job, null until the execution starts.
+	 */
+	String getJobName() {
+		return jobName;
+	}
+
+	@Override
+	public void onJob(Job resource) {
+		if(job.isComplete(resource)) {
+			if (0 != createdAt && jobCompleted.compareAndSet(false, true)) {
+				histogram(Metrics.JOB_COMPLETE).recordSince(createdAt);
+			}
+			completion.complete(resource);
+		}
+	}
+
+	@Override
+	public void onPod(Pod resource) {
+		String name = resource.getMetadata().getName();
+		recordPodTimes(resource);
+		if (podFailureGrace > 0) {
+			analyzePod(resource);
+		}
+		if (maxPodFailures > 0 && "Failed".equals(resource.getStatus().getPhase())) {
+			countPodFailure(name);
+		}
+		if (followLogs) {
+			followLog(resource);
+			return;
+		}
+		// the logs are fetched by the collector, never by the thread delivering the events
+		collectLog(resource);
+	}
+
+	// the log is streamed as soon as the container produces output, until it exits once the pod
+	// succeeded or failed; the later events of the pod are counted
+	private void followLog(Pod resource) {
+		String phase = resource.getStatus().getPhase();
+		boolean first;
+		if ("Succeeded".equals(phase)) {
+			first = logFollower.end(resource, 2);
+		} else if ("Failed".equals(phase)) {
+			first = logFollower.end(resource, 0);
+		} else if (!"Pending".equals(phase)) {
+			first = logFollower.follow(resource);
+		} else {
+			return;
+		}
+		if (!first) {
+			counter(Metrics.POD_LOGS_DUPLICATE).increment();
+		}
+	}
+
+	// runs the command in an idle pod of the pool, false when it has to run as a job
+	private CompletableFuture<Boolean> execInPool(String profile) {
+		if (1 != intProperty(COMPLETIONS, 1) || 1 != intProperty(PARALLELISM, 1)
+			|| !"Never".equals(configuration.get(RESTART_POLICY)) || 0 != maxPodFailures) {
+			// a pooled pod runs the command once, without retries nor a failure limit
+			return CompletableFuture.completedFuture(false);
+		}
+		Container container = job.getJobResource().getSpec().getTemplate().getSpec().getContainers().get(0);
+		if (null == container.getCommand() || container.getCommand().isEmpty()) {
+			// the entrypoint of the image is only run by a new container
+			return CompletableFuture.completedFuture(false);
+		}
+		List<String> command = new ArrayList<>(container.getCommand());
+		if (null != container.getArgs()) {
+			command.addAll(container.getArgs());
+		}
+		PodPool.Pool pool = PodPool.getInstance().get(clientLease, namespace, profile, job.getJobResource().getSpec().getTemplate().getSpec(),
+			intProperty(POD_POOL_MIN, DEFAULT_POD_POOL_MIN),
+			intProperty(POD_POOL_MAX, DEFAULT_POD_POOL_MAX),
+			TimeUnit.SECONDS.toMillis(intProperty(POD_POOL_IDLE_TTL, (int) TimeUnit.MILLISECONDS.toSeconds(PodPool.DEFAULT_IDLE_TTL))));
+		String podName = pool.acquire();
+		if (null == podName) {
+			return CompletableFuture.completedFuture(false);
+		}
+		long timeout = null != configuration.get(ACTIVE_DEADLINE) ? TimeUnit.SECONDS.toMillis(Long.valueOf(configuration.get(ACTIVE_DEADLINE).toString())) : 0;
+		poolExec = pool.exec(podName, command, timeout,
+			line -> {
+				lineData.scan(line);
+				pluginLogger.log(2, jobName + " : " + line);
+			},
+			line -> pluginLogger.log(1, jobName + " : " + line));
+		return poolExec.handle((exitCode, e) -> {
+			if (null != e) {
+				throw new CompletionException(failure(e));
+			}
+			if (null == exitCode) {
+				throw new CompletionException(new StepException("The command did not end within " + timeout + "ms in pod " + podName, Reason.ExecutionTimeoutFailure));
+			}
+			if (0 != exitCode) {
+				throw new CompletionException(new StepException("The command exited with code " + exitCode + " in pod " + podName, Reason.UnexepectedFailure));
+			}
+			return true;
+		});
+	}
+
+	// gives up on the job some time after its active deadline, unless it completed in between
+	private void startWatchdog() {
+		long timeout = watchdogTimeout();
+		if (0 == timeout) {
+			return;
+		}
+		long remaining = timeout - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - createdAt);
+		ScheduledFuture<?> watchdog = JobEngine.getInstance().schedule(() -> checkCompletion(timeout), Math.max(0, remaining));
+		completion.whenComplete((resource, e) -> watchdog.cancel(false));
+	}
+
+	// the active deadline plus as much again, up to WATCHDOG_GRACE; 0 when the job has no deadline
+	private long watchdogTimeout() {
+		if (null == configuration.get(ACTIVE_DEADLINE)) {
+			return 0;
+		}
+		long activeDeadline = TimeUnit.SECONDS.toMillis(Long.valueOf(configuration.get(ACTIVE_DEADLINE).toString()));
+		return activeDeadline + Math.min(activeDeadline, WATCHDOG_GRACE);
+	}
+
+	// asks the API directly in case the completion was missed, gives up on the job otherwise
+	private void checkCompletion(long timeout) {
+		try {
+			Job resource = client.extensions().jobs().inNamespace(namespace).withName(jobName).get();
+			if (null != resource) {
+				onJob(resource);
+			}
+		} catch (KubernetesClientException e) {
+			logger.warn("Unable to check the completion of " + jobName, e);
+		}
+		completion.completeExceptionally(new StepException("Job " + jobName + " did not complete within " + timeout + "ms", Reason.ExecutionTimeoutFailure));
+	}
+
+	// once too many pods failed, the job is scaled down so that the controller stops the others
+	private void countPodFailure(String name) {
+		List<String> failed;
+		synchronized (failedPods) {
+			if (!failedPods.add(name) || failedPods.size() != maxPodFailures) {
+				return;
+			}
+			failed = new ArrayList<>(failedPods);
+		}
+		// the step fails even if the job completes in the meantime
+		podFailureLimit = new StepException(failed.size() + " pods of job " + jobName + " failed, reaching the limit of " + maxPodFailures + ": " + String.join(", ", failed), Reason.PodFailureLimitFailure);
+		pluginLogger.log(0, failed.size() + " pods of job " + jobName + " failed, stopping it");
+		JobEngine.getInstance().supply(() -> client.extensions().jobs().inNamespace(namespace).withName(jobName).edit().editSpec().withParallelism(0).endSpec().done())
+			.whenComplete((stopped, e) -> {
+				if (null != e) {
+					logger.warn("Unable to scale down job " + jobName, JobEngine.unwrap(e));
+				}
+				// a job scaled down to 0 never gets a Complete or Failed condition, so it is completed
+				// here rather than through onJob; the logs of the pods finished so far are still collected
+				completion.complete(null != stopped ? stopped : job.getJobResource());
+			});
+	}
+
+	// a pod newly stuck fails the step unless it recovers within the grace period
+	private void analyzePod(Pod resource) {
+		String name = resource.getMetadata().getName();
+		PodAnalyzer.Diagnosis diagnosis = PodAnalyzer.diagnose(resource);
+		boolean newlyStuck;
+		synchronized (stuckPods) {
+			if (null == diagnosis) {
+				stuckPods.remove(name);
+				return;
+			}
+			StuckPod known = stuckPods.get(name);
+			newlyStuck = null == known;
+			stuckPods.put(name, new StuckPod(diagnosis, newlyStuck ? System.nanoTime() : known.since));
+		}
+		if (newlyStuck) {
+			pluginLogger.log(1, "Pod " + name + " " + diagnosis.getProblem().getDescription() + " (" + diagnosis.getReason() + "), the step fails unless it recovers within "
+				+ TimeUnit.MILLISECONDS.toSeconds(podFailureGrace) + "s");
+			scheduleStuckPodCheck(name, podFailureGrace);
+		}
+	}
+
+	// fails the step with the last event explaining why the pod is still stuck, if any
+	private void checkStuckPod(String name) {
+		StuckPod stuck;
+		synchronized (stuckPods) {
+			stuck = stuckPods.get(name);
+		}
+		if (null == stuck || completion.isDone()) {
+			return;
+		}
+		long remaining = podFailureGrace - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - stuck.since);
+		if (remaining > 0) {
+			// it recovered, then got stuck again
+			scheduleStuckPodCheck(name, remaining);
+			return;
+		}
+		String message = stuck.diagnosis.getMessage();
+		try {
+			List<Event> events = PodAnalyzer.events(client, namespace, name);
+			if (PodAnalyzer.Problem.UNSCHEDULABLE == stuck.diagnosis.getProblem() && PodAnalyzer.isScaleUpPending(events)) {
+				// a node is being added for it, the job deadline still applies
+				pluginLogger.log(2, "Pod " + name + " waits for the cluster to scale up");
+				scheduleStuckPodCheck(name, podFailureGrace);
+				return;
+			}
+			String eventMessage = PodAnalyzer.lastEventMessage(events);
+			if (null != eventMessage) {
+				message = eventMessage;
+			}
+		} catch (KubernetesClientException e) {
+			logger.warn("Unable to read the events of pod " + name, e);
+		}
+		Reason reason = PodAnalyzer.Problem.UNSCHEDULABLE == stuck.diagnosis.getProblem() ? Reason.PodUnschedulableFailure : Reason.ImagePullFailure;
+		completion.completeExceptionally(new StepException("Pod " + name + " " + stuck.diagnosis.getProblem().getDescription() + " (" + stuck.diagnosis.getReason() + ")"
+			+ (null != message ? ": " + message : ""), reason));
+	}
+
+	private void scheduleStuckPodCheck(String name, long delay) {
+		ScheduledFuture<?> check = JobEngine.getInstance().schedule(() -> checkStuckPod(name), delay);
+		completion.whenComplete((resource, e) -> check.cancel(false));
+	}
+
+	private static class StuckPod {
+		private final PodAnalyzer.Diagnosis diagnosis;
+		private final long since;
+
+		private StuckPod(PodAnalyzer.Diagnosis _diagnosis, long _since) {
+			diagnosis = _diagnosis;
+			since = _since;
+		}
+	}
+
+	private int intProperty(String property, int defaultValue) {
+		return null != configuration.get(property) ? Integer.valueOf(configuration.get(property).toString()) : defaultValue;
+	}
+
+	// the first pod of the job to be scheduled, then to start, gives the startup latency
+	private void recordPodTimes(Pod resource) {
+		String phase = resource.getStatus().getPhase();
+		boolean started = !"Pending".equals(phase);
+		String nodeName = null != resource.getSpec() ? resource.getSpec().getNodeName() : null;
+		boolean scheduled = started || null != nodeName;
+		if (null != resource.getStatus().getConditions()) {
+			for (PodCondition condition : resource.getStatus().getConditions()) {
+				scheduled |= "PodScheduled".equals(condition.getType()) && "True".equals(condition.getStatus());
+			}
+		}
+		// the events of an existing job may come before it is re-attached
+		if (scheduled && 0 != createdAt && podScheduled.compareAndSet(false, true)) {
+			histogram(Metrics.POD_SCHEDULED).recordSince(createdAt);
+		}
+		if (started && 0 != createdAt && podRunning.compareAndSet(false, true)) {
+			histogram(Metrics.POD_RUNNING).recordSince(createdAt);
+		}
+		if (imagePrewarm && null != nodeName && imageReported.compareAndSet(false, true)) {
+			reportImage(nodeName);
+		}
+	}
+
+	// whether the first pod landed on a node the image was pre-pulled on
+	private void reportImage(String nodeName) {
+		String image = job.getJobResource().getSpec().getTemplate().getSpec().getContainers().get(0).getImage();
+		String imageId = ImagePrewarmer.getInstance().getWarmImageId(client, image, nodeName);
+		if (null != imageId) {
+			counter(Metrics.IMAGE_WARM).increment();
+			pluginLogger.log(2, "Image " + image + " is warm on node " + nodeName + " (" + imageId + ")");
+		} else {
+			counter(Metrics.IMAGE_COLD).increment();
+			pluginLogger.log(2, "Image " + image + " is cold on node " + nodeName);
+		}
+	}
+
+	private Metrics.Histogram histogram(String name) {
+		return Metrics.getInstance().histogram(name, Metrics.NAMESPACE_TAG, namespace, Metrics.CLUSTER_TAG, Metrics.cluster(client));
+	}
+
+	private Metrics.Counter counter(String name) {
+		return Metrics.getInstance().counter(name, Metrics.NAMESPACE_TAG, namespace, Metrics.CLUSTER_TAG, Metrics.cluster(client));
+	}
+
+	private JobConfiguration buildJobConfiguration(String jobName, String execid) throws StepException {
+		// the configured labels are the same from one run to the next, their validation is memoized
+		final Map<String, String> labels = new HashMap<>();
+		if (configuration.containsKey(LABELS)) {
+		    final String configuredLabels = configuration.get(LABELS).toString();
+		    if (!configuredLabels.isEmpty()) {
+				labels.putAll(validateAndGetLabels(LABELKVSEPARATOR, LABELSEPARATOR, configuredLabels));
+			}
+		}
+		// add the job-name label in addition to the labels set in the job configuration
+		addLabel(labels, JobInformer.JOB_NAME_LABEL, jobName);
+		if (cleanup) {
+			// lets the orphan reaper delete the job if this execution never does
+			addLabel(labels, OrphanReaper.EXECUTION_LABEL, execid);
+			addLabel(labels, OrphanReaper.SERVER_LABEL, serverId);
+		}
+		if (fanOutIndex >= 0) {
+			addLabel(labels, FanOutExecution.INDEX_LABEL, String.valueOf(fanOutIndex));
+		}
+
+		JobConfiguration jobConfiguration = new JobConfiguration();
+		jobConfiguration.setName(jobName);
+		jobConfiguration.setLabels(labels);
+		if(null != configuration.get(COMMAND)) {
+			jobConfiguration.setCommand(configuration.get(COMMAND).toString(), options);
+		}
+		if(null != configuration.get(ARGUMENTS)) {
+			jobConfiguration.setArguments(configuration.get(ARGUMENTS).toString(), options);
+		}
+		return jobConfiguration;
+	}
+
+	private static void addLabel(Map<String, String> labels, String key, String value) throws StepException {
+		if (!validateLabel(LABELKVSEPARATOR, key + LABELKVSEPARATOR + value)) {
+			throw new StepException("Invalid label \"" + key + LABELKVSEPARATOR + value + "\"", Reason.UnexepectedFailure);
+		}
+		if (labels.containsKey(key)) {
+			throw new StepException("Duplicate label \"" + key + "\"", Reason.UnexepectedFailure);
+		}
+		labels.put(key, value);
+	}
+
+	// the configuration values the template depends on, options only when the volumes use them
+	private String templateKey() {
+		Map<String, Object> values = new HashMap<>();
+		for (String property : TEMPLATE_PROPERTIES) {
+			values.put(property, configuration.get(property));
+		}
+		if (usesOptions(PERSISTENT_VOLUME) || usesOptions(SECRET)) {
+			for (Map.Entry<String, String> option : options.entrySet()) {
+				values.put("option." + option.getKey(), option.getValue());
+			}
+		}
+		return JobTemplateCache.hash(values);
+	}
+
+	private boolean usesOptions(String property) {
+		return null != configuration.get(property) && configuration.get(property).toString().contains("${");
+	}
+
+	private JobConfiguration buildTemplateConfiguration() {
+		JobConfiguration jobConfiguration = new JobConfiguration();
+		jobConfiguration.setNamespace((String)configuration.get(NAMESPACE));
+		jobConfiguration.setImage((String)configuration.get(IMAGE));
+		jobConfiguration.setRestartPolicy((String)configuration.get(RESTART_POLICY));
+		jobConfiguration.setImagePullPolicy((String)configuration.get(IMAGE_PULL_POLICY));
+		jobConfiguration.setCompletions(Integer.valueOf(configuration.get(COMPLETIONS).toString()));
+		jobConfiguration.setParallelism(Integer.valueOf(configuration.get(PARALLELISM).toString()));
+		if(null != configuration.get(IMAGE_PULL_SECRETS)){
+			jobConfiguration.setImagePullSecrets(configuration.get(IMAGE_PULL_SECRETS).toString());
+		}
+		if(null != configuration.get(NODE_SELECTOR)) {
+			jobConfiguration.setNodeSelector(configuration.get(NODE_SELECTOR).toString());
+		}
+		if(null != configuration.get(ACTIVE_DEADLINE)){
+			jobConfiguration.setActiveDeadlineSeconds(Long.valueOf(configuration.get(ACTIVE_DEADLINE).toString()));
+		}
+		if(null != configuration.get(PERSISTENT_VOLUME)) {
+			try {
+				String persistentVolumeArray[] = configuration.get(PERSISTENT_VOLUME).toString().split("\\s*;\\s*");
+				jobConfiguration.setPersistentVolume(persistentVolumeArray[0], persistentVolumeArray[1], options);
+			}
+			catch (ArrayIndexOutOfBoundsException e) {
+				logger.error("Invalid format for " + PERSISTENT_VOLUME, e);
+			}
+		}
+		if(null != configuration.get(SECRET)) {
+			try {
+				String secretVolumeArray[] = configuration.get(SECRET).toString().split("\\s*;\\s*");
+				jobConfiguration.setSecret(secretVolumeArray[0], secretVolumeArray[1], options);
+			}
+			catch (ArrayIndexOutOfBoundsException e) {
+				logger.error("Invalid format for " + SECRET, e);
+			}
+		}
+		if(null != configuration.get(RESOURCE_REQUESTS) && !"".equals(configuration.get(RESOURCE_REQUESTS).toString())) {
+			try {
+				Map<String, Quantity> reqMap = new HashMap<>();
+				for (String resourceRequest: configuration.get(RESOURCE_REQUESTS).toString().split(" ")) {
+					String resourceRequestArray[] = resourceRequest.split(":");
+					reqMap.put(resourceRequestArray[0], new Quantity(resourceRequestArray[1]));
+				}
+				jobConfiguration.setResourceRequests(reqMap);
+			}
+			catch (ArrayIndexOutOfBoundsException e) {
+				logger.error("Invalid format for " + RESOURCE_REQUESTS, e);
+			}
+		}
+		return jobConfiguration;
+	}
+
+	private void terminate() {
+		if (null == jobRegistration) {
+			// the command ran in a pooled pod, there is no job
+			return;
+		}
+		jobRegistration.close();
+		if (null != logFollower) {
+			logFollower.close();
+		}
+		if (cleanup) {
+			// the cleaner owns the shared lease until the job is gone
+			JobCleaner.getInstance().delete(clientLease.share(), namespace, job.getJobResource().getMetadata().getName());
+		}
+	}
+}
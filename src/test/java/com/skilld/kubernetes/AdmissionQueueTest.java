@@ -0,0 +1,200 @@
+package com.skilld.kubernetes;
+
+import com.skilld.rundeck.plugin.step.kubernetes.MockKubernetesApi;
+import io.fabric8.kubernetes.api.model.Job;
+import io.fabric8.kubernetes.api.model.JobSpec;
+import io.fabric8.kubernetes.api.model.Quantity;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import io.fabric8.kubernetes.client.server.mock.KubernetesServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class AdmissionQueueTest {
+
+    private static final String NAMESPACE = "test";
+
+    @Rule
+    public final KubernetesServer server = new KubernetesServer(false);
+
+    private MockKubernetesApi api;
+    private ClientCache clientCache;
+    private String masterUrl;
+
+    @Before
+    public void setUp() {
+        api = new MockKubernetesApi(10);
+        server.getMockServer().setDispatcher(api);
+        clientCache = new ClientCache(60000);
+        masterUrl = server.getMockServer().url("/").toString();
+    }
+
+    @After
+    public void tearDown() {
+        api.shutdown();
+    }
+
+    @Test
+    public void parse() {
+        assertEquals(0.5, AdmissionQueue.parse(new Quantity("500m")), 1e-9);
+        assertEquals(2, AdmissionQueue.parse(new Quantity("2")), 1e-9);
+        assertEquals(1024, AdmissionQueue.parse(new Quantity("1Ki")), 1e-9);
+        assertEquals(128 * 1024 * 1024, AdmissionQueue.parse(new Quantity("128Mi")), 1e-9);
+        assertEquals(1e9, AdmissionQueue.parse(new Quantity("1G")), 1e-9);
+        assertEquals(1000, AdmissionQueue.parse(new Quantity("1e3")), 1e-9);
+        assertEquals(0.25, AdmissionQueue.parse(new Quantity("250", "m")), 1e-9);
+    }
+
+    // the pods running at once request the resources of their containers
+    @Test
+    public void demand() {
+        final JobSpec spec = job("demand", 3, 2).getSpec();
+        spec.getTemplate().getSpec().getContainers().get(0).getResources().getRequests().put("cpu", new Quantity("250m"));
+        spec.getTemplate().getSpec().getContainers().get(0).getResources().getRequests().put("memory", new Quantity("64Mi"));
+        final Map<String, Double> demand = AdmissionQueue.demand(spec);
+        assertEquals(2, demand.get(AdmissionQueue.PODS), 1e-9);
+        assertEquals(0.5, demand.get(AdmissionQueue.REQUESTS_CPU), 1e-9);
+        assertEquals(128 * 1024 * 1024, demand.get(AdmissionQueue.REQUESTS_MEMORY), 1e-9);
+        assertEquals(1, demand.get(AdmissionQueue.JOBS), 1e-9);
+    }
+
+    // past the burst, creations are admitted at the rate of the bucket
+    @Test
+    public void rateLimit() throws Exception {
+        final AdmissionQueue queue = new AdmissionQueue(10, 1, 0);
+        try (ClientCache.Lease lease = clientCache.acquire(masterUrl, null, false)) {
+            final List<CompletableFuture<Long>> admissions = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                admissions.add(queue.submit(lease.getClient(), NAMESPACE, job("rate-" + i, 1, 1), System::nanoTime));
+            }
+            final long first = admissions.get(0).get(5, TimeUnit.SECONDS);
+            final long last = admissions.get(4).get(5, TimeUnit.SECONDS);
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(last - first) >= 350);
+        }
+    }
+
+    // the rate and burst of a submission replace the defaults of the queue
+    @Test
+    public void submissionRate() throws Exception {
+        final AdmissionQueue queue = new AdmissionQueue(1, 1, 0);
+        try (ClientCache.Lease lease = clientCache.acquire(masterUrl, null, false)) {
+            final List<CompletableFuture<Long>> admissions = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                admissions.add(queue.submit(lease.getClient(), NAMESPACE, 1000, 5, job("fast-" + i, 1, 1), System::nanoTime));
+            }
+            final long first = admissions.get(0).get(5, TimeUnit.SECONDS);
+            final long last = admissions.get(4).get(5, TimeUnit.SECONDS);
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(last - first) < 500);
+        }
+    }
+
+    // the clients of different tokens share the queue of a namespace and its rate
+    @Test
+    public void laneSharedByTokens() throws Exception {
+        final AdmissionQueue queue = new AdmissionQueue(10, 1, 0);
+        try (ClientCache.Lease first = clientCache.acquire(masterUrl, "token-a", false);
+             ClientCache.Lease second = clientCache.acquire(masterUrl, "token-b", false)) {
+            assertNotSame(first.getClient(), second.getClient());
+            final List<CompletableFuture<Long>> admissions = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                admissions.add(queue.submit((0 == i % 2 ? first : second).getClient(), NAMESPACE, job("shared-" + i, 1, 1), System::nanoTime));
+            }
+            assertEquals(1, queue.size());
+            final long start = admissions.get(0).get(5, TimeUnit.SECONDS);
+            final long end = admissions.get(3).get(5, TimeUnit.SECONDS);
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(end - start) >= 250);
+        }
+    }
+
+    // the queue of a namespace is dropped once idle, its tokens back
+    @Test
+    public void idleLaneRemoved() throws Exception {
+        final AdmissionQueue queue = new AdmissionQueue(10, 1, 0);
+        try (ClientCache.Lease lease = clientCache.acquire(masterUrl, null, false)) {
+            queue.submit(lease.getClient(), NAMESPACE, job("idle", 1, 1), System::nanoTime).get(5, TimeUnit.SECONDS);
+            assertEquals(1, queue.size());
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (0 != queue.size()) {
+                assertTrue("the lane should be removed", System.currentTimeMillis() < deadline);
+                Thread.sleep(50);
+            }
+            // a new lane serves the next creation
+            assertNotNull(queue.submit(lease.getClient(), NAMESPACE, job("again", 1, 1), System::nanoTime).get(5, TimeUnit.SECONDS));
+        }
+    }
+
+    // jobs wait for room in the quota, a job larger than the quota fails
+    @Test
+    public void quota() throws Exception {
+        api.setQuota(NAMESPACE, "pods", "2");
+        final AdmissionQueue queue = new AdmissionQueue(100, 10, 500);
+        try (ClientCache.Lease lease = clientCache.acquire(masterUrl, null, false)) {
+            final KubernetesClient client = lease.getClient();
+            final List<CompletableFuture<Job>> results = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                final Job job = job("quota-" + i, 1, 1);
+                results.add(queue.submit(client, NAMESPACE, job, () -> client.extensions().jobs().inNamespace(NAMESPACE).create(job)));
+            }
+            for (CompletableFuture<Job> result : results) {
+                assertNotNull(result.get(30, TimeUnit.SECONDS));
+            }
+            assertTrue(api.getMaxRunningJobs() <= 2);
+
+            try {
+                queue.submit(client, NAMESPACE, job("large", 3, 3), () -> null).get(5, TimeUnit.SECONDS);
+                fail("a job larger than the quota should be rejected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause().getMessage(), e.getCause().getMessage().contains("more pods"));
+            }
+        }
+    }
+
+    // throttled creations are retried, existing jobs are not
+    @Test
+    public void retry() throws Exception {
+        final AdmissionQueue queue = new AdmissionQueue(100, 10, 0);
+        try (ClientCache.Lease lease = clientCache.acquire(masterUrl, null, false)) {
+            final KubernetesClient client = lease.getClient();
+            final Job job = job("retry", 1, 1);
+            api.rejectCreates(2, 429);
+            assertNotNull(queue.submit(client, NAMESPACE, job, () -> client.extensions().jobs().inNamespace(NAMESPACE).create(job)).get(10, TimeUnit.SECONDS));
+            assertEquals(3, (int) api.getCalls().get("POST jobs"));
+            assertTrue(Metrics.getInstance().counter(Metrics.JOB_CREATE_RETRIES,
+                    Metrics.NAMESPACE_TAG, NAMESPACE, Metrics.CLUSTER_TAG, Metrics.cluster(client)).getCount() >= 2);
+
+            try {
+                queue.submit(client, NAMESPACE, job, () -> client.extensions().jobs().inNamespace(NAMESPACE).create(job)).get(10, TimeUnit.SECONDS);
+                fail("the job already exists");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof KubernetesClientException);
+            }
+            assertEquals(4, (int) api.getCalls().get("POST jobs"));
+        }
+    }
+
+    private static Job job(String name, int parallelism, int completions) {
+        return new io.fabric8.kubernetes.api.model.JobBuilder()
+                .withNewMetadata().withName(name).addToLabels(JobInformer.JOB_NAME_LABEL, name).endMetadata()
+                .withNewSpec()
+                    .withParallelism(parallelism)
+                    .withCompletions(completions)
+                    .withNewTemplate()
+                        .withNewSpec()
+                            .addNewContainer().withName(name).withImage("busybox").withNewResources().endResources().endContainer()
+                        .endSpec()
+                    .endTemplate()
+                .endSpec()
+                .build();
+    }
+}
@@ -0,0 +1,85 @@
+package com.skilld.kubernetes;
+
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.KubernetesClientException;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.MockWebServer;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ClientCacheTest {
+
+    private static final String MASTER = "https://kubernetes.example.com";
+
+    // the same cluster settings share one client
+    @Test
+    public void acquireSharesClient() {
+        final ClientCache cache = new ClientCache(60000);
+        try (ClientCache.Lease first = cache.acquire(MASTER, "token", false);
+             ClientCache.Lease second = cache.acquire(MASTER, "token", false)) {
+            assertSame(first.getClient(), second.getClient());
+            assertEquals(1, cache.size());
+
+            try (ClientCache.Lease other = cache.acquire(MASTER, "token", true)) {
+                assertNotSame(first.getClient(), other.getClient());
+                assertEquals(2, cache.size());
+            }
+        }
+    }
+
+    // released clients stay cached until they have been idle long enough
+    @Test
+    public void evictIdle() {
+        final ClientCache cache = new ClientCache(0);
+        final ClientCache.Lease lease = cache.acquire(MASTER, "token", false);
+        cache.evictIdle();
+        assertEquals(1, cache.size());
+
+        lease.close();
+        // closing twice must not release the client twice
+        lease.close();
+        cache.evictIdle();
+        assertEquals(0, cache.size());
+    }
+
+    // the tokens of different service accounts on one cluster are cached side by side
+    @Test
+    public void tokensShareCluster() {
+        final ClientCache cache = new ClientCache(60000);
+        try (ClientCache.Lease first = cache.acquire(MASTER, "first-token", false);
+             ClientCache.Lease second = cache.acquire(MASTER, "second-token", false);
+             ClientCache.Lease again = cache.acquire(MASTER, "first-token", false)) {
+            assertNotSame(first.getClient(), second.getClient());
+            assertSame(first.getClient(), again.getClient());
+            assertEquals(2, cache.size());
+        }
+    }
+
+    // credentials rejected by the server invalidate the client, the next lease gets a new one
+    @Test
+    public void unauthorizedInvalidates() throws Exception {
+        final MockWebServer server = new MockWebServer();
+        server.enqueue(new MockResponse().setResponseCode(401));
+        server.start();
+        try {
+            final ClientCache cache = new ClientCache(60000);
+            final KubernetesClient rejected;
+            try (ClientCache.Lease lease = cache.acquire(server.url("/").toString(), "revoked", false)) {
+                rejected = lease.getClient();
+                try {
+                    rejected.pods().inNamespace("test").list();
+                    fail("the list should be rejected");
+                } catch (KubernetesClientException e) {
+                    assertEquals(401, e.getCode());
+                }
+                assertEquals(0, cache.size());
+            }
+            try (ClientCache.Lease lease = cache.acquire(server.url("/").toString(), "revoked", false)) {
+                assertNotSame(rejected, lease.getClient());
+            }
+        } finally {
+            server.shutdown();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.skilld.kubernetes;
+
+import com.skilld.rundeck.plugin.step.kubernetes.MockKubernetesApi;
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodSpec;
+import io.fabric8.kubernetes.api.model.PodSpecBuilder;
+import io.fabric8.kubernetes.api.model.extensions.DaemonSet;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.server.mock.KubernetesServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class ImagePrewarmerTest {
+
+    private static final String NAMESPACE = "test";
+
+    @Rule
+    public final KubernetesServer server = new KubernetesServer(false);
+
+    private MockKubernetesApi api;
+    private ClientCache clientCache;
+    private String masterUrl;
+
+    @Before
+    public void setUp() {
+        api = new MockKubernetesApi(10);
+        server.getMockServer().setDispatcher(api);
+        clientCache = new ClientCache(60000);
+        masterUrl = server.getMockServer().url("/").toString();
+    }
+
+    @After
+    public void tearDown() {
+        api.shutdown();
+    }
+
+    // the images of a node selector are pulled by one DaemonSet, then known warm on every node
+    @Test
+    public void prewarm() throws Exception {
+        final ImagePrewarmer prewarmer = new ImagePrewarmer(clientCache, 60000, 60000, 60000);
+        prewarmer.register(masterUrl, null, false, NAMESPACE, spec("busybox"));
+        prewarmer.register(masterUrl, null, false, NAMESPACE, spec("alpine"));
+        prewarmer.register(masterUrl, null, false, NAMESPACE, spec("busybox"));
+        // without sh, its container idles with the busybox of the init container
+        prewarmer.register(masterUrl, null, false, NAMESPACE, spec("distroless"));
+
+        final String name = ImagePrewarmer.daemonSetName(Collections.singletonMap("disk", "ssd"));
+        try (ClientCache.Lease lease = clientCache.acquire(masterUrl, null, false)) {
+            final KubernetesClient client = lease.getClient();
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (null == prewarmer.getWarmImageId(client, "distroless", "node-2")) {
+                assertTrue("alpine should be warm", System.currentTimeMillis() < deadline);
+                Thread.sleep(20);
+            }
+            final DaemonSet daemonSet = client.extensions().daemonSets().inNamespace(NAMESPACE).withName(name).get();
+            assertEquals(Arrays.asList("alpine", "busybox", "distroless"), daemonSet.getSpec().getTemplate().getSpec().getContainers().stream()
+                    .map(container -> container.getImage()).collect(Collectors.toList()));
+            assertEquals(Collections.singletonMap("disk", "ssd"), daemonSet.getSpec().getTemplate().getSpec().getNodeSelector());
+            assertEquals(ImagePrewarmer.IDLE_IMAGE, daemonSet.getSpec().getTemplate().getSpec().getInitContainers().get(0).getImage());
+            for (Container container : daemonSet.getSpec().getTemplate().getSpec().getContainers()) {
+                assertEquals(ImagePrewarmer.IDLE_BINARY, container.getCommand().get(0));
+                assertNotNull(container.getResources().getLimits().get("memory"));
+            }
+            for (Pod pod : api.getPods(NAMESPACE, ImagePrewarmer.PREWARM_LABEL + "=" + name)) {
+                assertTrue(pod.getStatus().getContainerStatuses().stream().allMatch(status -> null != status.getState().getRunning()));
+            }
+            for (String node : MockKubernetesApi.NODES) {
+                assertEquals(api.imageIdOf("busybox"), prewarmer.getWarmImageId(client, "busybox", node));
+                assertEquals(api.imageIdOf("alpine"), prewarmer.getWarmImageId(client, "alpine", node));
+            }
+            assertNull(prewarmer.getWarmImageId(client, "busybox", "node-3"));
+            assertNull(prewarmer.getWarmImageId(client, "ubuntu", "node-1"));
+        }
+
+        // nothing changed, nothing is applied unless forced
+        assertEquals(0, prewarmer.prewarm(false));
+        assertEquals(1, prewarmer.prewarm(true));
+    }
+
+    // images no step registered within the TTL are dropped, then the DaemonSet along with the last one
+    @Test
+    public void expireImages() throws Exception {
+        final ImagePrewarmer prewarmer = new ImagePrewarmer(clientCache, 60000, 60000, 500);
+        final String name = ImagePrewarmer.daemonSetName(Collections.singletonMap("disk", "ssd"));
+        prewarmer.register(masterUrl, null, false, NAMESPACE, spec("busybox"));
+        try (ClientCache.Lease lease = clientCache.acquire(masterUrl, null, false)) {
+            final KubernetesClient client = lease.getClient();
+            final long deadline = System.currentTimeMillis() + 5000;
+            while (null == prewarmer.getWarmImageId(client, "busybox", "node-1")) {
+                assertTrue("busybox should be warm", System.currentTimeMillis() < deadline);
+                Thread.sleep(20);
+            }
+            Thread.sleep(300);
+            prewarmer.register(masterUrl, null, false, NAMESPACE, spec("alpine"));
+            Thread.sleep(300);
+
+            assertEquals(1, prewarmer.prewarm(false));
+            assertEquals(Collections.singletonList("alpine"), api.getDaemonSet(NAMESPACE, name).getSpec().getTemplate().getSpec().getContainers().stream()
+                    .map(container -> container.getImage()).collect(Collectors.toList()));
+            assertNull(prewarmer.getWarmImageId(client, "busybox", "node-1"));
+            assertEquals(api.imageIdOf("alpine"), prewarmer.getWarmImageId(client, "alpine", "node-1"));
+
+            Thread.sleep(500);
+            assertEquals(0, prewarmer.prewarm(false));
+            assertNull(api.getDaemonSet(NAMESPACE, name));
+            assertTrue(api.getPods(NAMESPACE, ImagePrewarmer.PREWARM_LABEL + "=" + name).isEmpty());
+            assertNull(prewarmer.getWarmImageId(client, "alpine", "node-1"));
+        }
+    }
+
+    private static PodSpec spec(String image) {
+        return new PodSpecBuilder()
+                .addToNodeSelector("disk", "ssd")
+                .addNewContainer().withName("main").withImage(image).endContainer()
+                .build();
+    }
+}
@@ -0,0 +1,78 @@
+package com.skilld.kubernetes;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+
+public class JobEngineTest {
+
+    @Test
+    public void supply() throws Exception {
+        final JobEngine engine = new JobEngine(1);
+        assertEquals("done", engine.supply(() -> "done").get(1, TimeUnit.SECONDS));
+        try {
+            engine.supply(() -> {
+                throw new IOException("unreachable");
+            }).get(1, TimeUnit.SECONDS);
+            fail("the call should fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IOException);
+        }
+    }
+
+    @Test
+    public void until() throws Exception {
+        final JobEngine engine = new JobEngine(1);
+        final AtomicBoolean condition = new AtomicBoolean();
+        final CompletableFuture<Boolean> holds = engine.until(condition::get, 5000);
+        engine.schedule(() -> condition.set(true), 200);
+        assertTrue(holds.get(2, TimeUnit.SECONDS));
+
+        final long start = System.currentTimeMillis();
+        assertFalse(engine.until(() -> false, 300).get(2, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 300);
+    }
+
+    @Test
+    public void unwrap() {
+        final IOException cause = new IOException("failed");
+        assertSame(cause, JobEngine.unwrap(new CompletionException(new ExecutionException(cause))));
+        assertSame(cause, JobEngine.unwrap(cause));
+    }
+
+    // a thousand pending stages are served by the two workers, none of them waiting
+    @Test
+    public void manyOutstanding() throws Exception {
+        final JobEngine engine = new JobEngine(2);
+        final Set<String> threads = Collections.newSetFromMap(new ConcurrentHashMap<>());
+        final List<CompletableFuture<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            final int value = i;
+            final CompletableFuture<Integer> event = new CompletableFuture<>();
+            results.add(engine.track(event.thenCompose(v -> engine.supply(() -> {
+                threads.add(Thread.currentThread().getName());
+                return v;
+            }))));
+            engine.schedule(() -> event.complete(value), 500);
+        }
+        assertEquals(1000, engine.getOutstanding());
+
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i, (int) results.get(i).get(5, TimeUnit.SECONDS));
+        }
+        assertTrue(engine.until(() -> 0 == engine.getOutstanding(), 1000).get());
+        assertEquals(Collections.singleton("kubernetes-job-engine"), threads);
+    }
+}
@@ -0,0 +1,107 @@
+package com.skilld.kubernetes;
+
+import io.fabric8.kubernetes.api.model.Job;
+import io.fabric8.kubernetes.api.model.Quantity;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class JobTemplateCacheTest {
+
+    // an instantiated template is the job the builder makes from the whole configuration
+    @Test
+    public void instantiateMatchesBuilder() {
+        final JobConfiguration template = templateConfiguration();
+        final JobConfiguration run = runConfiguration("job-1");
+
+        final JobConfiguration whole = templateConfiguration();
+        whole.setName(run.getName());
+        whole.setLabels(run.getLabels());
+        whole.setCommand("sh -c 'echo ${greeting}'", options());
+        whole.setArguments("--verbose", options());
+
+        assertEquals(JobBuilder.build(whole), new JobTemplate(template).instantiate(run));
+    }
+
+    // instances never share state with the template or with each other
+    @Test
+    public void instancesAreIndependent() {
+        final JobTemplate template = new JobTemplate(templateConfiguration());
+        final Job first = template.instantiate(runConfiguration("job-1"));
+        first.getSpec().getTemplate().getSpec().getContainers().get(0).getCommand().add("mutated");
+        first.getMetadata().getLabels().put("mutated", "true");
+
+        final Job second = template.instantiate(runConfiguration("job-2"));
+        assertEquals("job-2", second.getMetadata().getName());
+        assertEquals("job-2", second.getSpec().getTemplate().getSpec().getContainers().get(0).getName());
+        assertFalse(second.getMetadata().getLabels().containsKey("mutated"));
+        assertFalse(second.getSpec().getTemplate().getSpec().getContainers().get(0).getCommand().contains("mutated"));
+    }
+
+    // the least recently used template is evicted once the cache is full
+    @Test
+    public void evictLeastRecentlyUsed() {
+        final JobTemplateCache cache = new JobTemplateCache(2);
+        final JobTemplate a = cache.get("a", JobTemplateCacheTest::templateConfiguration);
+        cache.get("b", JobTemplateCacheTest::templateConfiguration);
+        assertSame(a, cache.get("a", JobTemplateCacheTest::templateConfiguration));
+        cache.get("c", JobTemplateCacheTest::templateConfiguration);
+
+        assertEquals(2, cache.size());
+        assertSame(a, cache.get("a", JobTemplateCacheTest::templateConfiguration));
+        assertEquals(2, cache.getHits());
+        assertEquals(3, cache.getMisses());
+        cache.get("b", JobTemplateCacheTest::templateConfiguration);
+        assertEquals(4, cache.getMisses());
+    }
+
+    @Test
+    public void hash() {
+        final Map<String, Object> values = new HashMap<>();
+        values.put("image", "busybox");
+        values.put("completions", 1);
+        values.put("secret", null);
+        final String hash = JobTemplateCache.hash(values);
+        assertEquals(hash, JobTemplateCache.hash(new HashMap<>(values)));
+        assertFalse(hash.contains("busybox"));
+
+        values.put("image", "alpine");
+        assertNotEquals(hash, JobTemplateCache.hash(values));
+        // value boundaries matter
+        assertNotEquals(JobTemplateCache.hash(Collections.singletonMap("ab", "c")), JobTemplateCache.hash(Collections.singletonMap("a", "bc")));
+    }
+
+    private static JobConfiguration templateConfiguration() {
+        final JobConfiguration configuration = new JobConfiguration();
+        configuration.setNamespace("test");
+        configuration.setImage("busybox");
+        configuration.setRestartPolicy("Never");
+        configuration.setImagePullPolicy("IfNotPresent");
+        configuration.setCompletions(1);
+        configuration.setParallelism(1);
+        configuration.setImagePullSecrets("registry");
+        configuration.setNodeSelector("disk=ssd");
+        configuration.setActiveDeadlineSeconds(60L);
+        configuration.setPersistentVolume("data", "/data", options());
+        configuration.setSecret("credentials", "/secrets", options());
+        configuration.setResourceRequests(Collections.singletonMap("cpu", new Quantity("100m")));
+        return configuration;
+    }
+
+    private static JobConfiguration runConfiguration(String name) {
+        final JobConfiguration configuration = new JobConfiguration();
+        configuration.setName(name);
+        configuration.setLabels(Collections.singletonMap("job-name", name));
+        configuration.setCommand("sh -c 'echo ${greeting}'", options());
+        configuration.setArguments("--verbose", options());
+        return configuration;
+    }
+
+    private static Map<String, String> options() {
+        return Collections.singletonMap("greeting", "hello");
+    }
+}
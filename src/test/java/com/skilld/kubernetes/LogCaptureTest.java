@@ -0,0 +1,112 @@
+package com.skilld.kubernetes;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class LogCaptureTest {
+
+    // 10 lines of 10 bytes each: "line-0000\n" ... "line-0009\n"
+    private static final String LOG = IntStream.range(0, 10)
+            .mapToObj(i -> String.format("line-%04d\n", i))
+            .collect(Collectors.joining());
+
+    private static List<String> capture(LogCapture.Policy policy, int limit, String log) throws Exception {
+        final List<String> lines = new ArrayList<>();
+        try (LogCapture capture = new LogCapture(policy, limit)) {
+            capture.capture(new ByteArrayInputStream(log.getBytes(StandardCharsets.UTF_8)));
+            capture.emit(lines::add);
+        }
+        return lines;
+    }
+
+    @Test
+    public void fullInMemory() throws Exception {
+        final List<String> lines = capture(LogCapture.Policy.FULL, 1024, LOG);
+        assertEquals(10, lines.size());
+        assertEquals("line-0000", lines.get(0));
+        assertEquals("line-0009", lines.get(9));
+    }
+
+    // logs bigger than the limit are spilled to disk but still emitted entirely
+    @Test
+    public void fullSpilled() throws Exception {
+        final List<String> lines = capture(LogCapture.Policy.FULL, 15, LOG);
+        assertEquals(10, lines.size());
+        assertEquals("line-0005", lines.get(5));
+    }
+
+    @Test
+    public void tail() throws Exception {
+        // the last 25 bytes hold half of line 7, and lines 8 and 9
+        final List<String> lines = capture(LogCapture.Policy.TAIL, 25, LOG);
+        assertEquals(Arrays.asList("[... 75 bytes skipped ...]", "line-0008", "line-0009"), lines);
+
+        // nothing is skipped when the log fits
+        assertEquals(10, capture(LogCapture.Policy.TAIL, 100, LOG).size());
+    }
+
+    @Test
+    public void headTail() throws Exception {
+        final List<String> lines = capture(LogCapture.Policy.HEAD_TAIL, 20, LOG);
+        assertEquals(Arrays.asList("line-0000", "line-0001", "[... 60 bytes skipped ...]", "line-0008", "line-0009"), lines);
+
+        // the head and the tail together cover the log
+        assertEquals(10, capture(LogCapture.Policy.HEAD_TAIL, 50, LOG).size());
+    }
+
+    // the ring buffer keeps the right bytes when the log is read in many small chunks
+    @Test
+    public void tailSmallReads() throws Exception {
+        final List<String> lines = new ArrayList<>();
+        try (LogCapture capture = new LogCapture(LogCapture.Policy.TAIL, 30)) {
+            final byte[] bytes = LOG.getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < bytes.length; i += 7) {
+                capture.capture(new ByteArrayInputStream(bytes, i, Math.min(7, bytes.length - i)));
+            }
+            capture.emit(lines::add);
+        }
+        assertEquals(Arrays.asList("[... 70 bytes skipped ...]", "line-0007", "line-0008", "line-0009"), lines);
+    }
+
+    // a log read as characters is captured as UTF-8
+    @Test
+    public void captureReader() throws Exception {
+        final List<String> lines = new ArrayList<>();
+        try (LogCapture capture = new LogCapture(LogCapture.Policy.FULL, 1024)) {
+            capture.capture(new StringReader("caf\u00e9\n\ud83d\ude80 done\n"));
+            assertEquals(16, capture.getTotalBytes());
+            capture.emit(lines::add);
+        }
+        assertEquals(Arrays.asList("caf\u00e9", "\ud83d\ude80 done"), lines);
+    }
+
+    // the buffers only grow with the log, up to the limit
+    @Test
+    public void buffersGrowWithLog() throws Exception {
+        try (LogCapture capture = new LogCapture(LogCapture.Policy.HEAD_TAIL, 1024 * 1024)) {
+            assertEquals(0, capture.getBufferSize());
+            capture.capture(new ByteArrayInputStream(LOG.getBytes(StandardCharsets.UTF_8)));
+            assertEquals(100, capture.getBufferSize());
+        }
+        try (LogCapture capture = new LogCapture(LogCapture.Policy.TAIL, 30)) {
+            capture.capture(new ByteArrayInputStream(LOG.getBytes(StandardCharsets.UTF_8)));
+            assertEquals(30, capture.getBufferSize());
+        }
+    }
+
+    @Test
+    public void policyValues() {
+        assertEquals(LogCapture.Policy.HEAD_TAIL, LogCapture.Policy.fromValue("headTail"));
+        assertEquals(LogCapture.Policy.TAIL, LogCapture.Policy.fromValue(LogCapture.Policy.TAIL.getValue()));
+    }
+}
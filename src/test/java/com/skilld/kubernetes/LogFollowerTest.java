@@ -0,0 +1,82 @@
+package com.skilld.kubernetes;
+
+import com.skilld.rundeck.plugin.step.kubernetes.MockKubernetesApi;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.server.mock.KubernetesServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class LogFollowerTest {
+
+    private static final String NAMESPACE = "test";
+
+    @Rule
+    public final KubernetesServer server = new KubernetesServer(false);
+
+    private MockKubernetesApi api;
+    private ClientCache clientCache;
+    private String masterUrl;
+
+    @Before
+    public void setUp() {
+        api = new MockKubernetesApi(10);
+        server.getMockServer().setDispatcher(api);
+        clientCache = new ClientCache(60000);
+        masterUrl = server.getMockServer().url("/").toString();
+    }
+
+    @After
+    public void tearDown() {
+        api.shutdown();
+    }
+
+    // a stream ending before its pod is resumed after the last line read, not from the start
+    @Test
+    public void resumeAfterLastLine() throws Exception {
+        try (ClientCache.Lease lease = clientCache.acquire(masterUrl, null, false)) {
+            final KubernetesClient client = lease.getClient();
+            client.extensions().jobs().inNamespace(NAMESPACE).createNew()
+                    .withNewMetadata().withName("hang-1").addToLabels(JobInformer.JOB_NAME_LABEL, "hang-1").endMetadata()
+                    .done();
+            await(() -> api.getPods(NAMESPACE, "job-name=hang-1").stream().anyMatch(pod -> "Running".equals(pod.getStatus().getPhase())));
+            final Pod pod = api.getPods(NAMESPACE, "job-name=hang-1").get(0);
+
+            final List<String> lines = new ArrayList<>();
+            try (LogFollower follower = new LogFollower(client, NAMESPACE, 10)) {
+                assertTrue(follower.follow(pod));
+                await(() -> {
+                    follower.drain(line -> lines.add(line.getText()));
+                    return 1 == lines.size();
+                });
+                api.appendLog(NAMESPACE, pod.getMetadata().getName(), "more\n");
+                await(() -> {
+                    follower.drain(line -> lines.add(line.getText()));
+                    return 2 == lines.size();
+                });
+                assertTrue(follower.end(pod, 0));
+                assertFalse(follower.end(pod, 0));
+                await(follower::isDone);
+                follower.drain(line -> lines.add(line.getText()));
+            }
+            assertEquals(Arrays.asList(api.logOf("hang-1"), "more"), lines);
+        }
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+}
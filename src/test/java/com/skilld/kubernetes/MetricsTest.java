@@ -0,0 +1,48 @@
+package com.skilld.kubernetes;
+
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.MBeanServerFactory;
+import javax.management.ObjectName;
+
+import static org.junit.Assert.*;
+
+public class MetricsTest {
+
+    @Test
+    public void histogram() {
+        final Metrics.Histogram histogram = new Metrics.Histogram();
+        assertEquals(0, histogram.get50thPercentile());
+        for (long value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(5050, histogram.getSum());
+        assertEquals(100, histogram.getMax());
+        assertEquals(50.5, histogram.getMean(), 0.001);
+        // percentiles are the upper bound of their bucket
+        assertEquals(50, histogram.get50thPercentile());
+        assertEquals(100, histogram.get95thPercentile());
+        assertEquals(100, histogram.get99thPercentile());
+        assertEquals(Long.valueOf(1), histogram.getBucketCounts().get(0));
+    }
+
+    // metrics are registered once per name and tags and readable over JMX
+    @Test
+    public void registeredOverJmx() throws Exception {
+        final MBeanServer server = MBeanServerFactory.newMBeanServer();
+        final Metrics metrics = new Metrics(server);
+        final Metrics.Histogram histogram = metrics.histogram(Metrics.JOB_CREATE, Metrics.NAMESPACE_TAG, "test", Metrics.CLUSTER_TAG, "kubernetes:443");
+        assertSame(histogram, metrics.histogram(Metrics.JOB_CREATE, Metrics.NAMESPACE_TAG, "test", Metrics.CLUSTER_TAG, "kubernetes:443"));
+        assertNotSame(histogram, metrics.histogram(Metrics.JOB_CREATE, Metrics.NAMESPACE_TAG, "other", Metrics.CLUSTER_TAG, "kubernetes:443"));
+        histogram.record(42);
+        metrics.counter(Metrics.WATCH_RECONNECTS, Metrics.NAMESPACE_TAG, "test").increment();
+
+        final ObjectName name = new ObjectName(Metrics.DOMAIN + ":type=Histogram,name=" + Metrics.JOB_CREATE
+                + ",namespace=\"test\",cluster=\"kubernetes:443\"");
+        assertEquals(1L, server.getAttribute(name, "Count"));
+        assertEquals(42L, server.getAttribute(name, "Max"));
+        assertEquals(1L, server.getAttribute(new ObjectName(Metrics.DOMAIN + ":type=Counter,name=" + Metrics.WATCH_RECONNECTS + ",namespace=\"test\""), "Count"));
+    }
+}
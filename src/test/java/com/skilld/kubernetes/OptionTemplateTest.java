@@ -0,0 +1,109 @@
+package com.skilld.kubernetes;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.Assert.*;
+
+public class OptionTemplateTest {
+
+    // the tokenizer the engine replaces
+    private static final Pattern REFERENCE_TOKENIZER = Pattern.compile("(\"(?:.(?!(?<!\\\\)\"))*.?\"|'(?:.(?!(?<!\\\\)'))*.?'|\\S+)");
+
+    @Test
+    public void render() {
+        final Map<String, String> options = new HashMap<>();
+        options.put("name", "world");
+        options.put("empty", "");
+        assertEquals("hello world!", OptionTemplate.compile("hello ${name}!").render(options));
+        assertEquals("world-world", OptionTemplate.compile("${name}-${name}").render(options));
+        assertEquals("[]", OptionTemplate.compile("[${empty}]").render(options));
+        assertEquals("no placeholder", OptionTemplate.compile("no placeholder").render(options));
+        assertEquals("${unknown} world", OptionTemplate.compile("${unknown} ${name}").render(options));
+        assertEquals("${name", OptionTemplate.compile("${name").render(options));
+        assertEquals("$name}", OptionTemplate.compile("$name}").render(options));
+        assertEquals("${aworld", OptionTemplate.compile("${a${name}").render(options));
+        assertEquals("", OptionTemplate.compile("").render(options));
+    }
+
+    @Test
+    public void compileIsShared() {
+        assertSame(OptionTemplate.compile("echo ${name}"), OptionTemplate.compile("echo ${name}"));
+    }
+
+    @Test
+    public void renderTokens() {
+        final Map<String, String> options = Collections.singletonMap("message", "hello world");
+        assertEquals(Arrays.asList("echo", "hello", "world"), OptionTemplate.compile("echo ${message}").renderTokens(options));
+        assertEquals(Arrays.asList("sh", "-c", "'echo hello world'"), OptionTemplate.compile("sh -c 'echo ${message}'").renderTokens(options));
+        assertEquals(Arrays.asList("\"a \\\" b\""), OptionTemplate.tokenize("\"a \\\" b\""));
+        assertEquals(Collections.emptyList(), OptionTemplate.tokenize(" \t\n "));
+    }
+
+    // the engine renders like sequential String.replace calls as long as values hold no placeholder
+    @Test
+    public void renderMatchesReplace() {
+        final Random random = new Random(42);
+        final String alphabet = "ab ${}$";
+        for (int i = 0; i < 20000; i++) {
+            final String input = randomString(random, alphabet, 12);
+            final Map<String, String> options = new HashMap<>();
+            options.put("a", randomString(random, "xy ", 3));
+            options.put("b", randomString(random, "xy ", 3));
+            options.put("", "empty");
+            assertEquals(input, referenceOption(input, options), OptionTemplate.compile(input).render(options));
+        }
+    }
+
+    // the tokenizer matches the regex, quotes, escapes and line breaks included
+    @Test
+    public void tokenizeMatchesRegex() {
+        final Random random = new Random(42);
+        final String alphabet = "ab \"'\\\n\r\t\u2028";
+        for (int i = 0; i < 50000; i++) {
+            final String input = randomString(random, alphabet, 16);
+            assertEquals(escape(input), referenceTokens(input), OptionTemplate.tokenize(input));
+        }
+        for (String input : Arrays.asList("\"\"", "\"\"x\"", "'a\\' b", "\"a\\\" b", "\"a\" b\"", "'unterminated", "\"x\ny\"", "a\"b c\"")) {
+            assertEquals(escape(input), referenceTokens(input), OptionTemplate.tokenize(input));
+        }
+    }
+
+    private static String referenceOption(String input, Map<String, String> options) {
+        for (Map.Entry<String, String> option : options.entrySet()) {
+            input = input.replace("${" + option.getKey() + "}", option.getValue());
+        }
+        return input;
+    }
+
+    private static List<String> referenceTokens(String input) {
+        final List<String> tokens = new ArrayList<>();
+        final Matcher matcher = REFERENCE_TOKENIZER.matcher(input);
+        while (matcher.find()) {
+            tokens.add(matcher.group(1));
+        }
+        return tokens;
+    }
+
+    private static String randomString(Random random, String alphabet, int maxLength) {
+        final StringBuilder builder = new StringBuilder();
+        final int length = random.nextInt(maxLength + 1);
+        for (int i = 0; i < length; i++) {
+            builder.append(alphabet.charAt(random.nextInt(alphabet.length())));
+        }
+        return builder.toString();
+    }
+
+    private static String escape(String input) {
+        return input.replace("\n", "\\n").replace("\r", "\\r").replace("\t", "\\t");
+    }
+}
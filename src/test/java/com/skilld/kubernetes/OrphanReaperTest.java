@@ -0,0 +1,139 @@
+package com.skilld.kubernetes;
+
+import com.skilld.rundeck.plugin.step.kubernetes.MockKubernetesApi;
+import io.fabric8.kubernetes.api.model.Job;
+import io.fabric8.kubernetes.client.KubernetesClient;
+import io.fabric8.kubernetes.client.server.mock.KubernetesServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class OrphanReaperTest {
+
+    private static final String NAMESPACE = "test";
+    private static final String SERVER = "server-a";
+
+    @Rule
+    public final KubernetesServer server = new KubernetesServer(false);
+
+    private MockKubernetesApi api;
+    private ClientCache clientCache;
+    private String masterUrl;
+
+    @Before
+    public void setUp() {
+        api = new MockKubernetesApi(10);
+        server.getMockServer().setDispatcher(api);
+        clientCache = new ClientCache(60000);
+        masterUrl = server.getMockServer().url("/").toString();
+    }
+
+    @After
+    public void tearDown() {
+        api.shutdown();
+    }
+
+    // finished jobs of executions no longer running are deleted, the others are kept
+    @Test
+    public void reapFinishedOrphans() throws Exception {
+        final Metrics.Counter reaped;
+        try (ClientCache.Lease lease = clientCache.acquire(masterUrl, null, false)) {
+            final KubernetesClient client = lease.getClient();
+            reaped = Metrics.getInstance().counter(Metrics.JOB_REAPED, Metrics.NAMESPACE_TAG, NAMESPACE, Metrics.CLUSTER_TAG, Metrics.cluster(client));
+            create(client, "orphan-1", SERVER, "1", false);
+            create(client, "active-2", SERVER, "2", false);
+            create(client, "unlabelled-3", null, null, false);
+            awaitFinished(client, "orphan-1", "active-2", "unlabelled-3");
+        }
+
+        final long baseReaped = reaped.getCount();
+        final OrphanReaper patient = new OrphanReaper(clientCache, 60000, 60000, 60000);
+        patient.track(masterUrl, null, false, NAMESPACE, SERVER, "2");
+        assertEquals(0, patient.reap());
+
+        final OrphanReaper reaper = new OrphanReaper(clientCache, 60000, 0, 60000);
+        final OrphanReaper.Tracking tracking = reaper.track(masterUrl, null, false, NAMESPACE, SERVER, "2");
+        assertEquals(1, reaper.reap());
+        assertEquals(1, api.getJobDeletions("orphan-1"));
+        assertEquals(0, api.getJobDeletions("active-2"));
+        assertEquals(0, api.getJobDeletions("unlabelled-3"));
+
+        tracking.close();
+        assertEquals(1, reaper.reap());
+        assertEquals(1, api.getJobDeletions("active-2"));
+        assertEquals(0, api.getJobDeletions("unlabelled-3"));
+        assertEquals(2, reaped.getCount() - baseReaped);
+    }
+
+    // running jobs of executions no longer running are deleted once older than the grace period
+    @Test
+    public void reapRunningOrphans() throws Exception {
+        try (ClientCache.Lease lease = clientCache.acquire(masterUrl, null, false)) {
+            final KubernetesClient client = lease.getClient();
+            create(client, "hang-1", SERVER, "1", false);
+            create(client, "hang-2", SERVER, "2", false);
+        }
+
+        final OrphanReaper patient = new OrphanReaper(clientCache, 60000, 60000, 60000);
+        patient.track(masterUrl, null, false, NAMESPACE, SERVER, "2");
+        assertEquals(0, patient.reap());
+
+        final OrphanReaper reaper = new OrphanReaper(clientCache, 60000, 0, 60000);
+        reaper.track(masterUrl, null, false, NAMESPACE, SERVER, "2");
+        assertEquals(1, reaper.reap());
+        assertEquals(1, api.getJobDeletions("hang-1"));
+        assertEquals(0, api.getJobDeletions("hang-2"));
+    }
+
+    // the jobs of other servers are never reaped, the jobs kept for re-attach after a longer grace period
+    @Test
+    public void keepOthersJobs() throws Exception {
+        try (ClientCache.Lease lease = clientCache.acquire(masterUrl, null, false)) {
+            final KubernetesClient client = lease.getClient();
+            create(client, "other-1", "server-b", "1", false);
+            create(client, "reattach-2", SERVER, "2", true);
+            awaitFinished(client, "other-1", "reattach-2");
+        }
+
+        final OrphanReaper reaper = new OrphanReaper(clientCache, 60000, 0, 60000);
+        reaper.track(masterUrl, null, false, NAMESPACE, SERVER, "3").close();
+        assertEquals(0, reaper.reap());
+        assertEquals(0, api.getJobDeletions("other-1"));
+        assertEquals(0, api.getJobDeletions("reattach-2"));
+
+        final OrphanReaper impatient = new OrphanReaper(clientCache, 60000, 0, 0);
+        impatient.track(masterUrl, null, false, NAMESPACE, SERVER, "3").close();
+        assertEquals(1, impatient.reap());
+        assertEquals(0, api.getJobDeletions("other-1"));
+        assertEquals(1, api.getJobDeletions("reattach-2"));
+    }
+
+    private static void create(KubernetesClient client, String name, String server, String execid, boolean reattach) {
+        final io.fabric8.kubernetes.api.model.JobBuilder builder = new io.fabric8.kubernetes.api.model.JobBuilder();
+        builder.withNewMetadata().withName(name).addToLabels(JobInformer.JOB_NAME_LABEL, name).endMetadata();
+        if (null != execid) {
+            builder.editMetadata().addToLabels(OrphanReaper.SERVER_LABEL, server).addToLabels(OrphanReaper.EXECUTION_LABEL, execid).endMetadata();
+        }
+        if (reattach) {
+            builder.editMetadata().addToAnnotations(com.skilld.kubernetes.Job.SPEC_HASH_ANNOTATION, "0").endMetadata();
+        }
+        client.extensions().jobs().inNamespace(NAMESPACE).create(builder.build());
+    }
+
+    private static void awaitFinished(KubernetesClient client, String... names) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        for (String name : names) {
+            while (true) {
+                final Job job = client.extensions().jobs().inNamespace(NAMESPACE).withName(name).get();
+                if (null != job.getStatus() && null != job.getStatus().getConditions() && !job.getStatus().getConditions().isEmpty()) {
+                    break;
+                }
+                assertTrue(name + " should finish", System.currentTimeMillis() < deadline);
+                Thread.sleep(20);
+            }
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.skilld.kubernetes;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class OutputDataTest {
+
+    @Test
+    public void keyValue() throws Exception {
+        final OutputData data = new OutputData();
+        write(data, "first line\nRUNDECK:DATA status=done\n  RUNDECK:DATA indented=no\nRUNDECK:DATA url = http://host/?a=b\nRUNDECK:DATA status=updated\r\nRUNDECK:DATA no value\nRUNDECK:DATA bad key=1\nRUNDECK:DATA last=1");
+        data.close();
+
+        final Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("status", "updated");
+        expected.put("url", "http://host/?a=b");
+        expected.put("last", "1");
+        assertEquals(expected, data.getValues());
+    }
+
+    @Test
+    public void json() throws Exception {
+        final OutputData data = new OutputData();
+        data.scan("RUNDECK:DATA {\"name\": \"report\", \"size\": 12, \"ok\": true, \"tags\": [\"x\"], \"meta\": {\"a\": 1}}");
+        data.scan("RUNDECK:DATA {invalid");
+        data.scan("RUNDECK:DATA [1, 2]");
+        data.scan("not RUNDECK:DATA a=b");
+
+        final Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("name", "report");
+        expected.put("size", "12");
+        expected.put("ok", "true");
+        expected.put("tags", "[\"x\"]");
+        expected.put("meta", "{\"a\":1}");
+        assertEquals(expected, data.getValues());
+    }
+
+    // a marker split across writes is still found, the bytes of other lines are not kept
+    @Test
+    public void streamed() throws Exception {
+        final OutputData data = new OutputData();
+        final byte[] huge = new byte[10 * OutputData.MAX_LINE];
+        Arrays.fill(huge, (byte) 'x');
+        data.write(huge);
+        data.write('\n');
+        final byte[] marked = "RUNDECK:DATA key=value\n".getBytes(StandardCharsets.UTF_8);
+        for (byte b : marked) {
+            data.write(new byte[]{b}, 0, 1);
+        }
+        // a marked line too long to keep is dropped, the next line is still parsed
+        data.write(("RUNDECK:DATA long=" + new String(huge, StandardCharsets.UTF_8) + "\nRUNDECK:DATA after=1\n").getBytes(StandardCharsets.UTF_8));
+        data.close();
+
+        final Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("key", "value");
+        expected.put("after", "1");
+        assertEquals(expected, data.getValues());
+    }
+
+    @Test
+    public void capture() throws Exception {
+        final OutputData data = new OutputData();
+        try (LogCapture capture = new LogCapture(LogCapture.Policy.TAIL, 4, data)) {
+            capture.capture(new java.io.StringReader("RUNDECK:DATA word=café\nmore output\n"));
+            assertEquals(36, capture.getTotalBytes());
+        }
+        data.close();
+        assertEquals("café", data.getValues().get("word"));
+    }
+
+    private static void write(OutputData data, String text) throws Exception {
+        data.write(text.getBytes(StandardCharsets.UTF_8));
+    }
+}
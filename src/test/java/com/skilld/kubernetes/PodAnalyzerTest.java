@@ -0,0 +1,82 @@
+package com.skilld.kubernetes;
+
+import io.fabric8.kubernetes.api.model.Event;
+import io.fabric8.kubernetes.api.model.EventBuilder;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.Assert.*;
+
+public class PodAnalyzerTest {
+
+    @Test
+    public void unschedulable() {
+        final PodAnalyzer.Diagnosis diagnosis = PodAnalyzer.diagnose(pending()
+                .editStatus()
+                    .addNewCondition().withType("PodScheduled").withStatus("False").withReason("Unschedulable").withMessage("no nodes").endCondition()
+                .endStatus()
+                .build());
+        assertEquals(PodAnalyzer.Problem.UNSCHEDULABLE, diagnosis.getProblem());
+        assertEquals("no nodes", diagnosis.getMessage());
+    }
+
+    // the image of an init container counts too
+    @Test
+    public void imagePull() {
+        final PodAnalyzer.Diagnosis diagnosis = PodAnalyzer.diagnose(pending()
+                .editStatus()
+                    .addNewInitContainerStatus().withName("init").withNewState().withNewWaiting().withReason("ErrImagePull").withMessage("not found").endWaiting().endState().endInitContainerStatus()
+                .endStatus()
+                .build());
+        assertEquals(PodAnalyzer.Problem.IMAGE_PULL, diagnosis.getProblem());
+        assertEquals("ErrImagePull", diagnosis.getReason());
+    }
+
+    // a pod waiting for anything else, running or being deleted is not stuck
+    @Test
+    public void notStuck() {
+        assertNull(PodAnalyzer.diagnose(pending().build()));
+        assertNull(PodAnalyzer.diagnose(pending()
+                .editStatus()
+                    .addNewContainerStatus().withName("main").withNewState().withNewWaiting().withReason("ContainerCreating").endWaiting().endState().endContainerStatus()
+                .endStatus()
+                .build()));
+        assertNull(PodAnalyzer.diagnose(pending()
+                .editStatus()
+                    .withPhase("Running")
+                    .addNewContainerStatus().withName("main").withNewState().withNewWaiting().withReason("ImagePullBackOff").endWaiting().endState().endContainerStatus()
+                .endStatus()
+                .build()));
+        assertNull(PodAnalyzer.diagnose(pending()
+                .editMetadata().withDeletionTimestamp("2026-10-22T09:30:00Z").endMetadata()
+                .editStatus()
+                    .addNewCondition().withType("PodScheduled").withStatus("False").withReason("Unschedulable").endCondition()
+                .endStatus()
+                .build()));
+    }
+
+    // a scale-up is pending until the autoscaler reports it can't add a node
+    @Test
+    public void scaleUpPending() {
+        final Event failed = event("Warning", "FailedScheduling", "2026-10-22T09:30:00Z");
+        final Event triggered = event("Normal", "TriggeredScaleUp", "2026-10-22T09:30:01Z");
+        assertFalse(PodAnalyzer.isScaleUpPending(Collections.singletonList(failed)));
+        assertTrue(PodAnalyzer.isScaleUpPending(Arrays.asList(failed, triggered, event("Warning", "FailedScheduling", "2026-10-22T09:30:30Z"))));
+        assertFalse(PodAnalyzer.isScaleUpPending(Arrays.asList(failed, triggered, event("Normal", "NotTriggerScaleUp", "2026-10-22T09:31:00Z"))));
+        assertEquals("FailedScheduling", PodAnalyzer.lastEventMessage(Arrays.asList(failed, triggered)));
+    }
+
+    private static Event event(String type, String reason, String timestamp) {
+        return new EventBuilder().withType(type).withReason(reason).withMessage(reason).withLastTimestamp(timestamp).build();
+    }
+
+    private static PodBuilder pending() {
+        return new PodBuilder()
+                .withNewMetadata().withName("pod").endMetadata()
+                .withNewStatus().withPhase("Pending").endStatus();
+    }
+}
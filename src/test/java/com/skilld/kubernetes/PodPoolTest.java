@@ -0,0 +1,154 @@
+package com.skilld.kubernetes;
+
+import com.skilld.rundeck.plugin.step.kubernetes.MockKubernetesApi;
+import io.fabric8.kubernetes.api.model.PodSpec;
+import io.fabric8.kubernetes.api.model.PodSpecBuilder;
+import io.fabric8.kubernetes.client.server.mock.KubernetesServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.*;
+
+public class PodPoolTest {
+
+    private static final String NAMESPACE = "test";
+    private static final String SELECTOR = PodPool.POOL_LABEL + "=profile";
+
+    @Rule
+    public final KubernetesServer server = new KubernetesServer(false);
+
+    private MockKubernetesApi api;
+    private ClientCache clientCache;
+    private String masterUrl;
+
+    @Before
+    public void setUp() {
+        api = new MockKubernetesApi(10);
+        server.getMockServer().setDispatcher(api);
+        clientCache = new ClientCache(60000);
+        masterUrl = server.getMockServer().url("/").toString();
+    }
+
+    @After
+    public void tearDown() {
+        api.shutdown();
+    }
+
+    // idle pods are used once, refilled, and their command output and exit code come back
+    @Test
+    public void execInPooledPods() throws Exception {
+        final PodPool podPool = new PodPool(50);
+        try (ClientCache.Lease lease = clientCache.acquire(masterUrl, null, false)) {
+            final PodPool.Pool pool = podPool.get(lease, NAMESPACE, "profile", spec(), 2, 3, 60000);
+            assertSame(pool, podPool.get(lease, NAMESPACE, "profile", spec(), 2, 3, 60000));
+            await(() -> 2 == api.getPods(NAMESPACE, SELECTOR).size());
+
+            final String podName = awaitAcquire(pool);
+            final List<String> output = new ArrayList<>();
+            final List<String> error = new ArrayList<>();
+            assertEquals(Integer.valueOf(0), pool.exec(podName, Arrays.asList("echo", "hello"), 5000, output::add, error::add).get());
+            assertEquals(Collections.singletonList("exec echo hello"), output);
+            assertEquals(Collections.emptyList(), error);
+            await(() -> api.getPods(NAMESPACE, SELECTOR).stream().noneMatch(pod -> pod.getMetadata().getName().equals(podName)));
+
+            assertEquals(Integer.valueOf(1), pool.exec(awaitAcquire(pool), Collections.singletonList("fail"), 0, output::add, error::add).get());
+            // the pool is refilled to its minimum
+            await(() -> 2 == api.getPods(NAMESPACE, SELECTOR).size());
+        }
+    }
+
+    // a miss grows the pool up to its maximum
+    @Test
+    public void growOnMiss() throws Exception {
+        final PodPool podPool = new PodPool(50);
+        try (ClientCache.Lease lease = clientCache.acquire(masterUrl, null, false)) {
+            final PodPool.Pool pool = podPool.get(lease, NAMESPACE, "profile", spec(), 0, 2, 60000);
+            assertNull(pool.acquire());
+            await(() -> 1 == api.getPods(NAMESPACE, SELECTOR).size());
+            assertNull(pool.acquire());
+            assertNull(pool.acquire());
+            await(() -> 2 == api.getPods(NAMESPACE, SELECTOR).size());
+            Thread.sleep(200);
+            assertEquals(2, api.getPods(NAMESPACE, SELECTOR).size());
+        }
+    }
+
+    // a settled pool lists its pods less and less often, until it is used again
+    @Test
+    public void backOffWhenSettled() throws Exception {
+        final PodPool podPool = new PodPool(50);
+        try (ClientCache.Lease lease = clientCache.acquire(masterUrl, null, false)) {
+            final PodPool.Pool pool = podPool.get(lease, NAMESPACE, "profile", spec(), 1, 2, 60000);
+            final String podName = awaitAcquire(pool);
+            pool.exec(podName, Collections.singletonList("true"), 5000, line -> { }, line -> { }).get();
+            await(() -> api.getPods(NAMESPACE, SELECTOR).stream().anyMatch(pod -> !pod.getMetadata().getName().equals(podName)
+                    && "Running".equals(pod.getStatus().getPhase())));
+
+            Thread.sleep(500);
+            final int lists = api.getCalls().get("GET pods");
+            Thread.sleep(2000);
+            // every 50 ms, that would be 40 lists
+            assertTrue(api.getCalls().toString(), api.getCalls().get("GET pods") - lists <= 5);
+
+            // used again, the pool is refilled without waiting for the backed off refresh
+            final long start = System.currentTimeMillis();
+            awaitAcquire(pool);
+            await(() -> 2 == api.getPods(NAMESPACE, SELECTOR).size());
+            assertTrue(System.currentTimeMillis() - start < 1000);
+        }
+    }
+
+    // a pool is dropped once its client is invalidated, the next one gets a new client
+    @Test
+    public void dropInvalidated() throws Exception {
+        final PodPool podPool = new PodPool(50);
+        try (ClientCache.Lease lease = clientCache.acquire(masterUrl, null, false)) {
+            podPool.get(lease, NAMESPACE, "profile", spec(), 1, 1, 60000);
+            await(() -> 1 == api.getPods(NAMESPACE, SELECTOR).size());
+            clientCache.invalidate(masterUrl);
+            assertFalse(lease.isValid());
+            await(() -> 0 == podPool.size());
+        }
+    }
+
+    // a pool whose API server is gone is dropped instead of refreshing until it expires
+    @Test
+    public void dropUnreachable() throws Exception {
+        final PodPool podPool = new PodPool(50);
+        try (ClientCache.Lease lease = clientCache.acquire("http://127.0.0.1:1/", null, false)) {
+            podPool.get(lease, NAMESPACE, "profile", spec(), 1, 1, 60000);
+            assertEquals(1, podPool.size());
+            await(() -> 0 == podPool.size());
+        }
+    }
+
+    private static PodSpec spec() {
+        return new PodSpecBuilder().addNewContainer().withName("main").withImage("busybox").endContainer().build();
+    }
+
+    private static String awaitAcquire(PodPool.Pool pool) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        String podName;
+        while (null == (podName = pool.acquire())) {
+            assertTrue("a pod should be ready", System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+        return podName;
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+}
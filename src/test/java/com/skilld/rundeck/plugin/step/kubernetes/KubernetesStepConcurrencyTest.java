@@ -0,0 +1,179 @@
+package com.skilld.rundeck.plugin.step.kubernetes;
+
+import com.dtolabs.rundeck.core.execution.workflow.steps.StepException;
+import com.skilld.kubernetes.JobCleaner;
+import com.skilld.kubernetes.JobInformer;
+import com.skilld.kubernetes.Metrics;
+import io.fabric8.kubernetes.client.server.mock.KubernetesServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class KubernetesStepConcurrencyTest {
+
+    private static final int EXECUTIONS = 100;
+
+    @Rule
+    public final KubernetesServer server = new KubernetesServer(false);
+
+    private MockKubernetesApi api;
+
+    @Before
+    public void setUp() {
+        api = new MockKubernetesApi(10);
+        server.getMockServer().setDispatcher(api);
+    }
+
+    @After
+    public void tearDown() {
+        // the informers of the test would otherwise watch on for their idle TTL
+        JobInformer.stopIdle();
+        api.shutdown();
+    }
+
+    static Map<String, Object> configuration(String kubeMaster) {
+        final Map<String, Object> configuration = new HashMap<>();
+        configuration.put(KubernetesStep.KUBE_MASTER, kubeMaster);
+        configuration.put(KubernetesStep.KUBE_SSL, "true");
+        configuration.put(KubernetesStep.IMAGE, "busybox");
+        configuration.put(KubernetesStep.IMAGE_PULL_POLICY, "IfNotPresent");
+        configuration.put(KubernetesStep.NAMESPACE, "test");
+        configuration.put(KubernetesStep.RESTART_POLICY, "Never");
+        configuration.put(KubernetesStep.COMPLETIONS, "1");
+        configuration.put(KubernetesStep.PARALLELISM, "1");
+        configuration.put(KubernetesStep.CLEAN_UP, "true");
+        configuration.put(KubernetesStep.LABELS, "");
+        return configuration;
+    }
+
+    // many executions sharing one plugin instance must only see and clean up their own job
+    @Test
+    public void concurrentExecutions() throws Exception {
+        final KubernetesStep step = new KubernetesStep(null);
+        final Map<String, Object> configuration = configuration(server.getMockServer().url("/").toString());
+        final ExecutorService executor = Executors.newFixedThreadPool(EXECUTIONS);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<String> jobNames = new ArrayList<>();
+        final List<StepContexts.RecordingLogger> loggers = new ArrayList<>();
+        final List<Future<StepException>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < EXECUTIONS; i++) {
+                final String name = i % 10 == 0 ? "fail" : "job";
+                final String execid = String.valueOf(i);
+                final StepContexts.RecordingLogger logger = new StepContexts.RecordingLogger();
+                jobNames.add(name + "-" + execid);
+                loggers.add(logger);
+                results.add(executor.submit(() -> {
+                    start.await();
+                    try {
+                        step.executeStep(StepContexts.create(name, execid, Collections.emptyMap(), logger), configuration);
+                        return null;
+                    } catch (StepException e) {
+                        return e;
+                    }
+                }));
+            }
+            start.countDown();
+
+            for (int i = 0; i < EXECUTIONS; i++) {
+                final String jobName = jobNames.get(i);
+                final StepException result = results.get(i).get(60, TimeUnit.SECONDS);
+                if (jobName.startsWith("fail")) {
+                    assertNotNull(jobName + " should fail", result);
+                    assertEquals(KubernetesStep.Reason.UnexepectedFailure, result.getFailureReason());
+                } else {
+                    assertNull(jobName + " should succeed", result);
+                }
+                // an execution logs the output of its own pod, and only of it
+                assertEquals(jobName, 1, loggers.get(i).getMessages().size());
+                for (String message : loggers.get(i).getMessages()) {
+                    assertTrue(message, message.startsWith(jobName + "-"));
+                    assertTrue(message, message.endsWith(" : " + api.logOf(jobName)));
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // jobs are deleted in the background, coalesced into a few collection deletes
+        assertTrue(JobCleaner.getInstance().awaitIdle(10000));
+        for (String jobName : jobNames) {
+            assertEquals(jobName, 1, api.getJobDeletions(jobName));
+        }
+        final Map<String, Integer> calls = api.getCalls();
+        assertTrue(calls.toString(), calls.get("DELETE jobs") < EXECUTIONS);
+        assertFalse(calls.toString(), calls.containsKey("DELETE pods"));
+
+        // every execution and API call is measured
+        final String cluster = server.getMockServer().url("/").host() + ":" + server.getMockServer().url("/").port();
+        assertEquals(EXECUTIONS, Metrics.getInstance().histogram(Metrics.JOB_COMPLETE,
+                Metrics.NAMESPACE_TAG, "test", Metrics.CLUSTER_TAG, cluster).getCount());
+        assertEquals(EXECUTIONS, Metrics.getInstance().histogram(Metrics.API_CALL,
+                Metrics.VERB_TAG, "POST", Metrics.NAMESPACE_TAG, "test", Metrics.CLUSTER_TAG, cluster).getCount());
+        assertEquals(EXECUTIONS, Metrics.getInstance().counter(Metrics.JOB_CLEANUP_DELETED,
+                Metrics.NAMESPACE_TAG, "test", Metrics.CLUSTER_TAG, cluster).getCount());
+
+        // the shared watches outlive the last execution for the idle TTL, and are closed once stopped
+        assertEquals(2, api.getOpenWatches());
+        JobInformer.stopIdle();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (api.getOpenWatches() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(0, api.getOpenWatches());
+    }
+
+    // the pods of a job finish in the reverse order, their logs are emitted in the order of the pods
+    @Test
+    public void multiPodLogs() throws Exception {
+        final Map<String, Object> configuration = configuration(server.getMockServer().url("/").toString());
+        configuration.put(KubernetesStep.COMPLETIONS, "3");
+        configuration.put(KubernetesStep.PARALLELISM, "3");
+        final StepContexts.RecordingLogger logger = new StepContexts.RecordingLogger();
+
+        new KubernetesStep(null).executeStep(StepContexts.create("multi", "1", Collections.emptyMap(), logger), configuration);
+
+        final String podPrefix = "multi-1-" + Integer.toHexString("multi-1".hashCode() & 0xfffff);
+        assertEquals(Arrays.asList(
+                podPrefix + "-0 : " + api.logOf("multi-1"),
+                podPrefix + "-1 : " + api.logOf("multi-1"),
+                podPrefix + "-2 : " + api.logOf("multi-1")), logger.getMessages());
+        assertTrue(JobCleaner.getInstance().awaitIdle(10000));
+    }
+
+    // the marked lines reach the output data, even the ones the log capture drops
+    @Test
+    public void outputData() throws Exception {
+        final Map<String, Object> configuration = configuration(server.getMockServer().url("/").toString());
+        configuration.put(KubernetesStep.COMPLETIONS, "2");
+        configuration.put(KubernetesStep.PARALLELISM, "2");
+        configuration.put(KubernetesStep.LOG_CAPTURE, "tail");
+        configuration.put(KubernetesStep.LOG_CAPTURE_LIMIT, "5");
+        api.setLog("data-1", "starting\nRUNDECK:DATA result = ok\nRUNDECK:DATA {\"count\": 3, \"files\": [\"a\", \"b\"]}\ndone\n");
+        final StepContexts.RecordingOutput output = new StepContexts.RecordingOutput();
+
+        new KubernetesStep(null).executeStep(StepContexts.create("data", "1", Collections.emptyMap(), new StepContexts.RecordingLogger(), output), configuration);
+
+        final Map<String, String> data = output.getGroup("data");
+        assertEquals("ok", data.get("result"));
+        assertEquals("3", data.get("count"));
+        assertEquals("[\"a\",\"b\"]", data.get("files"));
+        assertEquals(3, data.size());
+        assertTrue(JobCleaner.getInstance().awaitIdle(10000));
+    }
+}
@@ -0,0 +1,101 @@
+package com.skilld.rundeck.plugin.step.kubernetes;
+
+import com.dtolabs.rundeck.core.execution.workflow.steps.StepException;
+import com.skilld.kubernetes.JobInformer;
+import io.fabric8.kubernetes.api.model.Job;
+import io.fabric8.kubernetes.client.server.mock.KubernetesServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class KubernetesStepFanOutTest {
+
+    @Rule
+    public final KubernetesServer server = new KubernetesServer(false);
+
+    private MockKubernetesApi api;
+
+    @Before
+    public void setUp() {
+        api = new MockKubernetesApi(10);
+        server.getMockServer().setDispatcher(api);
+    }
+
+    @After
+    public void tearDown() {
+        // the informers of the test would otherwise watch on for their idle TTL
+        JobInformer.stopIdle();
+        api.shutdown();
+    }
+
+    @Test
+    public void parseItems() throws StepException {
+        assertEquals(Arrays.asList("a", "b", "c"), FanOutExecution.parseItems("a, b\tc,"));
+        assertEquals(Arrays.asList("3", "4", "5"), FanOutExecution.parseItems("3..5"));
+        assertEquals(Arrays.asList("-1", "0"), FanOutExecution.parseItems(" -1..0 "));
+        assertEquals(Arrays.asList("1..2", "x"), FanOutExecution.parseItems("1..2 x"));
+        for (String invalid : Arrays.asList("", " , ", "a..b", "5..3", "1..1001")) {
+            try {
+                FanOutExecution.parseItems(invalid);
+                fail(invalid + " should be rejected");
+            } catch (StepException e) {
+                assertEquals(KubernetesStep.Reason.UnexepectedFailure, e.getFailureReason());
+            }
+        }
+    }
+
+    // one job per value, each seeing its own value, never more running than allowed
+    @Test
+    public void fanOut() throws Exception {
+        final Map<String, Object> configuration = KubernetesStepConcurrencyTest.configuration(server.getMockServer().url("/").toString());
+        configuration.put(KubernetesStep.CLEAN_UP, "false");
+        configuration.put(KubernetesStep.COMMAND, "process ${fanOutItem} ${fanOutIndex}");
+        configuration.put(KubernetesStep.FAN_OUT, "${shards}");
+        configuration.put(KubernetesStep.FAN_OUT_MAX_IN_FLIGHT, "2");
+        final StepContexts.RecordingLogger logger = new StepContexts.RecordingLogger();
+        final StepContexts.RecordingOutput output = new StepContexts.RecordingOutput();
+        for (int i = 0; i < 5; i++) {
+            api.setLog("shard-7-" + i, "RUNDECK:DATA shard=" + i + "\n");
+        }
+
+        new KubernetesStep(null).executeStep(StepContexts.create("shard", "7", Collections.singletonMap("shards", "a,b,c,d,e"), logger, output), configuration);
+
+        final List<String> items = Arrays.asList("a", "b", "c", "d", "e");
+        for (int i = 0; i < items.size(); i++) {
+            final String jobName = "shard-7-" + i;
+            final Job job = api.getJob("test", jobName);
+            assertNotNull(job);
+            assertEquals(String.valueOf(i), job.getMetadata().getLabels().get(FanOutExecution.INDEX_LABEL));
+            assertEquals(jobName, job.getMetadata().getLabels().get("job-name"));
+            assertEquals(Arrays.asList("process", items.get(i), String.valueOf(i)),
+                    job.getSpec().getTemplate().getSpec().getContainers().get(0).getCommand());
+        }
+        assertTrue(api.getMaxRunningJobs() <= 2);
+        assertTrue(logger.getMessages().contains("5 of 5 jobs succeeded"));
+        // the values of the jobs are joined in the order of the fan-out
+        assertEquals(Collections.singletonMap("shard", "0,1,2,3,4"), output.getGroup("data"));
+    }
+
+    @Test
+    public void fanOutFailures() throws Exception {
+        final Map<String, Object> configuration = KubernetesStepConcurrencyTest.configuration(server.getMockServer().url("/").toString());
+        configuration.put(KubernetesStep.FAN_OUT, "1..3");
+        final StepContexts.RecordingLogger logger = new StepContexts.RecordingLogger();
+        try {
+            new KubernetesStep(null).executeStep(StepContexts.create("fail", "8", Collections.emptyMap(), logger), configuration);
+            fail("the step should fail");
+        } catch (StepException e) {
+            assertEquals(KubernetesStep.Reason.UnexepectedFailure, e.getFailureReason());
+            assertTrue(e.getMessage(), e.getMessage().startsWith("3 of 3 jobs failed: fail-8-0: "));
+        }
+        assertTrue(logger.getMessages().contains("0 of 3 jobs succeeded"));
+    }
+}
@@ -0,0 +1,202 @@
+package com.skilld.rundeck.plugin.step.kubernetes;
+
+import com.dtolabs.rundeck.core.execution.workflow.steps.StepException;
+import com.skilld.kubernetes.JobCleaner;
+import com.skilld.kubernetes.JobInformer;
+import io.fabric8.kubernetes.client.server.mock.KubernetesServer;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs many executions of the step at once against the mock API server and reports the
+ * throughput, the overhead of the step on top of the simulated job (split between the start, up
+ * to the job creation, admission queue included, and the finish, from the job completion), the
+ * API calls per step, the thread count and the heap peak. Excluded from the build, run it with "gradle loadTest", the
+ * load is set with -Pload.executions, -Pload.concurrency, -Pload.stageDelay and -Pload.logBytes;
+ * the admission rate and burst default high enough not to queue the load, so that the overhead is
+ * the plugin's own, -Pload.admissionRate and -Pload.admissionBurst measure the queueing instead;
+ * -Pload.maxP99Overhead=<ms> and -Pload.maxCallsPerStep=<n> fail the run past a baseline.
+ */
+public class KubernetesStepLoadTest {
+
+    private static final int EXECUTIONS = Integer.getInteger("load.executions", 500);
+    private static final int CONCURRENCY = Integer.getInteger("load.concurrency", 200);
+    private static final long STAGE_DELAY = Long.getLong("load.stageDelay", 50L);
+    private static final int LOG_BYTES = Integer.getInteger("load.logBytes", 16 * 1024);
+    private static final int ADMISSION_RATE = Integer.getInteger("load.admissionRate", 100000);
+    private static final int ADMISSION_BURST = Integer.getInteger("load.admissionBurst", EXECUTIONS);
+    private static final int LOG_LINE = 100;
+
+    @Rule
+    public final KubernetesServer server = new KubernetesServer(false);
+
+    private MockKubernetesApi api;
+
+    @Before
+    public void setUp() {
+        api = new MockKubernetesApi(STAGE_DELAY);
+        server.getMockServer().setDispatcher(api);
+    }
+
+    @After
+    public void tearDown() {
+        // the informers of the test would otherwise watch on for their idle TTL
+        JobInformer.stopIdle();
+        api.shutdown();
+    }
+
+    @Test
+    public void load() throws Exception {
+        final KubernetesStep step = new KubernetesStep(null);
+        final Map<String, Object> configuration = KubernetesStepConcurrencyTest.configuration(server.getMockServer().url("/").toString());
+        configuration.put(KubernetesStep.ADMISSION_RATE, String.valueOf(ADMISSION_RATE));
+        configuration.put(KubernetesStep.ADMISSION_BURST, String.valueOf(ADMISSION_BURST));
+        final String log = log();
+        final int logLines = LOG_BYTES / LOG_LINE;
+        final ExecutorService executor = Executors.newFixedThreadPool(CONCURRENCY);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<String> jobNames = new ArrayList<>();
+        final List<StepContexts.RecordingLogger> loggers = new ArrayList<>();
+        // when each step started and returned
+        final List<Future<long[]>> results = new ArrayList<>();
+        for (int i = 0; i < EXECUTIONS; i++) {
+            final String execid = String.valueOf(i);
+            final StepContexts.RecordingLogger logger = new StepContexts.RecordingLogger();
+            jobNames.add("load-" + execid);
+            loggers.add(logger);
+            api.setLog("load-" + execid, log);
+            results.add(executor.submit(() -> {
+                start.await();
+                final long stepStart = System.nanoTime();
+                step.executeStep(StepContexts.create("load", execid, Collections.emptyMap(), logger), configuration);
+                return new long[]{stepStart, System.nanoTime()};
+            }));
+        }
+
+        final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        final List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (MemoryType.HEAP == pool.getType()) {
+                pool.resetPeakUsage();
+                heapPools.add(pool);
+            }
+        }
+        threads.resetPeakThreadCount();
+        final int baseCalls = api.getTotalCalls();
+        final long loadStart = System.nanoTime();
+        start.countDown();
+
+        final List<Long> starts = new ArrayList<>();
+        final List<Long> finishes = new ArrayList<>();
+        final List<Long> overheads = new ArrayList<>();
+        try {
+            for (int i = 0; i < EXECUTIONS; i++) {
+                final String jobName = jobNames.get(i);
+                final long[] stepTimes;
+                try {
+                    stepTimes = results.get(i).get(300, TimeUnit.SECONDS);
+                } catch (ExecutionException e) {
+                    throw new AssertionError(jobName + " failed", e.getCause() instanceof StepException ? e.getCause() : e);
+                }
+                // the step overhead is the time it runs on top of the job itself
+                final long[] jobTimes = api.getJobTimes("test", jobName);
+                assertTrue(jobName + " did not complete", 0 != jobTimes[1]);
+                starts.add(jobTimes[0] - stepTimes[0]);
+                finishes.add(stepTimes[1] - jobTimes[1]);
+                overheads.add(starts.get(i) + finishes.get(i));
+                assertEquals(jobName, logLines, loggers.get(i).getMessages().size());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        final long loadNanos = System.nanoTime() - loadStart;
+        assertTrue(JobCleaner.getInstance().awaitIdle(30000));
+
+        Collections.sort(starts);
+        Collections.sort(finishes);
+        Collections.sort(overheads);
+        long heapPeak = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            heapPeak += pool.getPeakUsage().getUsed();
+        }
+        final Map<String, Object> report = new LinkedHashMap<>();
+        report.put("executions", EXECUTIONS);
+        report.put("concurrency", CONCURRENCY);
+        report.put("stageDelayMs", STAGE_DELAY);
+        report.put("logBytes", LOG_BYTES);
+        report.put("admissionRate", ADMISSION_RATE);
+        report.put("admissionBurst", ADMISSION_BURST);
+        report.put("durationMs", TimeUnit.NANOSECONDS.toMillis(loadNanos));
+        report.put("throughputPerSecond", EXECUTIONS * 1e9 / loadNanos);
+        report.put("overheadP50Ms", TimeUnit.NANOSECONDS.toMillis(percentile(overheads, 50)));
+        report.put("overheadP99Ms", TimeUnit.NANOSECONDS.toMillis(percentile(overheads, 99)));
+        report.put("overheadMaxMs", TimeUnit.NANOSECONDS.toMillis(overheads.get(overheads.size() - 1)));
+        report.put("startP50Ms", TimeUnit.NANOSECONDS.toMillis(percentile(starts, 50)));
+        report.put("startP99Ms", TimeUnit.NANOSECONDS.toMillis(percentile(starts, 99)));
+        report.put("finishP50Ms", TimeUnit.NANOSECONDS.toMillis(percentile(finishes, 50)));
+        report.put("finishP99Ms", TimeUnit.NANOSECONDS.toMillis(percentile(finishes, 99)));
+        report.put("apiCallsPerStep", (double) (api.getTotalCalls() - baseCalls) / EXECUTIONS);
+        report.put("apiCalls", api.getCalls());
+        // the calling threads stand for the Rundeck workflow threads, the rest belong to the plugin
+        report.put("peakThreads", threads.getPeakThreadCount());
+        report.put("heapPeakBytes", heapPeak);
+        final String json = Serialization.jsonMapper().writerWithDefaultPrettyPrinter().writeValueAsString(report);
+        System.out.println(json);
+        final String reportFile = System.getProperty("load.report");
+        if (null != reportFile) {
+            final File file = new File(reportFile);
+            file.getParentFile().mkdirs();
+            Serialization.jsonMapper().writerWithDefaultPrettyPrinter().writeValue(file, report);
+        }
+
+        final Long maxP99Overhead = Long.getLong("load.maxP99Overhead");
+        if (null != maxP99Overhead) {
+            assertTrue(json, TimeUnit.NANOSECONDS.toMillis(percentile(overheads, 99)) <= maxP99Overhead);
+        }
+        final String maxCallsPerStep = System.getProperty("load.maxCallsPerStep");
+        if (null != maxCallsPerStep) {
+            assertTrue(json, (double) report.get("apiCallsPerStep") <= Double.parseDouble(maxCallsPerStep));
+        }
+    }
+
+    // the nearest rank percentile of sorted values
+    private static long percentile(List<Long> sorted, int percentile) {
+        final int rank = (int) Math.ceil(percentile / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, rank - 1));
+    }
+
+    private static String log() {
+        final StringBuilder line = new StringBuilder();
+        while (line.length() < LOG_LINE - 1) {
+            line.append("output ");
+        }
+        line.setLength(LOG_LINE - 1);
+        final StringBuilder log = new StringBuilder();
+        for (int i = 0; i < LOG_BYTES / LOG_LINE; i++) {
+            log.append(line).append('\n');
+        }
+        return log.toString();
+    }
+}
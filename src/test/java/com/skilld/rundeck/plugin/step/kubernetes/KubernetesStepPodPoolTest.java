@@ -0,0 +1,93 @@
+package com.skilld.rundeck.plugin.step.kubernetes;
+
+import com.dtolabs.rundeck.core.execution.workflow.steps.StepException;
+import com.skilld.kubernetes.JobInformer;
+import com.skilld.kubernetes.PodPool;
+import io.fabric8.kubernetes.client.server.mock.KubernetesServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+public class KubernetesStepPodPoolTest {
+
+    @Rule
+    public final KubernetesServer server = new KubernetesServer(false);
+
+    private MockKubernetesApi api;
+
+    @Before
+    public void setUp() {
+        api = new MockKubernetesApi(10);
+        server.getMockServer().setDispatcher(api);
+    }
+
+    @After
+    public void tearDown() {
+        // the informers of the test would otherwise watch on for their idle TTL
+        JobInformer.stopIdle();
+        api.shutdown();
+    }
+
+    // the first run warms the pool up and runs as a job, the next ones exec in pooled pods
+    @Test
+    public void execInPool() throws Exception {
+        final KubernetesStep step = new KubernetesStep(null);
+        final Map<String, Object> configuration = KubernetesStepConcurrencyTest.configuration(server.getMockServer().url("/").toString());
+        configuration.put(KubernetesStep.POD_POOL, "true");
+        configuration.put(KubernetesStep.COMMAND, "echo ${message}");
+        configuration.put(KubernetesStep.NAMESPACE, "pool");
+
+        step.executeStep(StepContexts.create("warmup", "1", Collections.singletonMap("message", "hi"), new StepContexts.RecordingLogger()), configuration);
+        assertEquals(1, (int) api.getCalls().get("POST jobs"));
+
+        awaitIdlePod();
+        final StepContexts.RecordingLogger logger = new StepContexts.RecordingLogger();
+        step.executeStep(StepContexts.create("pooled", "2", Collections.singletonMap("message", "hi"), logger), configuration);
+        assertEquals(1, (int) api.getCalls().get("POST jobs"));
+        assertEquals(Collections.singletonList("pooled-2 : exec echo hi"), logger.getMessages());
+
+        configuration.put(KubernetesStep.COMMAND, "fail");
+        awaitIdlePod();
+        try {
+            step.executeStep(StepContexts.create("pooled", "3", Collections.emptyMap(), new StepContexts.RecordingLogger()), configuration);
+            fail("the command should fail");
+        } catch (StepException e) {
+            assertEquals(KubernetesStep.Reason.UnexepectedFailure, e.getFailureReason());
+            assertTrue(e.getMessage(), e.getMessage().startsWith("The command exited with code 1"));
+        }
+        assertEquals(1, (int) api.getCalls().get("POST jobs"));
+    }
+
+    // a step running several pods always runs as a job, it never warms a pool up
+    @Test
+    public void completionsRunAsJob() throws Exception {
+        final KubernetesStep step = new KubernetesStep(null);
+        final Map<String, Object> configuration = KubernetesStepConcurrencyTest.configuration(server.getMockServer().url("/").toString());
+        configuration.put(KubernetesStep.POD_POOL, "true");
+        configuration.put(KubernetesStep.COMMAND, "echo hi");
+        configuration.put(KubernetesStep.NAMESPACE, "pool");
+        configuration.put(KubernetesStep.COMPLETIONS, "2");
+
+        step.executeStep(StepContexts.create("completions", "1", Collections.emptyMap(), new StepContexts.RecordingLogger()), configuration);
+        Thread.sleep(2500);
+        step.executeStep(StepContexts.create("completions", "2", Collections.emptyMap(), new StepContexts.RecordingLogger()), configuration);
+        assertEquals(2, (int) api.getCalls().get("POST jobs"));
+        assertTrue(api.getPods("pool", PodPool.POOL_LABEL).isEmpty());
+    }
+
+    // a running pooled pod, then the pool refreshes refilling it and noticing it
+    private void awaitIdlePod() throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (api.getPods("pool", PodPool.POOL_LABEL).stream().noneMatch(pod -> "Running".equals(pod.getStatus().getPhase()))) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+        Thread.sleep(2500);
+    }
+}
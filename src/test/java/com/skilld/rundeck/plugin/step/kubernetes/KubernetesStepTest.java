@@ -8,7 +8,10 @@ import org.junit.rules.ExpectedException;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Random;
 import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -103,4 +106,67 @@ public class KubernetesStepTest {
         exception.expect(StepException.class);
         KubernetesStep.validateAndGetLabels(KVSEPARATOR, SEPARATOR, invalid01);
     }
-}
\ No newline at end of file
+
+    // the validated labels of a string are memoized and read-only
+    @Test
+    public void validateAndGetLabelsMemoized() throws Exception {
+        final Map<String, String> first = KubernetesStep.validateAndGetLabels(KVSEPARATOR, SEPARATOR, "app=web tier=front");
+        assertSame(first, KubernetesStep.validateAndGetLabels(KVSEPARATOR, SEPARATOR, "app=web tier=front"));
+        exception.expect(UnsupportedOperationException.class);
+        first.put("app", "db");
+    }
+
+    @Test
+    public void validateAndGetLabelsDuplicateKey() throws Exception {
+        exception.expect(StepException.class);
+        KubernetesStep.validateAndGetLabels(KVSEPARATOR, SEPARATOR, "app=web app=db");
+    }
+
+    // the single pass validator accepts exactly what the regular expressions accepted
+    @Test
+    public void validateLabelMatchesRegex() {
+        final Random random = new Random(42);
+        final String alphabet = "aZ09-_./= ";
+        for (int i = 0; i < 100000; i++) {
+            final StringBuilder label = new StringBuilder();
+            final int length = random.nextInt(12);
+            for (int j = 0; j < length; j++) {
+                label.append(alphabet.charAt(random.nextInt(alphabet.length())));
+            }
+            assertEquals(label.toString(), referenceValidateLabel(KVSEPARATOR, label.toString()),
+                    KubernetesStep.validateLabel(KVSEPARATOR, label.toString()));
+        }
+    }
+
+    // the label validation this step used to compile on every call
+    private static boolean referenceValidateLabel(String separator, String keyValue) {
+        final Predicate<String> isValidKeyName = Pattern.compile("^[a-zA-Z0-9]([-_.]?[a-zA-Z0-9]+)*$")
+                .asPredicate()
+                .and(prefix -> prefix.length() <= 63);
+        final Predicate<String> isValidKeyPrefix = Pattern.compile("^[a-zA-Z0-9]+(\\.[a-zA-Z0-9]+)*$")
+                .asPredicate()
+                .and(prefix -> prefix.length() <= 253);
+        if (keyValue.length() < 2 || keyValue.startsWith(separator)) {
+            return false;
+        }
+        final String[] kv = keyValue.split(separator);
+        if (kv.length < 1 || kv.length > 2) {
+            return false;
+        }
+        final String key = kv[0];
+        final String val = kv.length == 2 ? kv[1] : "";
+        if (key.startsWith("/") || key.endsWith("/")) {
+            return false;
+        }
+        final String[] keySplitOnPrefix = key.split("/");
+        final boolean validKey;
+        if (keySplitOnPrefix.length == 1) {
+            validKey = isValidKeyName.test(keySplitOnPrefix[0]);
+        } else if (keySplitOnPrefix.length == 2) {
+            validKey = isValidKeyPrefix.test(keySplitOnPrefix[0]) && isValidKeyName.test(keySplitOnPrefix[1]);
+        } else {
+            validKey = false;
+        }
+        return validKey && isValidKeyName.or(""::equals).test(val);
+    }
+}
@@ -0,0 +1,319 @@
+package com.skilld.rundeck.plugin.step.kubernetes;
+
+import com.dtolabs.rundeck.core.execution.workflow.steps.StepException;
+import com.skilld.kubernetes.JobCleaner;
+import com.skilld.kubernetes.JobInformer;
+import com.skilld.kubernetes.Metrics;
+import io.fabric8.kubernetes.client.server.mock.KubernetesServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.*;
+
+public class KubernetesStepWatchTest {
+
+    @Rule
+    public final KubernetesServer server = new KubernetesServer(false);
+
+    private MockKubernetesApi api;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        api = new MockKubernetesApi(300);
+        server.getMockServer().setDispatcher(api);
+        executor = Executors.newSingleThreadExecutor();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        // the cleaner is shared by the tests, let it delete the jobs of this one while the server is up
+        JobCleaner.getInstance().awaitIdle(10000);
+        // and the idle informers close their watches, a test failing fast may stop them as they open
+        JobInformer.stopIdle();
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (api.getOpenWatches() > 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        executor.shutdownNow();
+        api.shutdown();
+    }
+
+    // dropped watches resume from the last version seen, the completion isn't missed
+    @Test
+    public void resumeDroppedWatches() throws Exception {
+        final Future<StepException> result = execute("resume", "1", configuration());
+        awaitJob("resume-1");
+        api.dropWatches();
+
+        assertNull(result.get(10, TimeUnit.SECONDS));
+        assertTrue(api.getWatchVersions().toString(), api.getWatchVersions().size() >= 4);
+        assertFalse(api.getWatchVersions().toString(), api.getWatchVersions().contains(""));
+        assertTrue(Metrics.getInstance().counter(Metrics.WATCH_RECONNECTS,
+                Metrics.NAMESPACE_TAG, "test", Metrics.CLUSTER_TAG, cluster()).getCount() >= 2);
+    }
+
+    // watches resuming from a compacted version get a 410 Gone, the jobs and pods are listed again
+    @Test
+    public void relistOnGone() throws Exception {
+        final Future<StepException> result = execute("gone", "2", configuration());
+        awaitJob("gone-2");
+        api.compact();
+        api.dropWatches();
+
+        assertNull(result.get(10, TimeUnit.SECONDS));
+        assertTrue(api.getCalls().toString(), api.getCalls().get("GET jobs") >= 2);
+        assertTrue(api.getCalls().toString(), api.getCalls().get("GET pods") >= 2);
+    }
+
+    // the next step of the namespace reuses the watches of the idle informer
+    @Test
+    public void reuseIdleInformer() throws Exception {
+        assertNull(execute("idle", "10", configuration()).get(10, TimeUnit.SECONDS));
+        final int watches = api.getWatchVersions().size();
+        assertEquals(2, api.getOpenWatches());
+
+        assertNull(execute("idle", "11", configuration()).get(10, TimeUnit.SECONDS));
+        assertEquals(watches, api.getWatchVersions().size());
+    }
+
+    // without watches, the jobs are polled until they complete
+    @Test
+    public void pollWithoutWatches() throws Exception {
+        api.setWatchesAvailable(false);
+        final Future<StepException> result = execute("poll", "3", configuration());
+
+        assertNull(result.get(10, TimeUnit.SECONDS));
+        assertTrue(api.getCalls().toString(), api.getCalls().get("GET jobs") >= 2);
+        assertTrue(api.getWatchVersions().isEmpty());
+    }
+
+    // a job never seen completing is given up past its active deadline
+    @Test
+    public void watchdog() throws Exception {
+        final Map<String, Object> configuration = configuration();
+        configuration.put(KubernetesStep.ACTIVE_DEADLINE, "1");
+        final long start = System.currentTimeMillis();
+        final StepException failure = execute("hang", "4", configuration).get(10, TimeUnit.SECONDS);
+
+        assertNotNull(failure);
+        assertEquals(KubernetesStep.Reason.ExecutionTimeoutFailure, failure.getFailureReason());
+        assertTrue(System.currentTimeMillis() - start >= 2000);
+        awaitDeletion("hang-4");
+    }
+
+    // a pod no node can take fails the step after the grace period, with the scheduler event
+    @Test
+    public void unschedulablePod() throws Exception {
+        final Map<String, Object> configuration = configuration();
+        configuration.put(KubernetesStep.POD_FAILURE_GRACE, "1");
+        final StepException failure = execute("unschedulable", "8", configuration).get(10, TimeUnit.SECONDS);
+
+        assertNotNull(failure);
+        assertEquals(KubernetesStep.Reason.PodUnschedulableFailure, failure.getFailureReason());
+        assertTrue(failure.getMessage(), failure.getMessage().contains("is unschedulable (Unschedulable): 0/2 nodes are available"));
+        awaitDeletion("unschedulable-8");
+    }
+
+    // an unschedulable pod the cluster scales up for is given the time to be scheduled
+    @Test
+    public void scaleUpPending() throws Exception {
+        final Map<String, Object> configuration = configuration();
+        configuration.put(KubernetesStep.POD_FAILURE_GRACE, "1");
+        final long start = System.currentTimeMillis();
+
+        assertNull(execute("scaleup", "12", configuration).get(10, TimeUnit.SECONDS));
+        assertTrue(System.currentTimeMillis() - start >= 1800);
+    }
+
+    @Test
+    public void imagePullFailure() throws Exception {
+        final Map<String, Object> configuration = configuration();
+        configuration.put(KubernetesStep.POD_FAILURE_GRACE, "1");
+        final long start = System.currentTimeMillis();
+        final StepException failure = execute("badimage", "9", configuration).get(10, TimeUnit.SECONDS);
+
+        assertNotNull(failure);
+        assertEquals(KubernetesStep.Reason.ImagePullFailure, failure.getFailureReason());
+        assertTrue(failure.getMessage(), failure.getMessage().contains("can't pull its image (ImagePullBackOff): Failed to pull image: manifest unknown"));
+        assertTrue(System.currentTimeMillis() - start >= 1000);
+        awaitDeletion("badimage-9");
+    }
+
+    // a followed log ends with its pod, the step doesn't wait for the stream the client keeps open
+    @Test
+    public void followLogs() throws Exception {
+        final Map<String, Object> configuration = configuration();
+        configuration.put(KubernetesStep.FOLLOW_LOGS, "true");
+        // the last line has no line feed, it is read once the stream ends
+        api.setLog("follow-1", "first\nsecond\nthird");
+        final StepContexts.RecordingLogger logger = new StepContexts.RecordingLogger();
+        final long start = System.currentTimeMillis();
+
+        new KubernetesStep(null).executeStep(StepContexts.create("follow", "1", Collections.emptyMap(), logger), configuration);
+
+        assertTrue(System.currentTimeMillis() - start < 5000);
+        final String podName = "follow-1-" + Integer.toHexString("follow-1".hashCode() & 0xfffff);
+        assertEquals(Arrays.asList(podName + " : first", podName + " : second", podName + " : third"),
+                logger.getMessages().stream().filter(message -> message.startsWith(podName)).collect(Collectors.toList()));
+    }
+
+    // the first failed pod stops the job, the others never finish
+    @Test
+    public void podFailureLimit() throws Exception {
+        final Map<String, Object> configuration = configuration();
+        configuration.put(KubernetesStep.COMPLETIONS, "4");
+        configuration.put(KubernetesStep.PARALLELISM, "4");
+        configuration.put(KubernetesStep.CLEAN_UP, "false");
+        configuration.put(KubernetesStep.MAX_POD_FAILURES, "1");
+        final StepContexts.RecordingLogger logger = new StepContexts.RecordingLogger();
+
+        try {
+            new KubernetesStep(null).executeStep(StepContexts.create("flaky", "1", Collections.emptyMap(), logger), configuration);
+            fail("the step should fail");
+        } catch (StepException e) {
+            final String failedPod = "flaky-1-" + Integer.toHexString("flaky-1".hashCode() & 0xfffff) + "-3";
+            assertEquals(KubernetesStep.Reason.PodFailureLimitFailure, e.getFailureReason());
+            assertTrue(e.getMessage(), e.getMessage().endsWith("reaching the limit of 1: " + failedPod));
+            // the log of the failed pod is still emitted
+            assertTrue(logger.getMessages().toString(), logger.getMessages().contains(failedPod + " : " + api.logOf("flaky-1")));
+        }
+        assertEquals(0, (int) api.getJob("test", "flaky-1").getSpec().getParallelism());
+        assertTrue(api.getPods("test", "job-name=flaky-1").stream().noneMatch(pod -> "Succeeded".equals(pod.getStatus().getPhase())));
+    }
+
+    // the events of a finished pod after the first one don't fetch its log again
+    @Test
+    public void duplicatePodEvents() throws Exception {
+        final Metrics.Counter duplicateEvents = Metrics.getInstance().counter(Metrics.WATCH_EVENTS_DUPLICATE,
+                Metrics.NAMESPACE_TAG, "test", Metrics.CLUSTER_TAG, cluster());
+        final Metrics.Counter duplicateLogs = Metrics.getInstance().counter(Metrics.POD_LOGS_DUPLICATE,
+                Metrics.NAMESPACE_TAG, "test", Metrics.CLUSTER_TAG, cluster());
+        final long baseEvents = duplicateEvents.getCount();
+        final long baseLogs = duplicateLogs.getCount();
+        final StepContexts.RecordingLogger logger = new StepContexts.RecordingLogger();
+
+        new KubernetesStep(null).executeStep(StepContexts.create("noisy", "1", Collections.emptyMap(), logger), configuration());
+
+        assertEquals(1, (int) api.getCalls().get("GET pods/log"));
+        assertEquals(logger.getMessages().toString(), 1, logger.getMessages().stream().filter(message -> message.endsWith(" : " + api.logOf("noisy-1"))).count());
+        assertEquals(2, duplicateLogs.getCount() - baseLogs);
+        assertTrue(duplicateEvents.getCount() - baseEvents >= 1);
+    }
+
+    // the events of a followed pod after it ended don't read its log again
+    @Test
+    public void duplicateFollowedPodEvents() throws Exception {
+        final Map<String, Object> configuration = configuration();
+        configuration.put(KubernetesStep.FOLLOW_LOGS, "true");
+        final Metrics.Counter duplicateLogs = Metrics.getInstance().counter(Metrics.POD_LOGS_DUPLICATE,
+                Metrics.NAMESPACE_TAG, "test", Metrics.CLUSTER_TAG, cluster());
+        final long baseLogs = duplicateLogs.getCount();
+        final StepContexts.RecordingLogger logger = new StepContexts.RecordingLogger();
+
+        new KubernetesStep(null).executeStep(StepContexts.create("noisy", "2", Collections.emptyMap(), logger), configuration);
+
+        // the stream delivered the whole log, it isn't downloaded again once the pod ended
+        assertEquals(1, (int) api.getCalls().get("GET pods/log"));
+        assertEquals(logger.getMessages().toString(), 1, logger.getMessages().stream().filter(message -> message.endsWith(" : " + api.logOf("noisy-2"))).count());
+        assertEquals(2, duplicateLogs.getCount() - baseLogs);
+    }
+
+    // a restarted execution follows the job still running instead of creating it again
+    @Test
+    public void reattachRunning() throws Exception {
+        final Map<String, Object> configuration = reattachConfiguration();
+        final Future<StepException> first = execute("attach", "5", configuration);
+        awaitJob("attach-5");
+
+        final StepContexts.RecordingLogger logger = new StepContexts.RecordingLogger();
+        new KubernetesStep(null).executeStep(StepContexts.create("attach", "5", Collections.emptyMap(), logger), configuration);
+
+        assertNull(first.get(10, TimeUnit.SECONDS));
+        assertEquals(1, (int) api.getCalls().get("POST jobs"));
+        assertTrue(logger.getMessages().toString(), logger.getMessages().contains("Re-attaching to the existing job attach-5"));
+        assertTrue(logger.getMessages().toString(), logger.getMessages().stream().anyMatch(message -> message.endsWith(" : " + api.logOf("attach-5"))));
+    }
+
+    // the result of a finished job is reported again, without running it
+    @Test
+    public void reattachFinished() throws Exception {
+        final Map<String, Object> configuration = reattachConfiguration();
+        final StepException first = execute("fail", "6", configuration).get(10, TimeUnit.SECONDS);
+        assertNotNull(first);
+
+        final StepException second = execute("fail", "6", configuration).get(10, TimeUnit.SECONDS);
+        assertNotNull(second);
+        assertEquals(first.getMessage(), second.getMessage());
+        assertEquals(1, (int) api.getCalls().get("POST jobs"));
+    }
+
+    // a job of the same name created from another spec is not taken for this one
+    @Test
+    public void reattachOtherSpec() throws Exception {
+        final Map<String, Object> configuration = reattachConfiguration();
+        configuration.put(KubernetesStep.COMMAND, "first");
+        assertNull(execute("other", "7", configuration).get(10, TimeUnit.SECONDS));
+
+        configuration.put(KubernetesStep.COMMAND, "second");
+        final StepException failure = execute("other", "7", configuration).get(10, TimeUnit.SECONDS);
+        assertNotNull(failure);
+        assertTrue(failure.getMessage(), failure.getMessage().contains("already exists"));
+        assertEquals(1, (int) api.getCalls().get("POST jobs"));
+    }
+
+    // the jobs are kept, like after a Rundeck restart
+    private Map<String, Object> reattachConfiguration() {
+        final Map<String, Object> configuration = configuration();
+        configuration.put(KubernetesStep.REATTACH, "true");
+        configuration.put(KubernetesStep.CLEAN_UP, "false");
+        return configuration;
+    }
+
+    private Map<String, Object> configuration() {
+        return KubernetesStepConcurrencyTest.configuration(server.getMockServer().url("/").toString());
+    }
+
+    private String cluster() {
+        return server.getMockServer().url("/").host() + ":" + server.getMockServer().url("/").port();
+    }
+
+    private Future<StepException> execute(String name, String execid, Map<String, Object> configuration) {
+        return executor.submit(() -> {
+            try {
+                new KubernetesStep(null).executeStep(StepContexts.create(name, execid, Collections.emptyMap(), new StepContexts.RecordingLogger()), configuration);
+                return null;
+            } catch (StepException e) {
+                return e;
+            }
+        });
+    }
+
+    private void awaitDeletion(String jobName) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (0 == api.getJobDeletions(jobName)) {
+            assertTrue(jobName + " should be deleted", System.currentTimeMillis() < deadline);
+            Thread.sleep(50);
+        }
+    }
+
+    // the job is created and both watches are open
+    private void awaitJob(String jobName) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (null == api.getJob("test", jobName) || api.getOpenWatches() < 2) {
+            assertTrue(jobName + " should be created", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,911 @@
+package com.skilld.rundeck.plugin.step.kubernetes;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.skilld.kubernetes.PodPool;
+import io.fabric8.kubernetes.api.model.Container;
+import io.fabric8.kubernetes.api.model.ContainerStatus;
+import io.fabric8.kubernetes.api.model.ContainerStatusBuilder;
+import io.fabric8.kubernetes.api.model.DeleteOptions;
+import io.fabric8.kubernetes.api.model.EventBuilder;
+import io.fabric8.kubernetes.api.model.EventListBuilder;
+import io.fabric8.kubernetes.api.model.HasMetadata;
+import io.fabric8.kubernetes.api.model.Job;
+import io.fabric8.kubernetes.api.model.JobListBuilder;
+import io.fabric8.kubernetes.api.model.JobStatusBuilder;
+import io.fabric8.kubernetes.api.model.Pod;
+import io.fabric8.kubernetes.api.model.PodBuilder;
+import io.fabric8.kubernetes.api.model.PodConditionBuilder;
+import io.fabric8.kubernetes.api.model.PodListBuilder;
+import io.fabric8.kubernetes.api.model.PodStatusBuilder;
+import io.fabric8.kubernetes.api.model.Quantity;
+import io.fabric8.kubernetes.api.model.ResourceQuotaListBuilder;
+import io.fabric8.kubernetes.api.model.StatusBuilder;
+import io.fabric8.kubernetes.api.model.extensions.DaemonSet;
+import io.fabric8.kubernetes.client.utils.Serialization;
+import io.fabric8.zjsonpatch.JsonPatch;
+import okhttp3.Response;
+import okhttp3.WebSocket;
+import okhttp3.WebSocketListener;
+import okhttp3.mockwebserver.Dispatcher;
+import okhttp3.mockwebserver.MockResponse;
+import okhttp3.mockwebserver.RecordedRequest;
+import okio.ByteString;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * A minimal in-memory kubernetes API for the fabric8 mock server: it stores jobs and pods,
+ * serves their watches over websockets and plays the lifecycle of every created job
+ * (pod pending, running then finished, job condition set).
+ * Jobs whose name contains "fail" end up failed. Created pods start running and exec in them
+ * echoes the command, exiting with 1 when it contains "fail". Pods run on {@link #NODES}, the
+ * pods of DaemonSets pull their container images right away, the containers of images whose name
+ * contains "distroless" can't start a command run by sh.
+ */
+public class MockKubernetesApi extends Dispatcher {
+
+    private static final Pattern JOBS = Pattern.compile("^/apis/(?:batch|extensions)/[^/]+/namespaces/([^/]+)/jobs(?:/([^/?]+))?(?:\\?(.*))?$");
+    public static final List<String> NODES = java.util.Arrays.asList("node-1", "node-2");
+
+    private static final Pattern DAEMON_SETS = Pattern.compile("^/apis/extensions/[^/]+/namespaces/([^/]+)/daemonsets(?:/([^/?]+))?(?:\\?(.*))?$");
+    private static final Pattern EVENTS = Pattern.compile("^/api/v1/namespaces/([^/]+)/events(?:\\?(.*))?$");
+    private static final Pattern RESOURCE_QUOTAS = Pattern.compile("^/api/v1/namespaces/([^/]+)/resourcequotas(?:\\?(.*))?$");
+    private static final Pattern PODS = Pattern.compile("^/api/v1/namespaces/([^/]+)/pods(?:/([^/?]+))?(/log|/exec)?(?:\\?(.*))?$");
+
+    private final ObjectMapper mapper = Serialization.jsonMapper();
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final Map<String, Pod> pods = new ConcurrentHashMap<>();
+    private final Map<String, DaemonSet> daemonSets = new ConcurrentHashMap<>();
+    private final Map<String, String> logs = new ConcurrentHashMap<>();
+    // when the pods started logging, their lines are timestamped a millisecond apart from there
+    private final Map<String, Instant> logTimes = new ConcurrentHashMap<>();
+    // the events of the stuck pods, by pod
+    private final Map<String, List<io.fabric8.kubernetes.api.model.Event>> events = new ConcurrentHashMap<>();
+    private final Map<String, String> jobLogs = new ConcurrentHashMap<>();
+    private final List<Socket> sockets = new CopyOnWriteArrayList<>();
+    private final Map<String, AtomicInteger> calls = new ConcurrentHashMap<>();
+    private final Map<String, AtomicInteger> jobDeletions = new ConcurrentHashMap<>();
+    private final AtomicLong resourceVersion = new AtomicLong();
+    // the events sent so far, for watches resuming from a resource version; only used on the event thread
+    private final List<Event> history = new ArrayList<>();
+    private final List<String> watchVersions = new CopyOnWriteArrayList<>();
+    private volatile long compactedVersion = 0;
+    private volatile boolean watchesAvailable = true;
+    private final AtomicInteger runningJobs = new AtomicInteger();
+    // the hard limits of the quota of each namespace, by resource
+    private final Map<String, Map<String, String>> quotas = new ConcurrentHashMap<>();
+    private final AtomicInteger rejections = new AtomicInteger();
+    private volatile int rejectionCode = 429;
+    private final AtomicInteger maxRunningJobs = new AtomicInteger();
+    // when each job was created and completed, in nanoseconds
+    private final Map<String, long[]> jobTimes = new ConcurrentHashMap<>();
+    private final long stageDelay;
+
+    public MockKubernetesApi(long stageDelay) {
+        this.stageDelay = stageDelay;
+    }
+
+    /**
+     * @return The number of calls per "VERB kind", watches included.
+     */
+    public Map<String, Integer> getCalls() {
+        return calls.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().get()));
+    }
+
+    public int getTotalCalls() {
+        return calls.values().stream().mapToInt(AtomicInteger::get).sum();
+    }
+
+    public int getJobDeletions(String jobName) {
+        final AtomicInteger deletions = jobDeletions.get(jobName);
+        return null == deletions ? 0 : deletions.get();
+    }
+
+    public Job getJob(String namespace, String name) {
+        return jobs.get(namespace + "/" + name);
+    }
+
+    public List<Pod> getPods(String namespace, String labelSelector) {
+        return select(pods, namespace, labelSelector);
+    }
+
+    /**
+     * @return The highest number of jobs running at the same time.
+     */
+    public int getMaxRunningJobs() {
+        return maxRunningJobs.get();
+    }
+
+    /**
+     * @return When the job was created and when it completed, as {@link System#nanoTime()}, 0 until then.
+     */
+    public long[] getJobTimes(String namespace, String name) {
+        return jobTimes.getOrDefault(namespace + "/" + name, new long[2]).clone();
+    }
+
+    public int getOpenWatches() {
+        return sockets.size();
+    }
+
+    /**
+     * @return The resource version each watch started from, "" for a watch without one.
+     */
+    public List<String> getWatchVersions() {
+        return watchVersions;
+    }
+
+    /**
+     * Close every open watch from the server side, like an API server restart.
+     */
+    public void dropWatches() {
+        scheduler.execute(() -> {
+            for (Socket socket : sockets) {
+                sockets.remove(socket);
+                socket.webSocket.close(1000, "dropped");
+            }
+        });
+    }
+
+    /**
+     * Forget the events sent so far: watches resuming from an older version get a 410 Gone.
+     */
+    public void compact() {
+        compactedVersion = resourceVersion.incrementAndGet();
+    }
+
+    /**
+     * @param available Whether watch requests are accepted, they fail with a 503 otherwise.
+     */
+    public void setWatchesAvailable(boolean available) {
+        watchesAvailable = available;
+    }
+
+    public String logOf(String jobName) {
+        return "log of " + jobName;
+    }
+
+    /**
+     * Replace the log of the pods of a job, {@link #logOf(String)} otherwise.
+     */
+    public void setLog(String jobName, String log) {
+        jobLogs.put(jobName, log);
+    }
+
+    /**
+     * Limit a resource of a namespace; the pods and the jobs in use are the jobs not completed yet.
+     */
+    public void setQuota(String namespace, String resource, String hard) {
+        quotas.computeIfAbsent(namespace, k -> new ConcurrentHashMap<>()).put(resource, hard);
+    }
+
+    /**
+     * Reject the next job creations.
+     * @param count The number of creations to reject.
+     * @param code The status code of the rejections.
+     */
+    public void rejectCreates(int count, int code) {
+        rejectionCode = code;
+        rejections.set(count);
+    }
+
+    @Override
+    public void shutdown() {
+        scheduler.shutdownNow();
+    }
+
+    @Override
+    public MockResponse dispatch(RecordedRequest request) {
+        final String path = request.getPath();
+        final String method = request.getMethod();
+        Matcher matcher = JOBS.matcher(path);
+        if (matcher.matches()) {
+            final Map<String, String> query = parseQuery(matcher.group(3));
+            count(method, "jobs", query);
+            return dispatchJobs(method, matcher.group(1), matcher.group(2), query, request);
+        }
+        matcher = DAEMON_SETS.matcher(path);
+        if (matcher.matches()) {
+            count(method, "daemonsets", parseQuery(matcher.group(3)));
+            return dispatchDaemonSets(method, matcher.group(1), matcher.group(2), request);
+        }
+        matcher = EVENTS.matcher(path);
+        if (matcher.matches()) {
+            count(method, "events", parseQuery(matcher.group(2)));
+            return events(matcher.group(1), parseQuery(matcher.group(2)).get("fieldSelector"));
+        }
+        matcher = RESOURCE_QUOTAS.matcher(path);
+        if (matcher.matches()) {
+            count(method, "resourcequotas", parseQuery(matcher.group(2)));
+            return resourceQuotas(matcher.group(1));
+        }
+        matcher = PODS.matcher(path);
+        if (matcher.matches()) {
+            final Map<String, String> query = parseQuery(matcher.group(4));
+            if ("/exec".equals(matcher.group(3))) {
+                count(method, "pods/exec", query);
+                return exec(matcher.group(4));
+            }
+            final boolean log = null != matcher.group(3);
+            count(method, log ? "pods/log" : "pods", query);
+            return dispatchPods(method, matcher.group(1), matcher.group(2), log, query, request);
+        }
+        count(method, path, Collections.emptyMap());
+        return new MockResponse().setResponseCode(404);
+    }
+
+    private MockResponse dispatchJobs(String method, String namespace, String name, Map<String, String> query, RecordedRequest request) {
+        if (null == name) {
+            if ("true".equals(query.get("watch"))) {
+                return watch("Job", namespace, query.get("labelSelector"), query.get("resourceVersion"));
+            }
+            if ("POST".equals(method)) {
+                return create(namespace, read(request.getBody().readUtf8(), Job.class));
+            }
+            if ("GET".equals(method)) {
+                return onEventThread(() -> json(200, new JobListBuilder()
+                        .withNewMetadata().withResourceVersion(String.valueOf(resourceVersion.get())).endMetadata()
+                        .withItems(select(jobs, namespace, query.get("labelSelector"))).build()));
+            }
+            if ("DELETE".equals(method)) {
+                // the garbage collector removes the pods unless they are orphaned
+                final DeleteOptions options = read(request.getBody().readUtf8(), DeleteOptions.class);
+                final boolean orphan = null != options && "Orphan".equals(options.getPropagationPolicy());
+                for (Job job : select(jobs, namespace, query.get("labelSelector"))) {
+                    deleteJob(namespace, job, orphan);
+                }
+                return json(200, new StatusBuilder().withStatus("Success").build());
+            }
+            return new MockResponse().setResponseCode(405);
+        }
+        final Job job = jobs.get(namespace + "/" + name);
+        if (null == job) {
+            return json(404, new StatusBuilder().withStatus("Failure").withCode(404).withReason("NotFound").build());
+        }
+        switch (method) {
+            case "PATCH":
+                final Job patched = patch(job, request.getBody().readUtf8());
+                jobs.put(namespace + "/" + name, patched);
+                emit("MODIFIED", patched);
+                if (null != patched.getSpec() && Integer.valueOf(0).equals(patched.getSpec().getParallelism())) {
+                    // the controller stops the active pods of a job scaled down to nothing
+                    select(pods, namespace, "job-name=" + name).stream()
+                            .filter(pod -> !"Succeeded".equals(pod.getStatus().getPhase()) && !"Failed".equals(pod.getStatus().getPhase()))
+                            .forEach(pod -> deletePod(namespace, pod.getMetadata().getName()));
+                }
+                return json(200, patched);
+            case "DELETE":
+                deleteJob(namespace, job, true);
+                return json(200, new StatusBuilder().withStatus("Success").build());
+            default:
+                return json(200, job);
+        }
+    }
+
+    private MockResponse dispatchPods(String method, String namespace, String name, boolean log, Map<String, String> query, RecordedRequest request) {
+        if (null == name) {
+            if ("true".equals(query.get("watch"))) {
+                return watch("Pod", namespace, query.get("labelSelector"), query.get("resourceVersion"));
+            }
+            if ("POST".equals(method)) {
+                return createPod(namespace, read(request.getBody().readUtf8(), Pod.class));
+            }
+            if ("DELETE".equals(method)) {
+                select(pods, namespace, query.get("labelSelector")).forEach(pod -> deletePod(namespace, pod.getMetadata().getName()));
+                return json(200, new StatusBuilder().withStatus("Success").build());
+            }
+            return onEventThread(() -> json(200, new PodListBuilder()
+                    .withNewMetadata().withResourceVersion(String.valueOf(resourceVersion.get())).endMetadata()
+                    .withItems(select(pods, namespace, query.get("labelSelector"))).build()));
+        }
+        final Pod pod = pods.get(namespace + "/" + name);
+        if (null == pod) {
+            return json(404, new StatusBuilder().withStatus("Failure").withCode(404).withReason("NotFound").build());
+        }
+        if (log) {
+            return new MockResponse().setResponseCode(200).setBody(log(namespace + "/" + name, query));
+        }
+        if ("DELETE".equals(method)) {
+            deletePod(namespace, name);
+            return json(200, new StatusBuilder().withStatus("Success").build());
+        }
+        return json(200, pod);
+    }
+
+    // the log as written so far, a followed log ends right away like the one of an exited container
+    private String log(String key, Map<String, String> query) {
+        final String log = logs.getOrDefault(key, "");
+        if (!"true".equals(query.get("timestamps"))) {
+            return log;
+        }
+        final Instant since = null != query.get("sinceTime") ? Instant.parse(query.get("sinceTime")) : Instant.MIN;
+        final Instant start = logTimes.getOrDefault(key, Instant.EPOCH);
+        final StringBuilder body = new StringBuilder();
+        int index = 0;
+        for (int from = 0; from < log.length(); index++) {
+            final int end = log.indexOf('\n', from);
+            final String line = log.substring(from, end < 0 ? log.length() : end + 1);
+            from += line.length();
+            final Instant time = start.plusMillis(index);
+            if (!time.isBefore(since)) {
+                body.append(time).append(' ').append(line);
+            }
+        }
+        return body.toString();
+    }
+
+    /**
+     * Add to the log of a pod, as if its container wrote more.
+     */
+    public void appendLog(String namespace, String podName, String text) {
+        logs.merge(namespace + "/" + podName, text, String::concat);
+    }
+
+    // only the involvedObject.name field selector is supported
+    private MockResponse events(String namespace, String fieldSelector) {
+        final String prefix = "involvedObject.name=";
+        final List<io.fabric8.kubernetes.api.model.Event> podEvents = null != fieldSelector && fieldSelector.startsWith(prefix) ? events.get(namespace + "/" + fieldSelector.substring(prefix.length())) : null;
+        return json(200, new EventListBuilder().withItems(null != podEvents ? podEvents : Collections.emptyList()).build());
+    }
+
+    private MockResponse resourceQuotas(String namespace) {
+        final ResourceQuotaListBuilder list = new ResourceQuotaListBuilder();
+        final Map<String, String> hard = quotas.get(namespace);
+        if (null != hard) {
+            final long active = select(jobs, namespace, null).stream()
+                    .filter(job -> null == job.getStatus() || null == job.getStatus().getConditions() || job.getStatus().getConditions().isEmpty())
+                    .count();
+            final Map<String, Quantity> limits = new HashMap<>();
+            final Map<String, Quantity> used = new HashMap<>();
+            hard.forEach((resource, value) -> {
+                limits.put(resource, new Quantity(value));
+                used.put(resource, new Quantity("pods".equals(resource) || "count/jobs.batch".equals(resource) ? String.valueOf(active) : "0"));
+            });
+            list.addNewItem()
+                    .withNewMetadata().withName("compute").withNamespace(namespace).endMetadata()
+                    .withNewStatus().withHard(limits).withUsed(used).endStatus()
+                    .endItem();
+        }
+        return json(200, list.build());
+    }
+
+    private MockResponse create(String namespace, Job job) {
+        if (rejections.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+            return json(rejectionCode, new StatusBuilder().withStatus("Failure").withCode(rejectionCode)
+                    .withReason(429 == rejectionCode ? "TooManyRequests" : "Conflict").build());
+        }
+        final String name = job.getMetadata().getName();
+        job.getMetadata().setNamespace(namespace);
+        job.getMetadata().setUid(UUID.randomUUID().toString());
+        job.getMetadata().setCreationTimestamp(Instant.now().toString());
+        job.setStatus(new JobStatusBuilder().build());
+        if (null != jobs.putIfAbsent(namespace + "/" + name, job)) {
+            return json(409, new StatusBuilder().withStatus("Failure").withCode(409).withReason("AlreadyExists").build());
+        }
+        maxRunningJobs.accumulateAndGet(runningJobs.incrementAndGet(), Math::max);
+        emit("ADDED", job);
+        play(namespace, job);
+        return json(201, job);
+    }
+
+    private MockResponse dispatchDaemonSets(String method, String namespace, String name, RecordedRequest request) {
+        if ("POST".equals(method) || "PUT".equals(method)) {
+            final DaemonSet daemonSet = read(request.getBody().readUtf8(), DaemonSet.class);
+            final String key = namespace + "/" + daemonSet.getMetadata().getName();
+            daemonSet.getMetadata().setNamespace(namespace);
+            daemonSet.getMetadata().setResourceVersion(String.valueOf(resourceVersion.incrementAndGet()));
+            if ("POST".equals(method) && null != daemonSets.putIfAbsent(key, daemonSet)) {
+                return json(409, new StatusBuilder().withStatus("Failure").withCode(409).withReason("AlreadyExists").build());
+            }
+            daemonSets.put(key, daemonSet);
+            rollOut(namespace, daemonSet);
+            return json("POST".equals(method) ? 201 : 200, daemonSet);
+        }
+        final DaemonSet daemonSet = null == name ? null : daemonSets.get(namespace + "/" + name);
+        if (null == daemonSet) {
+            return json(404, new StatusBuilder().withStatus("Failure").withCode(404).withReason("NotFound").build());
+        }
+        if ("DELETE".equals(method)) {
+            daemonSets.remove(namespace + "/" + name);
+            select(pods, namespace, selector(daemonSet)).forEach(pod -> deletePod(namespace, pod.getMetadata().getName()));
+            return json(200, new StatusBuilder().withStatus("Success").build());
+        }
+        return json(200, daemonSet);
+    }
+
+    // one pod per node, its containers done pulling
+    private void rollOut(String namespace, DaemonSet daemonSet) {
+        select(pods, namespace, selector(daemonSet)).forEach(pod -> deletePod(namespace, pod.getMetadata().getName()));
+        for (String node : NODES) {
+            final Pod pod = new PodBuilder()
+                    .withNewMetadata()
+                        .withName(daemonSet.getMetadata().getName() + "-" + node)
+                        .withNamespace(namespace)
+                        .withLabels(daemonSet.getSpec().getTemplate().getMetadata().getLabels())
+                    .endMetadata()
+                    .withSpec(daemonSet.getSpec().getTemplate().getSpec())
+                    .withNewStatus().withPhase("Running").endStatus()
+                    .build();
+            pod.getSpec().setNodeName(node);
+            final List<ContainerStatus> statuses = new ArrayList<>();
+            for (Container container : pod.getSpec().getContainers()) {
+                final ContainerStatusBuilder status = new ContainerStatusBuilder()
+                        .withName(container.getName())
+                        .withImage(container.getImage())
+                        .withImageID(imageIdOf(container.getImage()));
+                if (container.getImage().contains("distroless") && "sh".equals(container.getCommand().get(0))) {
+                    status.withNewState().withNewTerminated().withExitCode(128).withReason("StartError").endTerminated().endState();
+                } else {
+                    status.withNewState().withNewRunning().endRunning().endState();
+                }
+                statuses.add(status.build());
+            }
+            pod.getStatus().setContainerStatuses(statuses);
+            pods.put(namespace + "/" + pod.getMetadata().getName(), pod);
+            emit("ADDED", pod);
+        }
+    }
+
+    private static String selector(DaemonSet daemonSet) {
+        return daemonSet.getSpec().getSelector().getMatchLabels().entrySet().stream()
+                .map(label -> label.getKey() + "=" + label.getValue()).collect(Collectors.joining(","));
+    }
+
+    public DaemonSet getDaemonSet(String namespace, String name) {
+        return daemonSets.get(namespace + "/" + name);
+    }
+
+    public String imageIdOf(String image) {
+        return "docker-pullable://" + image + "@sha256:" + Integer.toHexString(image.hashCode());
+    }
+
+    private MockResponse createPod(String namespace, Pod pod) {
+        final String key = namespace + "/" + pod.getMetadata().getName();
+        pod.getMetadata().setNamespace(namespace);
+        pod.getMetadata().setUid(UUID.randomUUID().toString());
+        pod.getMetadata().setCreationTimestamp(Instant.now().toString());
+        pod.setStatus(new PodStatusBuilder().withPhase("Pending").build());
+        if (null != pods.putIfAbsent(key, pod)) {
+            return json(409, new StatusBuilder().withStatus("Failure").withCode(409).withReason("AlreadyExists").build());
+        }
+        emit("ADDED", pod);
+        scheduler.schedule(() -> {
+            if (pods.get(key) == pod) {
+                pod.getStatus().setPhase("Running");
+                emit("MODIFIED", pod);
+            }
+        }, stageDelay, TimeUnit.MILLISECONDS);
+        return json(201, pod);
+    }
+
+    // runs "sh -c script sh command..." as the pod pool does: echoes the command then its exit code
+    private MockResponse exec(String query) {
+        final List<String> command = new ArrayList<>();
+        for (String parameter : query.split("&")) {
+            if (parameter.startsWith("command=")) {
+                try {
+                    command.add(URLDecoder.decode(parameter.substring("command=".length()), StandardCharsets.UTF_8.name()));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        final String line = String.join(" ", command.subList(Math.min(4, command.size()), command.size()));
+        return new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+            @Override
+            public void onOpen(WebSocket webSocket, Response response) {
+                webSocket.send(channel(1, "exec " + line + "\n"));
+                webSocket.send(channel(2, PodPool.EXIT_CODE_MARKER + (line.contains("fail") ? 1 : 0) + "\n"));
+                webSocket.close(1000, "done");
+            }
+        });
+    }
+
+    private static ByteString channel(int channel, String text) {
+        final byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        final byte[] message = new byte[bytes.length + 1];
+        message[0] = (byte) channel;
+        System.arraycopy(bytes, 0, message, 1, bytes.length);
+        return ByteString.of(message);
+    }
+
+    // pending, running, finished pods, then the job condition; the pods of a job with several
+    // completions finish in the reverse order of their creation
+    private void play(String namespace, Job job) {
+        final String jobName = job.getMetadata().getName();
+        final boolean fail = jobName.contains("fail");
+        final boolean hang = jobName.contains("hang");
+        // unschedulable until the cluster scaled up for it
+        final boolean scaleUp = jobName.contains("scaleup");
+        final boolean unschedulable = jobName.contains("unschedulable") || scaleUp;
+        final boolean badImage = jobName.contains("badimage");
+        // only the first pod to finish fails
+        final boolean flaky = jobName.contains("flaky");
+        // the finished pods keep being updated, and their last event is sent twice
+        final boolean noisy = jobName.contains("noisy");
+        final int completions = null != job.getSpec() && null != job.getSpec().getCompletions() ? job.getSpec().getCompletions() : 1;
+        final String creationTimestamp = Instant.now().toString();
+        jobTimes.put(namespace + "/" + jobName, new long[]{System.nanoTime(), 0});
+        final List<Pod> jobPods = new ArrayList<>();
+        for (int i = 0; i < completions; i++) {
+            final String podName = jobName + "-" + Integer.toHexString(jobName.hashCode() & 0xfffff) + (completions > 1 ? "-" + i : "");
+            logs.put(namespace + "/" + podName, jobLogs.getOrDefault(jobName, logOf(jobName) + "\n"));
+            logTimes.put(namespace + "/" + podName, Instant.now());
+            jobPods.add(new PodBuilder()
+                    .withNewMetadata()
+                        .withName(podName)
+                        .withNamespace(namespace)
+                        .withUid(UUID.randomUUID().toString())
+                        .withCreationTimestamp(creationTimestamp)
+                        .addToLabels("job-name", jobName)
+                    .endMetadata()
+                    .withNewSpec().endSpec()
+                    .withNewStatus().withPhase("Pending").endStatus()
+                    .build());
+        }
+        final AtomicInteger running = new AtomicInteger(completions);
+        final Runnable start = () -> {
+            for (Pod pod : jobPods) {
+                pod.getSpec().setNodeName(NODES.get(0));
+                pod.getStatus().setPhase("Running");
+                pod.getStatus().setConditions(null);
+                emit("MODIFIED", pod);
+            }
+            if (hang) {
+                return;
+            }
+            for (int i = 0; i < completions; i++) {
+                final Pod pod = jobPods.get(i);
+                final boolean podFails = fail || (flaky && completions - 1 == i);
+                scheduler.schedule(() -> {
+                    if (!pods.containsKey(namespace + "/" + pod.getMetadata().getName())) {
+                        return;
+                    }
+                    pod.getStatus().setPhase(podFails ? "Failed" : "Succeeded");
+                    emit("MODIFIED", pod);
+                    if (noisy) {
+                        emit("MODIFIED", pod);
+                        emit("MODIFIED", pod);
+                        resend("MODIFIED", pod);
+                    }
+                    if (0 == running.decrementAndGet()) {
+                        if (noisy) {
+                            // the job watch is not ordered with the pod watch, the duplicates are left time to arrive first
+                            scheduler.schedule(() -> complete(namespace, jobName, fail, completions), stageDelay, TimeUnit.MILLISECONDS);
+                        } else {
+                            complete(namespace, jobName, fail, completions);
+                        }
+                    }
+                }, stageDelay * (completions - i), TimeUnit.MILLISECONDS);
+            }
+        };
+        scheduler.schedule(() -> {
+            for (Pod pod : jobPods) {
+                pods.put(namespace + "/" + pod.getMetadata().getName(), pod);
+                emit("ADDED", pod);
+            }
+            if (unschedulable || badImage) {
+                scheduler.schedule(() -> jobPods.forEach(pod -> stick(namespace, pod, unschedulable, scaleUp)), stageDelay, TimeUnit.MILLISECONDS);
+                if (scaleUp) {
+                    scheduler.schedule(start, 6 * stageDelay, TimeUnit.MILLISECONDS);
+                }
+                return;
+            }
+            scheduler.schedule(start, stageDelay, TimeUnit.MILLISECONDS);
+        }, stageDelay, TimeUnit.MILLISECONDS);
+    }
+
+    // the pod stays pending, unschedulable or unable to pull its image, with the event telling why
+    private void stick(String namespace, Pod pod, boolean unschedulable, boolean scaleUp) {
+        final String podName = pod.getMetadata().getName();
+        if (unschedulable) {
+            pod.getStatus().setConditions(Collections.singletonList(new PodConditionBuilder()
+                    .withType("PodScheduled").withStatus("False").withReason("Unschedulable")
+                    .withMessage("0/2 nodes are available: 2 Insufficient cpu.").build()));
+        } else {
+            pod.getSpec().setNodeName(NODES.get(0));
+            pod.getStatus().setContainerStatuses(Collections.singletonList(new ContainerStatusBuilder()
+                    .withName(podName)
+                    .withNewState().withNewWaiting().withReason("ImagePullBackOff").withMessage("Back-off pulling image").endWaiting().endState()
+                    .build()));
+        }
+        final List<io.fabric8.kubernetes.api.model.Event> podEvents = new CopyOnWriteArrayList<>();
+        podEvents.add(new EventBuilder()
+                .withNewMetadata().withName(podName + ".event").withNamespace(namespace).endMetadata()
+                .withNewInvolvedObject().withKind("Pod").withName(podName).withNamespace(namespace).endInvolvedObject()
+                .withType("Warning")
+                .withReason(unschedulable ? "FailedScheduling" : "Failed")
+                .withMessage(unschedulable ? "0/2 nodes are available: 2 Insufficient cpu." : "Failed to pull image: manifest unknown")
+                .withLastTimestamp(Instant.now().toString())
+                .build());
+        if (scaleUp) {
+            podEvents.add(new EventBuilder()
+                    .withNewMetadata().withName(podName + ".scaleup").withNamespace(namespace).endMetadata()
+                    .withNewInvolvedObject().withKind("Pod").withName(podName).withNamespace(namespace).endInvolvedObject()
+                    .withType("Normal")
+                    .withReason("TriggeredScaleUp")
+                    .withMessage("pod triggered scale-up: [{pool 1->2 (max: 3)}]")
+                    .withLastTimestamp(Instant.now().toString())
+                    .build());
+        }
+        events.put(namespace + "/" + podName, podEvents);
+        emit("MODIFIED", pod);
+    }
+
+    private void complete(String namespace, String jobName, boolean fail, int completions) {
+        runningJobs.decrementAndGet();
+        jobTimes.computeIfPresent(namespace + "/" + jobName, (key, times) -> new long[]{times[0], System.nanoTime()});
+        final Job current = jobs.get(namespace + "/" + jobName);
+        if (null == current) {
+            return;
+        }
+        current.setStatus(new JobStatusBuilder()
+                .withActive(0)
+                .withSucceeded(fail ? 0 : completions)
+                .withFailed(fail ? completions : 0)
+                .addNewCondition()
+                    .withType(fail ? "Failed" : "Complete")
+                    .withStatus("True")
+                    .withReason(fail ? "BackoffLimitExceeded" : null)
+                    .withLastTransitionTime(Instant.now().toString())
+                .endCondition()
+                .build());
+        emit("MODIFIED", current);
+    }
+
+    private void deleteJob(String namespace, Job job, boolean orphan) {
+        final String name = job.getMetadata().getName();
+        if (null == jobs.remove(namespace + "/" + name)) {
+            return;
+        }
+        jobDeletions.computeIfAbsent(name, k -> new AtomicInteger()).incrementAndGet();
+        emit("DELETED", job);
+        if (!orphan) {
+            select(pods, namespace, "job-name=" + name).forEach(pod -> deletePod(namespace, pod.getMetadata().getName()));
+        }
+    }
+
+    private void deletePod(String namespace, String name) {
+        final Pod pod = pods.remove(namespace + "/" + name);
+        logs.remove(namespace + "/" + name);
+        logTimes.remove(namespace + "/" + name);
+        if (null != pod) {
+            emit("DELETED", pod);
+        }
+    }
+
+    private MockResponse watch(String kind, String namespace, String labelSelector, String version) {
+        if (!watchesAvailable) {
+            return json(503, new StatusBuilder().withStatus("Failure").withCode(503).withReason("ServiceUnavailable").build());
+        }
+        watchVersions.add(null == version ? "" : version);
+        return new MockResponse().withWebSocketUpgrade(new WebSocketListener() {
+            private Socket socket;
+
+            @Override
+            public void onOpen(WebSocket webSocket, Response response) {
+                socket = new Socket(kind, namespace, labelSelector, webSocket);
+                // register on the event thread, sending the current state first like a fresh watch does,
+                // or the events following the version to resume from
+                scheduler.execute(() -> {
+                    if (null == version) {
+                        final Map<String, ? extends HasMetadata> store = "Job".equals(kind) ? jobs : pods;
+                        for (HasMetadata item : select(store, namespace, labelSelector)) {
+                            socket.send(event("ADDED", item));
+                        }
+                    } else if (Long.parseLong(version) < compactedVersion) {
+                        final Map<String, Object> gone = new HashMap<>();
+                        gone.put("type", "ERROR");
+                        gone.put("object", new StatusBuilder().withKind("Status").withApiVersion("v1").withStatus("Failure")
+                                .withCode(410).withReason("Gone").withMessage("too old resource version: " + version).build());
+                        socket.send(write(gone));
+                        webSocket.close(1000, "gone");
+                        return;
+                    } else {
+                        for (Event event : history) {
+                            if (event.version > Long.parseLong(version) && socket.accepts(event.item)) {
+                                socket.send(event.json);
+                            }
+                        }
+                    }
+                    sockets.add(socket);
+                });
+            }
+
+            @Override
+            public void onClosing(WebSocket webSocket, int code, String reason) {
+                sockets.remove(socket);
+                webSocket.close(code, reason);
+            }
+
+            @Override
+            public void onFailure(WebSocket webSocket, Throwable t, Response response) {
+                sockets.remove(socket);
+            }
+        });
+    }
+
+    private void emit(String type, HasMetadata item) {
+        final long version = resourceVersion.incrementAndGet();
+        item.getMetadata().setResourceVersion(String.valueOf(version));
+        final String event = event(type, item);
+        scheduler.execute(() -> {
+            history.add(new Event(version, item, event));
+            for (Socket socket : sockets) {
+                if (socket.accepts(item)) {
+                    socket.send(event);
+                }
+            }
+        });
+    }
+
+    // the same event again, at the same version
+    private void resend(String type, HasMetadata item) {
+        final String event = event(type, item);
+        scheduler.execute(() -> {
+            for (Socket socket : sockets) {
+                if (socket.accepts(item)) {
+                    socket.send(event);
+                }
+            }
+        });
+    }
+
+    // lists are read on the event thread so that they are consistent with the events sent
+    private MockResponse onEventThread(Callable<MockResponse> response) {
+        try {
+            return scheduler.submit(response).get();
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String event(String type, HasMetadata item) {
+        final Map<String, Object> event = new HashMap<>();
+        event.put("type", type);
+        event.put("object", item);
+        return write(event);
+    }
+
+    private <T extends HasMetadata> List<T> select(Map<String, T> store, String namespace, String labelSelector) {
+        final List<T> selected = new ArrayList<>();
+        for (T item : store.values()) {
+            if (namespace.equals(item.getMetadata().getNamespace()) && matches(item, labelSelector)) {
+                selected.add(item);
+            }
+        }
+        return selected;
+    }
+
+    // supports "key", "key=value" and "key in (a,b)" terms
+    private static boolean matches(HasMetadata item, String labelSelector) {
+        if (null == labelSelector || labelSelector.isEmpty()) {
+            return true;
+        }
+        final Map<String, String> labels = null == item.getMetadata().getLabels() ? Collections.emptyMap() : item.getMetadata().getLabels();
+        for (String term : labelSelector.split(",(?![^(]*\\))")) {
+            final Matcher in = Pattern.compile("^(\\S+) in \\((.*)\\)$").matcher(term);
+            if (in.matches()) {
+                if (!labels.containsKey(in.group(1)) || !java.util.Arrays.asList(in.group(2).split(",")).contains(labels.get(in.group(1)))) {
+                    return false;
+                }
+            } else if (term.contains("=")) {
+                final String[] kv = term.split("=", 2);
+                if (!kv[1].equals(labels.get(kv[0]))) {
+                    return false;
+                }
+            } else if (!labels.containsKey(term)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void count(String method, String kind, Map<String, String> query) {
+        final String verb = "true".equals(query.get("watch")) ? "WATCH" : method;
+        calls.computeIfAbsent(verb + " " + kind, k -> new AtomicInteger()).incrementAndGet();
+    }
+
+    private static Map<String, String> parseQuery(String query) {
+        final Map<String, String> parameters = new HashMap<>();
+        if (null != query) {
+            for (String parameter : query.split("&")) {
+                final String[] kv = parameter.split("=", 2);
+                try {
+                    parameters.put(kv[0], kv.length > 1 ? URLDecoder.decode(kv[1], StandardCharsets.UTF_8.name()) : "");
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }
+        return parameters;
+    }
+
+    private MockResponse json(int code, Object body) {
+        return new MockResponse().setResponseCode(code).setHeader("Content-Type", "application/json").setBody(write(body));
+    }
+
+    private String write(Object value) {
+        try {
+            return mapper.writeValueAsString(value);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private <T> T patch(T item, String patch) {
+        try {
+            final JsonNode patchedNode = JsonPatch.apply(mapper.readTree(patch), mapper.valueToTree(item));
+            @SuppressWarnings("unchecked")
+            final T patched = (T) mapper.treeToValue(patchedNode, item.getClass());
+            return patched;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private <T> T read(String json, Class<T> type) {
+        try {
+            return mapper.readValue(json, type);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static class Socket {
+        private final String kind;
+        private final String namespace;
+        private final String labelSelector;
+        private final WebSocket webSocket;
+
+        private Socket(String kind, String namespace, String labelSelector, WebSocket webSocket) {
+            this.kind = kind;
+            this.namespace = namespace;
+            this.labelSelector = labelSelector;
+            this.webSocket = webSocket;
+        }
+
+        private boolean accepts(HasMetadata item) {
+            return kind.equals(item.getKind()) && namespace.equals(item.getMetadata().getNamespace()) && matches(item, labelSelector);
+        }
+
+        private void send(String event) {
+            webSocket.send(event);
+        }
+    }
+
+    private static class Event {
+        private final long version;
+        private final HasMetadata item;
+        private final String json;
+
+        private Event(long version, HasMetadata item, String json) {
+            this.version = version;
+            this.item = item;
+            this.json = json;
+        }
+    }
+}
@@ -0,0 +1,122 @@
+package com.skilld.rundeck.plugin.step.kubernetes;
+
+import com.dtolabs.rundeck.core.execution.ExecutionContext;
+import com.dtolabs.rundeck.core.execution.workflow.SharedOutputContext;
+import com.dtolabs.rundeck.plugins.PluginLogger;
+import com.dtolabs.rundeck.plugins.step.PluginStepContext;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Builds step contexts for tests without depending on the Rundeck implementation classes.
+ */
+class StepContexts {
+
+    /**
+     * A plugin logger keeping the logged messages.
+     */
+    static class RecordingLogger {
+        private final List<String> messages = Collections.synchronizedList(new ArrayList<>());
+        private final PluginLogger logger = proxy(PluginLogger.class, (method, args) -> {
+            if ("log".equals(method.getName())) {
+                messages.add(String.valueOf(args[1]));
+            }
+            return null;
+        });
+
+        List<String> getMessages() {
+            synchronized (messages) {
+                return new ArrayList<>(messages);
+            }
+        }
+
+        PluginLogger getLogger() {
+            return logger;
+        }
+    }
+
+    /**
+     * An output context keeping the values added to each group.
+     */
+    static class RecordingOutput {
+        private final Map<String, Map<String, String>> groups = new LinkedHashMap<>();
+        @SuppressWarnings("unchecked")
+        private final SharedOutputContext outputContext = proxy(SharedOutputContext.class, (method, args) -> {
+            if ("addOutput".equals(method.getName())) {
+                synchronized (groups) {
+                    final Map<String, String> group = groups.computeIfAbsent((String) args[0], name -> new LinkedHashMap<>());
+                    if (3 == args.length) {
+                        group.put((String) args[1], (String) args[2]);
+                    } else {
+                        group.putAll((Map<String, String>) args[1]);
+                    }
+                }
+            }
+            return null;
+        });
+        private final ExecutionContext executionContext = proxy(ExecutionContext.class, (method, args) ->
+                "getOutputContext".equals(method.getName()) ? outputContext : null);
+
+        Map<String, String> getGroup(String name) {
+            synchronized (groups) {
+                return new LinkedHashMap<>(groups.getOrDefault(name, Collections.emptyMap()));
+            }
+        }
+    }
+
+    static PluginStepContext create(String jobName, String execid, Map<String, String> options, RecordingLogger logger) {
+        return create(jobName, execid, options, logger, null);
+    }
+
+    static PluginStepContext create(String jobName, String execid, Map<String, String> options, RecordingLogger logger, RecordingOutput output) {
+        final Map<String, Map<String, String>> data = new HashMap<>();
+        final Map<String, String> job = new HashMap<>();
+        job.put("name", jobName);
+        job.put("execid", execid);
+        data.put("job", job);
+        data.put("option", options);
+        return proxy(PluginStepContext.class, (method, args) -> {
+            switch (method.getName()) {
+                case "getLogger":
+                    return logger.getLogger();
+                case "getDataContext":
+                    return data;
+                case "getDataContextObject":
+                    return asMap(method.getReturnType(), data);
+                case "getExecutionContext":
+                    return null != output ? output.executionContext : null;
+                default:
+                    return null;
+            }
+        });
+    }
+
+    private interface Handler {
+        Object handle(Method method, Object[] args) throws Throwable;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T proxy(Class<T> type, Handler handler) {
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(handler, args);
+            }
+            return handler.handle(method, args);
+        });
+    }
+
+    // the data context type is a Map sub-interface, delegate its Map methods
+    private static Object asMap(Class<?> type, Map<String, Map<String, String>> data) {
+        if (type.isInstance(data)) {
+            return data;
+        }
+        return proxy(type, (method, args) -> method.invoke(data, args));
+    }
+}